@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.util.auth.scope.AuthScope;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import lombok.val;
+
+
+/**
+ * Context of the calling thread (AuthScope and RESTEasy context data like HttpHeaders of the request being served)
+ * that is required by client request filters, captured for continuing a call on another thread.
+ */
+final class CallerContext
+{
+    private final GuiceAuthScope guiceAuthScope;
+
+    private final AuthScope authScope;
+
+    private final Map<Class<?>, Object> contextData;
+
+
+    private CallerContext(GuiceAuthScope guiceAuthScope, AuthScope authScope, Map<Class<?>, Object> contextData)
+    {
+        this.guiceAuthScope = guiceAuthScope;
+        this.authScope = authScope;
+        this.contextData = contextData;
+    }
+
+
+    /**
+     * Capture the context of the current thread.
+     */
+    static CallerContext capture(GuiceAuthScope guiceAuthScope)
+    {
+        val contextData = (ResteasyProviderFactory.getContextDataLevelCount() > 0)
+                ? new HashMap<>(ResteasyProviderFactory.getContextDataMap())
+                : null;
+
+        return new CallerContext(guiceAuthScope, guiceAuthScope.getCurrent(), contextData);
+    }
+
+
+    /**
+     * Perform call with the captured context installed on the current thread.
+     */
+    <T> T call(Callable<T> call) throws Exception
+    {
+        if (contextData != null)
+        {
+            ResteasyProviderFactory.pushContextDataMap(contextData);
+        }
+        try
+        {
+            if (authScope != null)
+            {
+                guiceAuthScope.enter(authScope);
+            }
+            try
+            {
+                return call.call();
+            }
+            finally
+            {
+                if (authScope != null)
+                {
+                    guiceAuthScope.exit();
+                }
+            }
+        }
+        finally
+        {
+            if (contextData != null)
+            {
+                ResteasyProviderFactory.removeContextDataLevel();
+            }
+        }
+    }
+}
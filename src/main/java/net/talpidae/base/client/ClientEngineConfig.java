@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+
+/**
+ * Connection pool and timeout settings of the HTTP client used for service to service calls.
+ */
+public interface ClientEngineConfig
+{
+    /**
+     * Maximum number of pooled connections (all destinations).
+     */
+    int getConnectionPoolSize();
+
+    /**
+     * Maximum number of pooled connections per destination (host:port).
+     */
+    int getMaxPooledPerRoute();
+
+    /**
+     * Maximum life time of a connection in MS (0 means unlimited).
+     */
+    long getConnectionTtl();
+
+    /**
+     * Maximum time a connection is kept alive while idle in MS.
+     */
+    long getKeepAlive();
+
+    /**
+     * Socket read timeout in MS (0 means unlimited).
+     */
+    int getSocketTimeout();
+
+    /**
+     * Connect timeout in MS (0 means unlimited).
+     */
+    int getConnectTimeout();
+
+    /**
+     * Maximum time to wait for a connection from the pool in MS (0 means unlimited).
+     */
+    int getConnectionCheckoutTimeout();
+
+    /**
+     * Maximum ratio of hedged requests to requests of @Hedged methods (ie. 0.1 for 10%).
+     */
+    double getMaximumHedgeRatio();
+}
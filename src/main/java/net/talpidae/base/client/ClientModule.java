@@ -62,8 +62,15 @@ public class ClientModule extends AbstractModule
         bind(AuthScopeTokenForwardRequestFilter.class);
         bind(InsectNameUserAgentRequestFilter.class);
         bind(LoadBalancingRequestFilter.class);
+        bind(LoadBalancingResponseFilter.class);
+        bind(OutstandingRequestTracker.class);
+        bind(InstanceHealthTracker.class);
+        bind(LoadBalancingConnectionManager.class);
+        bind(ClientExecutor.class);
+        bind(RequestHedger.class);
         bind(LoadBalancingWebTargetFactory.class);
 
         OptionalBinder.newOptionalBinder(binder(), ClientConfiguration.class).setDefault().to(DefaultClientConfig.class);
+        OptionalBinder.newOptionalBinder(binder(), ClientEngineConfig.class).setDefault().to(DefaultClientEngineConfig.class);
     }
 }
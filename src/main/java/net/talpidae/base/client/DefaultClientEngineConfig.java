@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.util.BaseArguments;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+
+@Singleton
+@Setter
+@Getter
+public class DefaultClientEngineConfig implements ClientEngineConfig
+{
+    private static final int DEFAULT_CONNECTION_POOL_SIZE = 200;
+
+    private static final int DEFAULT_MAX_POOLED_PER_ROUTE = 20;
+
+    private static final long DEFAULT_KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int DEFAULT_SOCKET_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(60);
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(5);
+
+    private static final int DEFAULT_CONNECTION_CHECKOUT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private static final double DEFAULT_MAXIMUM_HEDGE_RATIO = 0.1;
+
+    private int connectionPoolSize;
+
+    private int maxPooledPerRoute;
+
+    private long connectionTtl;
+
+    private long keepAlive;
+
+    private int socketTimeout;
+
+    private int connectTimeout;
+
+    private int connectionCheckoutTimeout;
+
+    private double maximumHedgeRatio;
+
+
+    @Inject
+    public DefaultClientEngineConfig(BaseArguments baseArguments)
+    {
+        val parser = baseArguments.getOptionParser();
+        val connectionPoolSizeOption = parser.accepts("client.connectionPoolSize").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_CONNECTION_POOL_SIZE);
+        val maxPooledPerRouteOption = parser.accepts("client.maxPooledPerRoute").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_MAX_POOLED_PER_ROUTE);
+        val connectionTtlOption = parser.accepts("client.connectionTtl").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        val keepAliveOption = parser.accepts("client.keepAlive").withRequiredArg().ofType(Long.class).defaultsTo(DEFAULT_KEEP_ALIVE_MS);
+        val socketTimeoutOption = parser.accepts("client.socketTimeout").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_SOCKET_TIMEOUT_MS);
+        val connectTimeoutOption = parser.accepts("client.connectTimeout").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_CONNECT_TIMEOUT_MS);
+        val connectionCheckoutTimeoutOption = parser.accepts("client.connectionCheckoutTimeout").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_CONNECTION_CHECKOUT_TIMEOUT_MS);
+        val maximumHedgeRatioOption = parser.accepts("client.maximumHedgeRatio").withRequiredArg().ofType(Double.class).defaultsTo(DEFAULT_MAXIMUM_HEDGE_RATIO);
+
+        val options = baseArguments.parse();
+
+        this.connectionPoolSize = options.valueOf(connectionPoolSizeOption);
+        this.maxPooledPerRoute = options.valueOf(maxPooledPerRouteOption);
+        this.connectionTtl = options.valueOf(connectionTtlOption);
+        this.keepAlive = options.valueOf(keepAliveOption);
+        this.socketTimeout = options.valueOf(socketTimeoutOption);
+        this.connectTimeout = options.valueOf(connectTimeoutOption);
+        this.connectionCheckoutTimeout = options.valueOf(connectionCheckoutTimeoutOption);
+        this.maximumHedgeRatio = options.valueOf(maximumHedgeRatioOption);
+    }
+}
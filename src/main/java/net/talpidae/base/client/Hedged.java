@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Enable request hedging for idempotent (GET) methods of a service interface or for a single method.
+ * <p>
+ * If the first attempt didn't complete within the configured latency percentile of previous calls,
+ * a second attempt is sent to another instance. The first response wins.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Hedged
+{
+    /**
+     * Latency percentile of previous calls after which to hedge.
+     */
+    int percentile() default 95;
+
+    /**
+     * Delay used until enough latency samples have been collected.
+     */
+    long defaultDelayMillies() default 50;
+
+    /**
+     * Never hedge earlier than this.
+     */
+    long minimumDelayMillies() default 5;
+}
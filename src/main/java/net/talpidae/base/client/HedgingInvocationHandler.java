@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+
+import lombok.val;
+
+
+/**
+ * Hedges calls of idempotent (GET) methods annotated with (or declared in an interface annotated with) @Hedged.
+ */
+class HedgingInvocationHandler implements InvocationHandler
+{
+    private final RequestHedger requestHedger;
+
+    private final Object delegate;
+
+    private final Map<Method, Hedged> hedgedMethods;
+
+
+    HedgingInvocationHandler(RequestHedger requestHedger, Object delegate, Map<Method, Hedged> hedgedMethods)
+    {
+        this.requestHedger = requestHedger;
+        this.delegate = delegate;
+        this.hedgedMethods = hedgedMethods;
+    }
+
+
+    /**
+     * Find all hedged methods of the specified service interface.
+     */
+    static Map<Method, Hedged> findHedgedMethods(Class<?> serviceInterface)
+    {
+        val hedgedMethods = new HashMap<Method, Hedged>();
+        val interfaceHedged = serviceInterface.getAnnotation(Hedged.class);
+        for (val method : serviceInterface.getMethods())
+        {
+            val hedged = (method.getAnnotation(Hedged.class) != null) ? method.getAnnotation(Hedged.class) : interfaceHedged;
+            if (hedged != null && method.isAnnotationPresent(GET.class))
+            {
+                hedgedMethods.put(method, hedged);
+            }
+        }
+
+        return hedgedMethods;
+    }
+
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        val hedged = hedgedMethods.get(method);
+        if (hedged != null)
+        {
+            return requestHedger.call(method, hedged, () -> invokeDelegate(method, args));
+        }
+
+        return invokeDelegate(method, args);
+    }
+
+
+    private Object invokeDelegate(Method method, Object[] args) throws Exception
+    {
+        try
+        {
+            return method.invoke(delegate, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            val cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+
+            throw e;
+        }
+    }
+}
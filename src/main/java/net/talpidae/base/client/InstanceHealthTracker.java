@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.metrics.MetricsSink;
+import net.talpidae.base.insect.state.ServiceState;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Passive health tracking of service instances based on the responses we receive from them.
+ * <p>
+ * Instances with too many consecutive failures (5xx, responses much slower than usual, connection failures or
+ * timeouts) are ejected for a while. After that a single probe request is let through, if it fails the instance
+ * is ejected again with doubled duration.
+ */
+@Slf4j
+@Singleton
+public class InstanceHealthTracker
+{
+    private static final int CONSECUTIVE_FAILURES_MAX = 5;
+
+    private static final long EJECTION_NANOS_MIN = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long EJECTION_NANOS_MAX = TimeUnit.MINUTES.toNanos(1);
+
+    // time to wait for the result of a probe before letting through another
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // responses slower than this factor times the latency EWMA are considered failures
+    private static final int SLOW_RESPONSE_FACTOR = 8;
+
+    private static final long SLOW_RESPONSE_NANOS_MIN = TimeUnit.SECONDS.toNanos(1);
+
+    // latency EWMA smoothing factor: 1/8
+    private static final int LATENCY_EWMA_SHIFT = 3;
+
+    private static final String EJECTION_METRIC_PATH = "/client/ejections";
+
+    private final Map<InetSocketAddress, Health> addressToHealth = new ConcurrentHashMap<>();
+
+    private final AtomicLong ejectionCount = new AtomicLong();
+
+    private final MetricsSink metricsSink;
+
+
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    @Inject
+    public InstanceHealthTracker(Optional<MetricsSink> metricsSink)
+    {
+        this.metricsSink = metricsSink.orElse(null);
+    }
+
+
+    /**
+     * Total number of ejections so far.
+     */
+    public long getEjectionCount()
+    {
+        return ejectionCount.get();
+    }
+
+
+    /**
+     * Get the smoothed response latency of an instance (0 if unknown).
+     */
+    public long getLatencyNanos(InetSocketAddress address)
+    {
+        val health = addressToHealth.get(address);
+
+        return (health != null) ? health.getLatencyNanos() : 0L;
+    }
+
+
+    /**
+     * Remove currently ejected instances from alternatives, instances due for a probe are kept.
+     * <p>
+     * The probe is claimed only once an instance has actually been selected, see tryAcquire().
+     *
+     * @return alternatives itself if no instance is ejected, alternatives if all are ejected (better than nothing)
+     */
+    public List<? extends ServiceState> filterAvailable(List<? extends ServiceState> alternatives)
+    {
+        val nowNanos = System.nanoTime();
+        val size = alternatives.size();
+        for (int i = 0; i < size; ++i)
+        {
+            if (!isAvailable(alternatives.get(i).getSocketAddress(), nowNanos))
+            {
+                // slow path, at least one is ejected
+                val available = new ArrayList<ServiceState>(size - 1);
+                available.addAll(alternatives.subList(0, i));
+                for (int j = i + 1; j < size; ++j)
+                {
+                    val candidate = alternatives.get(j);
+                    if (isAvailable(candidate.getSocketAddress(), nowNanos))
+                    {
+                        available.add(candidate);
+                    }
+                }
+
+                return available.isEmpty() ? alternatives : available;
+            }
+        }
+
+        return alternatives;
+    }
+
+
+    /**
+     * Claim the probe of the selected instance, if it is due for one.
+     *
+     * @return false if the instance is ejected and its probe has already been claimed, true otherwise
+     */
+    public boolean tryAcquire(InetSocketAddress address)
+    {
+        val health = addressToHealth.get(address);
+
+        return health == null || health.tryAcquire(System.nanoTime());
+    }
+
+
+    public void recordResponse(InetSocketAddress address, long latencyNanos, boolean isServerError)
+    {
+        val health = addressToHealth.computeIfAbsent(address, k -> new Health());
+        val isSlow = health.updateLatency(latencyNanos);
+
+        if (isServerError || isSlow)
+        {
+            val nowNanos = System.nanoTime();
+            recordFailure(address, health, nowNanos, nowNanos - latencyNanos);
+        }
+        else
+        {
+            health.recordSuccess();
+        }
+    }
+
+
+    /**
+     * Record a request that failed without a response (connection refused, timeout).
+     *
+     * @param startNanos System.nanoTime() at the time the request was sent
+     */
+    public void recordTransportFailure(InetSocketAddress address, long startNanos)
+    {
+        recordFailure(address, addressToHealth.computeIfAbsent(address, k -> new Health()), System.nanoTime(), startNanos);
+    }
+
+
+    /**
+     * Forget about an instance (ie. because it has been removed).
+     */
+    public void remove(InetSocketAddress address)
+    {
+        addressToHealth.remove(address);
+    }
+
+
+    private void recordFailure(InetSocketAddress address, Health health, long nowNanos, long startNanos)
+    {
+        if (health.recordFailure(nowNanos, startNanos))
+        {
+            val count = ejectionCount.incrementAndGet();
+            log.warn("ejected {} after {} consecutive failures", address, CONSECUTIVE_FAILURES_MAX);
+
+            if (metricsSink != null)
+            {
+                metricsSink.forward(EJECTION_METRIC_PATH, System.currentTimeMillis(), count);
+            }
+        }
+    }
+
+
+    private boolean isAvailable(InetSocketAddress address, long nowNanos)
+    {
+        val health = addressToHealth.get(address);
+
+        return health == null || health.isAvailable(nowNanos);
+    }
+
+
+    private static final class Health
+    {
+        // 0: not ejected, otherwise System.nanoTime() after which a probe is let through
+        private final AtomicLong ejectedUntilNanos = new AtomicLong(0L);
+
+        @Getter
+        private volatile long latencyNanos;
+
+        private volatile int consecutiveFailures;
+
+        // System.nanoTime() at which the pending probe has been claimed, only valid if isProbing is set
+        private volatile long probeNanos;
+
+        private volatile boolean isProbing;
+
+        private long ejectionNanos = EJECTION_NANOS_MIN;
+
+
+        /**
+         * @return true if not ejected or due for a probe (doesn't claim the probe)
+         */
+        boolean isAvailable(long nowNanos)
+        {
+            val ejectedUntil = ejectedUntilNanos.get();
+
+            return ejectedUntil == 0L || nowNanos - ejectedUntil >= 0;
+        }
+
+
+        /**
+         * @return true if not ejected or if we claimed the probe
+         */
+        boolean tryAcquire(long nowNanos)
+        {
+            val ejectedUntil = ejectedUntilNanos.get();
+            if (ejectedUntil == 0L)
+            {
+                return true;
+            }
+
+            // let exactly one probe through
+            if (nowNanos - ejectedUntil >= 0 && ejectedUntilNanos.compareAndSet(ejectedUntil, nowNanos + PROBE_TIMEOUT_NANOS))
+            {
+                synchronized (this)
+                {
+                    probeNanos = nowNanos;
+                    isProbing = true;
+                }
+
+                return true;
+            }
+
+            return false;
+        }
+
+
+        /**
+         * @return true if the response is considered slow
+         */
+        boolean updateLatency(long sampleNanos)
+        {
+            val latency = latencyNanos;
+            if (latency == 0L)
+            {
+                latencyNanos = sampleNanos;
+                return false;
+            }
+
+            latencyNanos = latency + ((sampleNanos - latency) >> LATENCY_EWMA_SHIFT);
+
+            return sampleNanos > Math.max(SLOW_RESPONSE_NANOS_MIN, latency * SLOW_RESPONSE_FACTOR);
+        }
+
+
+        /**
+         * Failures of requests that were in flight when the instance got ejected are ignored, only the failure
+         * of the claimed probe (a request sent after it has been claimed) ejects it again.
+         *
+         * @return true if the instance has been ejected
+         */
+        synchronized boolean recordFailure(long nowNanos, long startNanos)
+        {
+            if (ejectedUntilNanos.get() != 0L)
+            {
+                if (!isProbing || startNanos - probeNanos < 0)
+                {
+                    return false;
+                }
+
+                // the probe failed
+                isProbing = false;
+            }
+            else if (++consecutiveFailures < CONSECUTIVE_FAILURES_MAX)
+            {
+                return false;
+            }
+
+            ejectedUntilNanos.set(nowNanos + ejectionNanos);
+            ejectionNanos = Math.min(ejectionNanos * 2, EJECTION_NANOS_MAX);
+            consecutiveFailures = 0;
+
+            return true;
+        }
+
+
+        void recordSuccess()
+        {
+            if (consecutiveFailures == 0 && ejectedUntilNanos.get() == 0L)
+            {
+                // fast path, healthy
+                return;
+            }
+
+            synchronized (this)
+            {
+                consecutiveFailures = 0;
+                ejectionNanos = EJECTION_NANOS_MIN;
+                isProbing = false;
+                ejectedUntilNanos.set(0L);
+            }
+        }
+    }
+}
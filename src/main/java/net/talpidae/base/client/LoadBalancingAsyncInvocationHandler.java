@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.Slave;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import lombok.val;
+
+
+/**
+ * Delays invocations of reactive proxy methods (returning CompletionStage, Single, Flowable or Observable)
+ * until the route has been discovered, without blocking the calling thread.
+ * <p>
+ * LoadBalancingRequestFilter then always finds a service instance immediately. The delegate is invoked on the
+ * client executor (not on the thread that completed discovery) with the caller's context re-installed.
+ */
+class LoadBalancingAsyncInvocationHandler implements InvocationHandler
+{
+    private static final long DISCOVERY_TIMEOUT_MILLIES = 30000L;
+
+    private final Slave slave;
+
+    private final String route;
+
+    private final Object delegate;
+
+    private final Executor executor;
+
+    private final GuiceAuthScope guiceAuthScope;
+
+
+    LoadBalancingAsyncInvocationHandler(Slave slave, String route, Object delegate, Executor executor, GuiceAuthScope guiceAuthScope)
+    {
+        this.slave = slave;
+        this.route = route;
+        this.delegate = delegate;
+        this.executor = executor;
+        this.guiceAuthScope = guiceAuthScope;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class)
+        {
+            return invokeDelegate(method, args);
+        }
+
+        val returnType = method.getReturnType();
+        if (CompletionStage.class.isAssignableFrom(returnType))
+        {
+            val context = CallerContext.capture(guiceAuthScope);
+            return discover().thenComposeAsync(discovered -> (CompletionStage<Object>) invokeDelegateUnchecked(context, method, args), executor);
+        }
+        else if (Single.class.isAssignableFrom(returnType))
+        {
+            val context = CallerContext.capture(guiceAuthScope);
+            return discoverSingle().flatMap(discovered -> (Single<Object>) invokeDelegateUnchecked(context, method, args));
+        }
+        else if (Flowable.class.isAssignableFrom(returnType))
+        {
+            val context = CallerContext.capture(guiceAuthScope);
+            return discoverSingle().flatMapPublisher(discovered -> (Flowable<Object>) invokeDelegateUnchecked(context, method, args));
+        }
+        else if (Observable.class.isAssignableFrom(returnType))
+        {
+            val context = CallerContext.capture(guiceAuthScope);
+            return discoverSingle().flatMapObservable(discovered -> (Observable<Object>) invokeDelegateUnchecked(context, method, args));
+        }
+
+        // blocking method
+        return invokeDelegate(method, args);
+    }
+
+
+    private CompletableFuture<Boolean> discover()
+    {
+        return slave.findServicesAsync(route, DISCOVERY_TIMEOUT_MILLIES).thenApply(alternatives ->
+        {
+            if (alternatives.isEmpty())
+            {
+                throw new ServiceUnavailableException("Unable to lookup service for route: " + route);
+            }
+
+            return Boolean.TRUE;
+        });
+    }
+
+
+    private Single<Boolean> discoverSingle()
+    {
+        // start discovery on subscription, emit on the client executor
+        return Single.defer(() -> Single.create(emitter ->
+                discover().whenCompleteAsync((discovered, e) ->
+                {
+                    if (e != null)
+                    {
+                        emitter.onError((e.getCause() != null) ? e.getCause() : e);
+                    }
+                    else
+                    {
+                        emitter.onSuccess(discovered);
+                    }
+                }, executor)));
+    }
+
+
+    private Object invokeDelegate(Method method, Object[] args) throws Exception
+    {
+        try
+        {
+            return method.invoke(delegate, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            val cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+
+    private Object invokeDelegateUnchecked(CallerContext context, Method method, Object[] args)
+    {
+        try
+        {
+            return context.call(() -> invokeDelegate(method, args));
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import com.google.common.net.InetAddresses;
+
+import net.talpidae.base.insect.metrics.MetricsSink;
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Pools connections per destination (service instance) and drops those of instances that disappeared.
+ * <p>
+ * Pool statistics (leased/pending/available) are forwarded to MetricsSink periodically, if one is bound.
+ */
+@Slf4j
+@Singleton
+public class LoadBalancingConnectionManager extends PoolingHttpClientConnectionManager
+{
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 10;
+
+    private final long keepAliveMillies;
+
+    private final MetricsSink metricsSink;
+
+
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    @Inject
+    public LoadBalancingConnectionManager(ClientEngineConfig config, Optional<MetricsSink> metricsSink, GeneralScheduler scheduler)
+    {
+        super(config.getConnectionTtl() > 0 ? config.getConnectionTtl() : -1, TimeUnit.MILLISECONDS);
+
+        this.keepAliveMillies = config.getKeepAlive();
+        this.metricsSink = metricsSink.orElse(null);
+
+        setMaxTotal(config.getConnectionPoolSize());
+        setDefaultMaxPerRoute(config.getMaxPooledPerRoute());
+
+        scheduler.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Compare the host of a destination with the host name of a route target.
+     * <p>
+     * Target host names of IPv6 instances are bracketed literals (see LoadBalancingRequestFilter.replaceHostAndPort())
+     * and literals may be written differently (ie. ::1 and 0:0:0:0:0:0:0:1), so literals are compared as addresses.
+     */
+    static boolean isSameHost(String host, InetAddress address, String targetHostName)
+    {
+        val targetHost = (targetHostName.startsWith("[") && targetHostName.endsWith("]"))
+                ? targetHostName.substring(1, targetHostName.length() - 1)
+                : targetHostName;
+
+        if (targetHost.equalsIgnoreCase(host))
+        {
+            return true;
+        }
+
+        return address != null && InetAddresses.isInetAddress(targetHost) && address.equals(InetAddresses.forString(targetHost));
+    }
+
+
+    /**
+     * Close all idle connections to the specified destination (ie. because the instance is gone).
+     */
+    public void closeAvailable(InetSocketAddress destination)
+    {
+        val host = destination.getHostString();
+        val port = destination.getPort();
+        val address = (destination.getAddress() == null && InetAddresses.isInetAddress(host))
+                ? InetAddresses.forString(host)
+                : destination.getAddress();
+
+        enumAvailable(entry ->
+        {
+            val target = entry.getRoute().getTargetHost();
+            if (target.getPort() == port && isSameHost(host, address, target.getHostName()))
+            {
+                entry.close();
+            }
+        });
+    }
+
+
+    void maintain()
+    {
+        try
+        {
+            closeExpiredConnections();
+            closeIdleConnections(keepAliveMillies, TimeUnit.MILLISECONDS);
+
+            if (metricsSink != null)
+            {
+                forwardStats(getTotalStats());
+            }
+        }
+        catch (Throwable t)
+        {
+            log.error("connection pool maintenance failed", t);
+        }
+    }
+
+
+    private void forwardStats(PoolStats stats)
+    {
+        val ts = System.currentTimeMillis();
+
+        metricsSink.forward("/client/pool/leased", ts, stats.getLeased());
+        metricsSink.forward("/client/pool/pending", ts, stats.getPending());
+        metricsSink.forward("/client/pool/available", ts, stats.getAvailable());
+    }
+}
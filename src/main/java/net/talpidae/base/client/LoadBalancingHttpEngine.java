@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.talpidae.base.client;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient43Engine;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponse;
+
+import lombok.val;
+
+
+/**
+ * Completes the bookkeeping of LoadBalancingRequestFilter for requests that fail without a response,
+ * LoadBalancingResponseFilter is never called for those.
+ * <p>
+ * Also hands the executed request to TrackedRequest and RequestHedger, so that the losing attempt of a hedged
+ * call can be aborted without counting as a failure of its instance.
+ */
+public class LoadBalancingHttpEngine extends ApacheHttpClient43Engine
+{
+    public LoadBalancingHttpEngine(HttpClient httpClient, boolean closeHttpClient)
+    {
+        super(httpClient, closeHttpClient);
+    }
+
+
+    static TrackedRequest getTrackedRequest(ClientInvocation request)
+    {
+        val trackedRequest = request.getMutableProperties().get(LoadBalancingRequestFilter.TRACKED_REQUEST_PROPERTY_NAME);
+
+        return (trackedRequest instanceof TrackedRequest) ? (TrackedRequest) trackedRequest : null;
+    }
+
+
+    @Override
+    protected void loadHttpMethod(ClientInvocation request, HttpRequestBase httpMethod) throws Exception
+    {
+        super.loadHttpMethod(request, httpMethod);
+
+        val trackedRequest = getTrackedRequest(request);
+        if (trackedRequest != null)
+        {
+            trackedRequest.setHttpRequest(httpMethod);
+        }
+
+        val attempt = RequestHedger.getCurrentAttempt();
+        if (attempt != null)
+        {
+            attempt.setHttpRequest(httpMethod);
+        }
+    }
+
+
+    @Override
+    public ClientResponse invoke(ClientInvocation request)
+    {
+        try
+        {
+            return super.invoke(request);
+        }
+        catch (RuntimeException | Error e)
+        {
+            val trackedRequest = getTrackedRequest(request);
+            if (trackedRequest != null)
+            {
+                trackedRequest.completeWithFailure();
+            }
+
+            throw e;
+        }
+    }
+}
@@ -32,6 +32,8 @@ public class LoadBalancingProxyWebTarget<T>
 {
     private final AtomicReference<T> resourceRef = new AtomicReference<>(null);
 
+    private final AtomicReference<T> asyncResourceRef = new AtomicReference<>(null);
+
     private final Provider<LoadBalancingWebTargetFactory> webTargetFactoryProvider;
 
     private final Class<T> serviceInterface;
@@ -55,7 +57,7 @@ public class LoadBalancingProxyWebTarget<T>
         if (resource == null)
         {
             // by convention we always use the fully qualified interface name as route
-            val newResource = webTargetFactoryProvider.get().newWebTarget(serviceInterface.getName()).proxy(serviceInterface);
+            val newResource = webTargetFactoryProvider.get().newProxy(serviceInterface.getName(), serviceInterface);
             if (resourceRef.compareAndSet(null, newResource))
             {
                 return newResource;
@@ -66,4 +68,26 @@ public class LoadBalancingProxyWebTarget<T>
 
         return resource;
     }
+
+
+    /**
+     * Get a new or existing client for the service interface whose methods returning CompletionStage, Single,
+     * Flowable or Observable perform service discovery and load balancing without blocking the calling thread.
+     */
+    public T getAsyncProxyWebTarget()
+    {
+        val resource = asyncResourceRef.get();
+        if (resource == null)
+        {
+            val newResource = webTargetFactoryProvider.get().newAsyncProxy(serviceInterface.getName(), serviceInterface);
+            if (asyncResourceRef.compareAndSet(null, newResource))
+            {
+                return newResource;
+            }
+
+            return asyncResourceRef.get();
+        }
+
+        return resource;
+    }
 }
@@ -18,11 +18,19 @@
 package net.talpidae.base.client;
 
 import net.talpidae.base.insect.Insect;
+import net.talpidae.base.insect.RouteListener;
+import net.talpidae.base.insect.ServiceSelector;
 import net.talpidae.base.insect.Slave;
+import net.talpidae.base.insect.state.ServiceState;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -45,12 +53,45 @@ public class LoadBalancingRequestFilter implements ClientRequestFilter
     // Must be a valid port that indicates route lookup
     public static final String ROUTE_PROPERTY_NAME = Insect.class.getPackage().toString() + ".Route";
 
+    // request property holding the selected instance address, consumed by LoadBalancingResponseFilter
+    public static final String ADDRESS_PROPERTY_NAME = Insect.class.getPackage().toString() + ".Address";
+
+    // request property holding System.nanoTime() at the time the request was sent
+    public static final String START_NANOS_PROPERTY_NAME = Insect.class.getPackage().toString() + ".StartNanos";
+
+    // request property holding the TrackedRequest, completed by LoadBalancingResponseFilter or LoadBalancingHttpEngine
+    static final String TRACKED_REQUEST_PROPERTY_NAME = Insect.class.getPackage().toString() + ".TrackedRequest";
+
     private final Slave slave;
 
+    private final ServiceSelector serviceSelector;
+
+    private final OutstandingRequestTracker outstandingRequestTracker;
+
+    private final InstanceHealthTracker instanceHealthTracker;
+
+    private final LoadBalancingConnectionManager connectionManager;
+
+    private final Set<String> subscribedRoutes = ConcurrentHashMap.newKeySet();
+
+    // drop counters, health and idle connections of instances that are gone
+    private final RouteListener removedInstanceListener;
+
     @Inject
-    public LoadBalancingRequestFilter(Slave slave)
+    public LoadBalancingRequestFilter(Slave slave, ServiceSelector serviceSelector, OutstandingRequestTracker outstandingRequestTracker, InstanceHealthTracker instanceHealthTracker, LoadBalancingConnectionManager connectionManager)
     {
         this.slave = slave;
+        this.serviceSelector = serviceSelector;
+        this.outstandingRequestTracker = outstandingRequestTracker;
+        this.instanceHealthTracker = instanceHealthTracker;
+        this.connectionManager = connectionManager;
+        this.removedInstanceListener = change ->
+                change.getRemoved().forEach(state ->
+                {
+                    outstandingRequestTracker.remove(state.getSocketAddress());
+                    instanceHealthTracker.remove(state.getSocketAddress());
+                    connectionManager.closeAvailable(state.getSocketAddress());
+                });
     }
 
 
@@ -66,12 +107,13 @@ public class LoadBalancingRequestFilter implements ClientRequestFilter
     }
 
 
-    private URI replaceHostAndPort(URI target, String host, int port)
+    static URI replaceHostAndPort(URI target, String host, int port)
     {
         try
         {
+            // UriBuilder doesn't add the brackets to IPv6 literals
             return UriBuilder.fromUri(target)
-                    .host(host)
+                    .host((host.indexOf(':') >= 0 && !host.startsWith("[")) ? "[" + host + "]" : host)
                     .port(port)
                     .build();
         }
@@ -84,6 +126,103 @@ public class LoadBalancingRequestFilter implements ClientRequestFilter
     }
 
 
+    /**
+     * Hedged requests should hit a different instance than the attempt they are hedging, if there is one.
+     */
+    private static List<? extends ServiceState> excludeHedgedAddress(List<? extends ServiceState> candidates, RequestHedger.Attempt attempt)
+    {
+        val excludedAddress = (attempt != null) ? attempt.getExcludedAddress() : null;
+        if (excludedAddress == null || candidates.size() <= 1)
+        {
+            return candidates;
+        }
+
+        val remaining = new ArrayList<ServiceState>(candidates.size());
+        for (val candidate : candidates)
+        {
+            if (!excludedAddress.equals(candidate.getSocketAddress()))
+            {
+                remaining.add(candidate);
+            }
+        }
+
+        return remaining.isEmpty() ? candidates : remaining;
+    }
+
+
+    /**
+     * Select an instance and claim its probe, if it is an ejected instance due for one.
+     * <p>
+     * If the probe is taken we select once more among the others and use that one regardless (better than nothing).
+     */
+    private ServiceState selectAndAcquire(List<? extends ServiceState> candidates)
+    {
+        val state = serviceSelector.select(candidates);
+        if (instanceHealthTracker.tryAcquire(state.getSocketAddress()) || candidates.size() <= 1)
+        {
+            return state;
+        }
+
+        // another request is already probing this ejected instance (or all of them are ejected)
+        val remaining = new ArrayList<ServiceState>(candidates.size() - 1);
+        for (val candidate : candidates)
+        {
+            if (candidate != state)
+            {
+                remaining.add(candidate);
+            }
+        }
+
+        return serviceSelector.select(remaining);
+    }
+
+
+    /**
+     * Subscribe to membership changes of route, if we didn't already.
+     * <p>
+     * Failures are logged and retried with the next request, they must not fail the request itself.
+     */
+    private void subscribe(String route)
+    {
+        if (subscribedRoutes.contains(route))
+        {
+            return;
+        }
+
+        try
+        {
+            slave.subscribe(route, removedInstanceListener);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // never going to work, state of removed instances is kept
+            log.debug("route subscriptions not supported: {}", e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("failed to subscribe to route {}: {}", route, e.getMessage());
+            return;
+        }
+
+        if (!subscribedRoutes.add(route))
+        {
+            // another request subscribed concurrently
+            slave.unsubscribe(route, removedInstanceListener);
+        }
+    }
+
+
+    private void trackRequest(ClientRequestContext requestContext, String route, InetSocketAddress address)
+    {
+        subscribe(route);
+
+        val startNanos = System.nanoTime();
+        requestContext.setProperty(TRACKED_REQUEST_PROPERTY_NAME, new TrackedRequest(outstandingRequestTracker, instanceHealthTracker, address, startNanos));
+        requestContext.setProperty(ADDRESS_PROPERTY_NAME, address);
+        requestContext.setProperty(START_NANOS_PROPERTY_NAME, startNanos);
+    }
+
+
     @Override
     public void filter(ClientRequestContext requestContext) throws IOException
     {
@@ -93,9 +232,19 @@ public class LoadBalancingRequestFilter implements ClientRequestFilter
         {
             try
             {
-                val address = slave.findService(route);
-                if (address != null)
+                val alternatives = slave.findServices(route, Long.MAX_VALUE);
+                if (!alternatives.isEmpty())
                 {
+                    // skip ejected instances
+                    val attempt = RequestHedger.getCurrentAttempt();
+                    val candidates = excludeHedgedAddress(instanceHealthTracker.filterAvailable(alternatives), attempt);
+                    val state = selectAndAcquire(candidates);
+                    val address = state.getSocketAddress();
+                    if (attempt != null)
+                    {
+                        attempt.setAddress(address);
+                    }
+
                     // successfully redirected request
                     val rewrittenUri = replaceHostAndPort(requestContext.getUri(), address.getHostString(), address.getPort());
                     if (rewrittenUri != null)
@@ -103,6 +252,8 @@ public class LoadBalancingRequestFilter implements ClientRequestFilter
                         requestContext.setUri(rewrittenUri);
                     }
 
+                    trackRequest(requestContext, route, address);
+
                     return;
                 }
             }
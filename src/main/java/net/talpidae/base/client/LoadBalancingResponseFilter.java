@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import java.io.IOException;
+
+import javax.inject.Singleton;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import lombok.val;
+
+
+/**
+ * Completes the bookkeeping of LoadBalancingRequestFilter once a response has been received.
+ */
+@Singleton
+@Provider
+public class LoadBalancingResponseFilter implements ClientResponseFilter
+{
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException
+    {
+        val trackedRequest = requestContext.getProperty(LoadBalancingRequestFilter.TRACKED_REQUEST_PROPERTY_NAME);
+        if (trackedRequest instanceof TrackedRequest)
+        {
+            val isServerError = responseContext.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR;
+
+            ((TrackedRequest) trackedRequest).completeWithResponse(isServerError);
+        }
+    }
+}
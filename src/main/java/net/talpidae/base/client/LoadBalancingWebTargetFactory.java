@@ -17,13 +17,26 @@
 
 package net.talpidae.base.client;
 
+import net.talpidae.base.insect.Slave;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 import org.jboss.resteasy.client.jaxrs.internal.ClientConfiguration;
+import org.jboss.resteasy.client.jaxrs.internal.CompletionStageRxInvokerProvider;
+import org.jboss.resteasy.rxjava2.FlowableRxInvokerProvider;
+import org.jboss.resteasy.rxjava2.ObservableRxInvokerProvider;
+import org.jboss.resteasy.rxjava2.SingleRxInvokerProvider;
+
+import java.lang.reflect.Proxy;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 
 import lombok.NonNull;
 import lombok.val;
@@ -32,12 +45,64 @@ import lombok.val;
 @Singleton
 public class LoadBalancingWebTargetFactory
 {
+    private static final Class<?>[] RX_INVOKER_PROVIDERS = new Class<?>[]{
+            CompletionStageRxInvokerProvider.class,
+            SingleRxInvokerProvider.class,
+            FlowableRxInvokerProvider.class,
+            ObservableRxInvokerProvider.class
+    };
+
     private final Client client;
 
+    private final Slave slave;
+
+    private final RequestHedger requestHedger;
+
+    private final ClientExecutor clientExecutor;
+
+    private final GuiceAuthScope guiceAuthScope;
+
     @Inject
-    public LoadBalancingWebTargetFactory(@NonNull ClientConfiguration clientConfig)
+    public LoadBalancingWebTargetFactory(@NonNull ClientConfiguration clientConfig, @NonNull ClientEngineConfig engineConfig, @NonNull LoadBalancingConnectionManager connectionManager, @NonNull Slave slave, @NonNull RequestHedger requestHedger, @NonNull ClientExecutor clientExecutor, @NonNull @Named("AuthScoped") GuiceAuthScope guiceAuthScope)
     {
-        client = ClientBuilder.newClient(clientConfig);
+        this.slave = slave;
+        this.requestHedger = requestHedger;
+        this.clientExecutor = clientExecutor;
+        this.guiceAuthScope = guiceAuthScope;
+
+        val requestConfig = RequestConfig.custom()
+                .setSocketTimeout(engineConfig.getSocketTimeout())
+                .setConnectTimeout(engineConfig.getConnectTimeout())
+                .setConnectionRequestTimeout(engineConfig.getConnectionCheckoutTimeout())
+                .build();
+
+        // honor keep-alive sent by the server, but never keep idle connections longer than configured
+        val keepAliveMillies = engineConfig.getKeepAlive();
+        val httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) ->
+                {
+                    val duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return (duration > 0) ? Math.min(duration, keepAliveMillies) : keepAliveMillies;
+                })
+                .build();
+
+        val clientBuilder = new ResteasyClientBuilder()
+                .withConfig(clientConfig)
+                .httpEngine(new LoadBalancingHttpEngine(httpClient, true));
+
+        // support reactive return types in proxies
+        for (val rxInvokerProvider : RX_INVOKER_PROVIDERS)
+        {
+            if (!clientConfig.isRegistered(rxInvokerProvider))
+            {
+                clientBuilder.register(rxInvokerProvider);
+            }
+        }
+
+        client = clientBuilder.build();
     }
 
 
@@ -53,4 +118,36 @@ public class LoadBalancingWebTargetFactory
 
         return (ResteasyWebTarget) webTarget;
     }
+
+
+    /**
+     * Create a proxy for the specified service interface. Calls of GET methods annotated with @Hedged
+     * (on the method or the service interface) are hedged by RequestHedger.
+     */
+    public <T> T newProxy(@NonNull String route, @NonNull Class<T> serviceInterface)
+    {
+        val delegate = newWebTarget(route).proxy(serviceInterface);
+        val hedgedMethods = HedgingInvocationHandler.findHedgedMethods(serviceInterface);
+        if (hedgedMethods.isEmpty())
+        {
+            return delegate;
+        }
+
+        val handler = new HedgingInvocationHandler(requestHedger, delegate, hedgedMethods);
+
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[]{serviceInterface}, handler));
+    }
+
+
+    /**
+     * Create a proxy for the specified service interface whose reactive methods (returning CompletionStage,
+     * Single, Flowable or Observable) perform service discovery without blocking the calling thread.
+     */
+    public <T> T newAsyncProxy(@NonNull String route, @NonNull Class<T> serviceInterface)
+    {
+        val delegate = newWebTarget(route).proxy(serviceInterface);
+        val handler = new LoadBalancingAsyncInvocationHandler(slave, route, delegate, clientExecutor, guiceAuthScope);
+
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[]{serviceInterface}, handler));
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import com.google.common.base.Strings;
+import com.google.inject.Singleton;
+
+import net.talpidae.base.insect.ServiceSelector;
+import net.talpidae.base.insect.config.SlaveSettings;
+import net.talpidae.base.insect.state.ServiceState;
+import net.talpidae.base.util.network.NetworkUtil;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import lombok.val;
+
+
+/**
+ * Prefers the closest instances, picks among them using PowerOfTwoChoicesServiceSelector (load and capacity).
+ * <p>
+ * Instances in the same zone (see SlaveSettings.getZone()) are the closest, followed by those sharing the longest
+ * network prefix with this node. Instances that report queued requests or lag behind with their heartbeats are
+ * unhealthy. A tier receives min(1, 1.4 * healthy fraction) of the traffic that reaches it, the rest spills over
+ * to the next more distant tier. Traffic left over after the last tier goes to all instances.
+ * <p>
+ * Enable by binding ServiceSelector to this class, ie. via OptionalBinder.setBinding().
+ */
+@Singleton
+public class LocalityAwareServiceSelector implements ServiceSelector
+{
+    private static final long UNHEALTHY_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // a tier with at least 1 / 1.4 healthy instances receives all of its traffic
+    private static final double OVERPROVISIONING_FACTOR = 1.4;
+
+    private static final int ZONE_RANK = 1 << 16;
+
+    private static final int PROXIMITY_MAX = ZONE_RANK - 1;
+
+    private static final int PROXIMITY_CACHE_SIZE_MAX = 1024;
+
+    private static final long PROXIMITY_CACHE_LIFETIME_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final SlaveSettings settings;
+
+    private final NetworkUtil networkUtil;
+
+    private final PowerOfTwoChoicesServiceSelector tierSelector;
+
+    // determining proximity enumerates local interfaces, cache it
+    private final Map<InetAddress, Integer> proximityCache = new ConcurrentHashMap<>();
+
+    private volatile long proximityCacheTimeoutNanos = 0L;
+
+
+    @Inject
+    public LocalityAwareServiceSelector(SlaveSettings settings, NetworkUtil networkUtil, PowerOfTwoChoicesServiceSelector tierSelector)
+    {
+        this.settings = settings;
+        this.networkUtil = networkUtil;
+        this.tierSelector = tierSelector;
+    }
+
+
+    private static boolean isHealthy(ServiceState state)
+    {
+        return state.getQueueDepth() == 0 && state.getLagNanos() < UNHEALTHY_LAG_NANOS;
+    }
+
+
+    @Override
+    public ServiceState select(List<? extends ServiceState> alternatives)
+    {
+        val size = alternatives.size();
+        if (size == 1)
+        {
+            return alternatives.get(0);
+        }
+
+        // group by rank, closest first
+        val zone = settings.getZone();
+        val tiers = new TreeMap<Integer, Tier>();
+        for (int i = 0; i < size; ++i)
+        {
+            val candidate = alternatives.get(i);
+            tiers.computeIfAbsent(-rank(candidate, zone), k -> new Tier()).add(candidate);
+        }
+
+        double remaining = 1.0;
+        double r = ThreadLocalRandom.current().nextDouble();
+        for (val tier : tiers.values())
+        {
+            val share = remaining * Math.min(1.0, OVERPROVISIONING_FACTOR * tier.healthy.size() / tier.total);
+            if (r < share)
+            {
+                return tierSelector.select(tier.healthy);
+            }
+
+            r -= share;
+            remaining -= share;
+        }
+
+        return tierSelector.select(alternatives);
+    }
+
+
+    private int rank(ServiceState state, String zone)
+    {
+        val zoneRank = (!Strings.isNullOrEmpty(zone) && zone.equals(state.getZone())) ? ZONE_RANK : 0;
+        val address = state.getSocketAddress().getAddress();
+
+        return zoneRank + ((address != null) ? getProximity(address) : 0);
+    }
+
+
+    private int getProximity(InetAddress address)
+    {
+        val nowNanos = System.nanoTime();
+        if (nowNanos - proximityCacheTimeoutNanos > 0 || proximityCache.size() > PROXIMITY_CACHE_SIZE_MAX)
+        {
+            // local interfaces may have changed
+            proximityCacheTimeoutNanos = nowNanos + PROXIMITY_CACHE_LIFETIME_NANOS;
+            proximityCache.clear();
+        }
+
+        return proximityCache.computeIfAbsent(address, a -> Math.min(networkUtil.getProximity(a), PROXIMITY_MAX));
+    }
+
+
+    /**
+     * Instances of equal rank.
+     */
+    private static final class Tier
+    {
+        private final List<ServiceState> healthy = new ArrayList<>();
+
+        private int total;
+
+
+        private void add(ServiceState state)
+        {
+            if (isHealthy(state))
+            {
+                healthy.add(state);
+            }
+
+            ++total;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Singleton;
+
+import lombok.val;
+
+
+/**
+ * Counts in-flight requests per service instance.
+ * <p>
+ * Counters are striped (LongAdder) to keep contention low when many threads talk to the same instance.
+ * Each request is decremented exactly once (see TrackedRequest), whether it received a response or not.
+ */
+@Singleton
+public class OutstandingRequestTracker
+{
+    private final Map<InetSocketAddress, LongAdder> outstanding = new ConcurrentHashMap<>();
+
+
+    public void increment(InetSocketAddress address)
+    {
+        outstanding.computeIfAbsent(address, k -> new LongAdder()).increment();
+    }
+
+
+    public void decrement(InetSocketAddress address)
+    {
+        val counter = outstanding.get(address);
+        if (counter != null)
+        {
+            counter.decrement();
+        }
+    }
+
+
+    /**
+     * Get the (approximate) number of requests currently in-flight to the specified instance.
+     */
+    public long getOutstanding(InetSocketAddress address)
+    {
+        val counter = outstanding.get(address);
+
+        return (counter != null) ? Math.max(0L, counter.sum()) : 0L;
+    }
+
+
+    /**
+     * Forget about an instance (ie. because it has been removed).
+     */
+    public void remove(InetSocketAddress address)
+    {
+        outstanding.remove(address);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.ServiceSelector;
+import net.talpidae.base.insect.config.SlaveSettings;
+import net.talpidae.base.insect.state.ServiceState;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.val;
+
+
+/**
+ * Picks the instance with less outstanding requests out of two random candidates.
+ * <p>
+ * Our own outstanding requests are combined with the load the instances report with their heartbeats
+ * (in-flight requests and worker queue depth), relative to their declared capacity weight.
+ * <p>
+ * Enable by binding ServiceSelector to this class, ie. via OptionalBinder.setBinding().
+ */
+@Singleton
+public class PowerOfTwoChoicesServiceSelector implements ServiceSelector
+{
+    private final OutstandingRequestTracker outstandingRequestTracker;
+
+    @Inject
+    public PowerOfTwoChoicesServiceSelector(OutstandingRequestTracker outstandingRequestTracker)
+    {
+        this.outstandingRequestTracker = outstandingRequestTracker;
+    }
+
+
+    @Override
+    public ServiceState select(List<? extends ServiceState> alternatives)
+    {
+        val size = alternatives.size();
+        if (size == 1)
+        {
+            return alternatives.get(0);
+        }
+
+        // two distinct random indices
+        val random = ThreadLocalRandom.current();
+        val first = random.nextInt(size);
+        val second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        val a = alternatives.get(first);
+        val b = alternatives.get(second);
+
+        // compare load(b) / capacity(b) < load(a) / capacity(a) without dividing
+        return (getLoad(b) * getCapacityWeight(a) < getLoad(a) * getCapacityWeight(b)) ? b : a;
+    }
+
+
+    private static long getCapacityWeight(ServiceState state)
+    {
+        val capacityWeight = state.getCapacityWeight();
+        return (capacityWeight > 0) ? capacityWeight : SlaveSettings.DEFAULT_CAPACITY_WEIGHT;
+    }
+
+
+    private long getLoad(ServiceState state)
+    {
+        return outstandingRequestTracker.getOutstanding(state.getSocketAddress())
+                + state.getInFlightRequests()
+                + state.getQueueDepth();
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.client;
+
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Executes hedged calls and keeps the global hedge budget.
+ * <p>
+ * Each call earns a fraction (maximum hedge ratio) of a hedge token, each hedge spends a whole one.
+ * Thus hedging can never increase load by more than that ratio, even during an incident.
+ * <p>
+ * The first attempt runs on the calling thread, the hedge on the client executor with the caller's context.
+ * Whichever attempt completes first wins, the request of the other one is aborted.
+ */
+@Slf4j
+@Singleton
+public class RequestHedger
+{
+    private static final ThreadLocal<Attempt> currentAttempt = new ThreadLocal<>();
+
+    private static final long TOKEN = 1000L;
+
+    // maximum number of hedges that can be saved up
+    private static final long TOKENS_MAX = 10 * TOKEN;
+
+    private final Map<Method, LatencyWindow> methodToLatencies = new ConcurrentHashMap<>();
+
+    private final AtomicLong tokens = new AtomicLong(TOKENS_MAX);
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    private final long tokensPerCall;
+
+    private final ClientExecutor executor;
+
+    private final GeneralScheduler scheduler;
+
+    private final GuiceAuthScope guiceAuthScope;
+
+
+    @Inject
+    public RequestHedger(ClientEngineConfig config, ClientExecutor executor, GeneralScheduler scheduler, @Named("AuthScoped") GuiceAuthScope guiceAuthScope)
+    {
+        this.tokensPerCall = (long) (config.getMaximumHedgeRatio() * TOKEN);
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.guiceAuthScope = guiceAuthScope;
+    }
+
+
+    /**
+     * Get the attempt performed by the current thread (or null), used by LoadBalancingRequestFilter.
+     */
+    static Attempt getCurrentAttempt()
+    {
+        return currentAttempt.get();
+    }
+
+
+    private static Throwable unwrap(Throwable e)
+    {
+        return (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+    }
+
+
+    private static void closeQuietly(Object result)
+    {
+        if (result instanceof AutoCloseable)
+        {
+            try
+            {
+                ((AutoCloseable) result).close();
+            }
+            catch (Exception e)
+            {
+                log.debug("failed to close result of losing attempt: {}", e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Total number of hedges so far.
+     */
+    public long getHedgeCount()
+    {
+        return hedgeCount.get();
+    }
+
+
+    /**
+     * Perform call, hedging with a second attempt to a different instance if the first one takes too long.
+     */
+    public Object call(Method method, Hedged hedged, Callable<Object> call) throws Throwable
+    {
+        earnToken();
+
+        val latencies = methodToLatencies.computeIfAbsent(method, k -> new LatencyWindow(hedged));
+        val race = new Race(call, latencies, CallerContext.capture(guiceAuthScope));
+        val hedgeTimer = scheduler.schedule(race::startHedge, latencies.getDelayNanos(), TimeUnit.NANOSECONDS);
+        try
+        {
+            race.run(race.getFirst());
+        }
+        finally
+        {
+            hedgeTimer.cancel(false);
+        }
+
+        return race.awaitResult();
+    }
+
+
+    private void earnToken()
+    {
+        long current;
+        do
+        {
+            current = tokens.get();
+            if (current >= TOKENS_MAX)
+            {
+                return;
+            }
+        }
+        while (!tokens.compareAndSet(current, Math.min(TOKENS_MAX, current + tokensPerCall)));
+    }
+
+
+    private void refundToken()
+    {
+        long current;
+        do
+        {
+            current = tokens.get();
+        }
+        while (!tokens.compareAndSet(current, Math.min(TOKENS_MAX, current + TOKEN)));
+    }
+
+
+    private boolean trySpendToken()
+    {
+        long current;
+        do
+        {
+            current = tokens.get();
+            if (current < TOKEN)
+            {
+                return false;
+            }
+        }
+        while (!tokens.compareAndSet(current, current - TOKEN));
+
+        return true;
+    }
+
+
+    /**
+     * A single attempt of a hedged call.
+     */
+    static final class Attempt
+    {
+        /**
+         * The attempt this one is hedging or null.
+         */
+        private final Attempt hedgedAttempt;
+
+        /**
+         * Address selected by LoadBalancingRequestFilter.
+         */
+        @Getter
+        @Setter
+        private volatile InetSocketAddress address;
+
+        private volatile HttpRequestBase httpRequest;
+
+        private volatile boolean isAborted;
+
+
+        Attempt(Attempt hedgedAttempt)
+        {
+            this.hedgedAttempt = hedgedAttempt;
+        }
+
+
+        /**
+         * Address not to use (the one of the hedged attempt, if it has been selected already) or null.
+         */
+        InetSocketAddress getExcludedAddress()
+        {
+            return (hedgedAttempt != null) ? hedgedAttempt.getAddress() : null;
+        }
+
+
+        /**
+         * Called by LoadBalancingHttpEngine with the request about to be executed for this attempt.
+         */
+        void setHttpRequest(HttpRequestBase httpRequest)
+        {
+            this.httpRequest = httpRequest;
+            if (isAborted)
+            {
+                httpRequest.abort();
+            }
+        }
+
+
+        /**
+         * Abort the (current or future) request of this attempt, interrupting socket I/O does not work.
+         */
+        void abort()
+        {
+            isAborted = true;
+
+            val request = httpRequest;
+            if (request != null)
+            {
+                request.abort();
+            }
+        }
+    }
+
+
+    /**
+     * The attempts of a single hedged call.
+     */
+    private final class Race
+    {
+        private final Callable<Object> call;
+
+        private final LatencyWindow latencies;
+
+        private final CallerContext context;
+
+        @Getter
+        private final Attempt first = new Attempt(null);
+
+        private final CompletableFuture<Object> winner = new CompletableFuture<>();
+
+        // attempts that have not completed yet, the hedge can only start while the first one is pending
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private volatile Attempt second;
+
+
+        private Race(Callable<Object> call, LatencyWindow latencies, CallerContext context)
+        {
+            this.call = call;
+            this.latencies = latencies;
+            this.context = context;
+        }
+
+
+        /**
+         * Called by the scheduler once the hedge delay has passed.
+         */
+        private void startHedge()
+        {
+            if (winner.isDone() || !trySpendToken())
+            {
+                // done or budget exhausted, just wait
+                return;
+            }
+
+            int current;
+            do
+            {
+                current = pending.get();
+                if (current == 0)
+                {
+                    refundToken();
+                    return;
+                }
+            }
+            while (!pending.compareAndSet(current, current + 1));
+
+            hedgeCount.incrementAndGet();
+            val hedge = new Attempt(first);
+            second = hedge;
+            if (winner.isDone())
+            {
+                // the first attempt completed meanwhile
+                hedge.abort();
+            }
+
+            executor.execute(() ->
+            {
+                try
+                {
+                    context.call(Executors.callable(() -> run(hedge)));
+                }
+                catch (Exception e)
+                {
+                    fail(e);
+                }
+            });
+        }
+
+
+        private void run(Attempt attempt)
+        {
+            currentAttempt.set(attempt);
+            try
+            {
+                val startNanos = System.nanoTime();
+                val result = call.call();
+                latencies.record(System.nanoTime() - startNanos);
+
+                complete(attempt, result);
+            }
+            catch (Throwable e)
+            {
+                fail(e);
+            }
+            finally
+            {
+                currentAttempt.remove();
+            }
+        }
+
+
+        private void complete(Attempt attempt, Object result)
+        {
+            pending.decrementAndGet();
+            if (winner.complete(result))
+            {
+                val loser = (attempt == first) ? second : first;
+                if (loser != null)
+                {
+                    loser.abort();
+                }
+            }
+            else
+            {
+                // too late
+                closeQuietly(result);
+            }
+        }
+
+
+        private void fail(Throwable e)
+        {
+            // report a failure only if all attempts failed
+            if (pending.decrementAndGet() == 0)
+            {
+                winner.completeExceptionally(e);
+            }
+        }
+
+
+        private Object awaitResult() throws Throwable
+        {
+            try
+            {
+                return winner.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw unwrap(e);
+            }
+            catch (InterruptedException e)
+            {
+                val hedge = second;
+                if (hedge != null)
+                {
+                    hedge.abort();
+                }
+
+                throw e;
+            }
+        }
+    }
+
+
+    /**
+     * Recent latencies of a method, used to determine the hedge delay.
+     */
+    private static final class LatencyWindow
+    {
+        private static final int SIZE = 256;
+
+        // recalculate the percentile every this many samples
+        private static final int UPDATE_INTERVAL = 32;
+
+        private final long[] samples = new long[SIZE];
+
+        private int count;
+
+        private final int percentile;
+
+        private final long minimumDelayNanos;
+
+        private volatile long delayNanos;
+
+
+        LatencyWindow(Hedged hedged)
+        {
+            this.percentile = Math.max(0, Math.min(100, hedged.percentile()));
+            this.minimumDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedged.minimumDelayMillies());
+            this.delayNanos = Math.max(minimumDelayNanos, TimeUnit.MILLISECONDS.toNanos(hedged.defaultDelayMillies()));
+        }
+
+
+        long getDelayNanos()
+        {
+            return delayNanos;
+        }
+
+
+        synchronized void record(long latencyNanos)
+        {
+            val n = count++;
+            samples[n % SIZE] = latencyNanos;
+
+            if ((n + 1) % UPDATE_INTERVAL == 0)
+            {
+                val sorted = Arrays.copyOf(samples, Math.min(n + 1, SIZE));
+                Arrays.sort(sorted);
+
+                delayNanos = Math.max(minimumDelayNanos, sorted[Math.min(sorted.length - 1, (sorted.length * percentile) / 100)]);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.talpidae.base.client;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+
+/**
+ * Bookkeeping of a single load balanced request.
+ * <p>
+ * Completed exactly once: by LoadBalancingResponseFilter once a response has been received or by
+ * LoadBalancingHttpEngine if the request failed without one (connection refused, timeout, abort).
+ */
+final class TrackedRequest
+{
+    private final AtomicBoolean isCompleted = new AtomicBoolean();
+
+    private final OutstandingRequestTracker outstandingRequestTracker;
+
+    private final InstanceHealthTracker instanceHealthTracker;
+
+    @Getter
+    private final InetSocketAddress address;
+
+    private final long startNanos;
+
+    /**
+     * The request executed by LoadBalancingHttpEngine, its abort state tells whether we cancelled it.
+     */
+    @Setter
+    private volatile HttpRequestBase httpRequest;
+
+
+    TrackedRequest(OutstandingRequestTracker outstandingRequestTracker, InstanceHealthTracker instanceHealthTracker, InetSocketAddress address, long startNanos)
+    {
+        this.outstandingRequestTracker = outstandingRequestTracker;
+        this.instanceHealthTracker = instanceHealthTracker;
+        this.address = address;
+        this.startNanos = startNanos;
+
+        outstandingRequestTracker.increment(address);
+    }
+
+
+    /**
+     * Did we abort the request ourselves (ie. a hedged request that lost)?
+     * <p>
+     * Decided from the abort state of the request itself, an aborted request waiting for its response fails with
+     * an arbitrary I/O exception (ie. SocketException: Socket closed).
+     */
+    private boolean isCancellation()
+    {
+        if (Thread.currentThread().isInterrupted())
+        {
+            return true;
+        }
+
+        val request = httpRequest;
+
+        return request != null && request.isAborted();
+    }
+
+
+    boolean isCompleted()
+    {
+        return isCompleted.get();
+    }
+
+
+    /**
+     * Called once a response has been received.
+     */
+    void completeWithResponse(boolean isServerError)
+    {
+        if (isCompleted.compareAndSet(false, true))
+        {
+            outstandingRequestTracker.decrement(address);
+            instanceHealthTracker.recordResponse(address, System.nanoTime() - startNanos, isServerError);
+        }
+    }
+
+
+    /**
+     * Called if the request failed without a response, counts as instance failure unless we cancelled it.
+     */
+    void completeWithFailure()
+    {
+        if (isCompleted.compareAndSet(false, true))
+        {
+            outstandingRequestTracker.decrement(address);
+
+            if (!isCancellation())
+            {
+                instanceHealthTracker.recordTransportFailure(address, startNanos);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import net.talpidae.base.util.performance.Metric;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Inject;
 
@@ -61,6 +62,30 @@ public class AsyncSlave extends AsyncInsectWrapper<SyncSlave> implements Slave
         return getInsect().findServices(route, timeoutMillies);
     }
 
+    @Override
+    public CompletableFuture<InetSocketAddress> findServiceAsync(String route, long timeoutMillies)
+    {
+        return getInsect().findServiceAsync(route, timeoutMillies);
+    }
+
+    @Override
+    public CompletableFuture<List<? extends ServiceState>> findServicesAsync(String route, long timeoutMillies)
+    {
+        return getInsect().findServicesAsync(route, timeoutMillies);
+    }
+
+    @Override
+    public void subscribe(String route, RouteListener listener)
+    {
+        getInsect().subscribe(route, listener);
+    }
+
+    @Override
+    public void unsubscribe(String route, RouteListener listener)
+    {
+        getInsect().unsubscribe(route, listener);
+    }
+
     @Override
     public void forwardMetrics(Queue<Metric> metricQueue)
     {
@@ -23,26 +23,33 @@ import net.talpidae.base.insect.config.InsectSettings;
 import net.talpidae.base.insect.exchange.MessageExchange;
 import net.talpidae.base.insect.exchange.MessageQueueControl;
 import net.talpidae.base.insect.message.InsectMessage;
+import net.talpidae.base.insect.message.payload.CompactMetrics;
 import net.talpidae.base.insect.message.payload.Invalidate;
 import net.talpidae.base.insect.message.payload.Mapping;
+import net.talpidae.base.insect.message.payload.Mappings;
 import net.talpidae.base.insect.message.payload.Metrics;
 import net.talpidae.base.insect.message.payload.Payload;
 import net.talpidae.base.insect.message.payload.Shutdown;
 import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.util.network.CachingAddressResolver;
 import net.talpidae.base.util.network.NetworkUtil;
 import net.talpidae.base.util.random.AtomicXorShiftRandom;
 
 import java.net.InetSocketAddress;
 import java.nio.charset.CharacterCodingException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -57,6 +64,22 @@ import lombok.val;
 @Slf4j
 public abstract class Insect<S extends InsectSettings> extends MessageExchange<InsectMessage> implements CloseableRunnable
 {
+    private static final long ADDRESS_CACHE_TTL_MILLIES = TimeUnit.MINUTES.toMillis(2);
+
+    // heartbeat lag EWMA smoothing factor: 1/8
+    private static final int LAG_EWMA_SHIFT = 3;
+
+    // heartbeat lag baseline creeps towards the current offset by 1/256 per heartbeat (follows clock drift)
+    private static final int LAG_BASELINE_SHIFT = 8;
+
+    // offsets this far above the baseline indicate a restarted remote (new monotonic clock origin)
+    private static final long LAG_REBASE_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // limits for the compact metrics path dictionaries kept per sender
+    private static final int METRIC_DICTIONARY_SENDERS_MAX = 4096;
+
+    private static final int METRIC_DICTIONARY_SIZE_MAX = 65536;
+
     private static final InsectCollection EMPTY_ROUTE = new InsectCollection(0L)
     {
         @Override
@@ -79,10 +102,34 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
     @Getter(AccessLevel.PROTECTED)
     private final S settings;
 
+    @Getter(AccessLevel.PROTECTED)
     private final long pulseDelayCutoff;
 
     private final Deque<OutBoundMessage> outBoundMessages = new ConcurrentLinkedDeque<>();
 
+    /**
+     * Resolves mapping hosts without blocking the exchange thread.
+     */
+    @Getter
+    private final CachingAddressResolver addressResolver = new CachingAddressResolver(ADDRESS_CACHE_TTL_MILLIES);
+
+    /**
+     * Mappings that had been parked until their host got resolved.
+     */
+    private final Queue<Mapping> resolvedMappings = new ConcurrentLinkedQueue<>();
+
+    private final Consumer<Mapping> resolvedMappingListener = this::handleResolvedMapping;
+
+    /**
+     * Compact metrics path dictionary per sender (path ID -> path).
+     */
+    private final Map<InetSocketAddress, Map<Integer, String>> metricPathDictionaries = new ConcurrentHashMap<>();
+
+    /**
+     * Outbound state of the current processMessages() cycle, per exchange thread.
+     */
+    private final ThreadLocal<OutBoundCycle> outBoundCycle = ThreadLocal.withInitial(OutBoundCycle::new);
+
     @Getter(AccessLevel.PROTECTED)
     protected AtomicXorShiftRandom random = new AtomicXorShiftRandom();
 
@@ -96,7 +143,7 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
      */
     @Getter
     @Setter(AccessLevel.PROTECTED)
-    private long maximumTimestamp;
+    private volatile long maximumTimestamp;
 
 
     Insect(S settings, boolean onlyTrustedRemotes)
@@ -128,6 +175,9 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         pulseDelayMillies = getSettings().getPulseDelay();
         routeToInsects.clear();
         outBoundMessages.clear();
+        resolvedMappings.clear();
+
+        prepareRun();
 
         try
         {
@@ -175,6 +225,14 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
     }
 
 
+    /**
+     * Override if additional actions are required before the exchange loop starts (after state has been reset).
+     */
+    protected void prepareRun()
+    {
+    }
+
+
     /**
      * Override if additional actions are required before shutting down.
      */
@@ -237,8 +295,29 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
     }
 
 
+    /**
+     * Override to ask the sender of compact metrics with unknown path IDs to define its paths again.
+     */
+    protected void handleUnknownMetricPaths(InetSocketAddress remote)
+    {
+
+    }
+
+
+    /**
+     * Override to indicate that the destination understands batched mappings (Mappings payload).
+     */
+    protected boolean isBatchReceiver(InetSocketAddress destination)
+    {
+        return false;
+    }
+
+
     /**
      * Pack and send a message with the specified payload to the given destination.
+     * <p>
+     * Adding the same payload instance for multiple destinations in a row serializes it only once.
+     * Mappings for batch receivers are coalesced per destination until the end of processMessages().
      */
     protected void addMessage(InetSocketAddress destination, Payload payload)
     {
@@ -247,7 +326,15 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         {
             // general case:
             // message was created from within processMessages() context (same thread)
-            ((InsectMessage) queueControl.addOutbound(destination)).setPayload(payload);
+            val cycle = outBoundCycle.get();
+            if (payload.getType() == Mapping.TYPE_MAPPING && isBatchReceiver(destination))
+            {
+                cycle.pendingMappings.computeIfAbsent(destination, k -> new ArrayList<>()).add((Mapping) payload);
+            }
+            else
+            {
+                cycle.addOutbound(queueControl, destination, payload);
+            }
         }
         else
         {
@@ -307,9 +394,32 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
                         break;
                     }
 
+                    case Mappings.TYPE_MAPPINGS:
+                    {
+                        for (val mapping : ((Mappings) payload).getMappings())
+                        {
+                            if (isTrustedServer || mapping.isAuthorative(remote))
+                            {
+                                handleMapping(nowNanos, mapping);
+                            }
+                            else
+                            {
+                                log.warn("possible spoofing: remote {} not authorized to send message: {}", remote, mapping);
+                            }
+                        }
+                        break;
+                    }
+
                     case Metrics.TYPE_METRIC:
                     {
                         handleMetrics((Metrics) payload);
+                        break;
+                    }
+
+                    case CompactMetrics.TYPE_COMPACT_METRICS:
+                    {
+                        handleCompactMetrics(remote, (CompactMetrics) payload);
+                        break;
                     }
                 }
             }
@@ -324,14 +434,74 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         }
     }
 
+    /**
+     * Resolve path IDs using the sender's dictionary and handle the resulting metrics.
+     */
+    private void handleCompactMetrics(InetSocketAddress remote, CompactMetrics compactMetrics)
+    {
+        Map<Integer, String> dictionary = metricPathDictionaries.get(remote);
+        if (dictionary == null)
+        {
+            if (metricPathDictionaries.size() >= METRIC_DICTIONARY_SENDERS_MAX)
+            {
+                // senders re-announce their definitions periodically
+                metricPathDictionaries.clear();
+            }
+
+            dictionary = metricPathDictionaries.computeIfAbsent(remote, k -> new ConcurrentHashMap<>());
+        }
+
+        if (dictionary.size() >= METRIC_DICTIONARY_SIZE_MAX)
+        {
+            dictionary.clear();
+        }
+
+        compactMetrics.updateDictionary(dictionary);
+
+        val metrics = compactMetrics.toMetrics(dictionary);
+        if (metrics.getMetrics().size() < compactMetrics.getSampleCount())
+        {
+            log.debug("dropped {} metrics with unknown path ID from {}", compactMetrics.getSampleCount() - metrics.getMetrics().size(), remote);
+
+            // definitions got lost or we restarted
+            handleUnknownMetricPaths(remote);
+        }
+
+        if (!metrics.getMetrics().isEmpty())
+        {
+            handleMetrics(metrics);
+        }
+    }
+
+
+    /**
+     * Called from a resolver thread once the host of a parked mapping has been resolved.
+     */
+    private void handleResolvedMapping(Mapping mapping)
+    {
+        resolvedMappings.offer(mapping);
+
+        // schedule call to processMessages() which continues handling the mapping
+        wakeup();
+    }
+
     private void handleMapping(long nowNanos, Mapping mapping)
     {
+        // never block the exchange thread for name resolution, park the mapping instead
+        val resolution = addressResolver.lookup(mapping.getHost(), mapping, resolvedMappingListener);
+        if (resolution == null)
+        {
+            log.debug("parked mapping until host {} is resolved", mapping.getHost());
+            return;
+        }
+
         val alternatives = routeToInsects.computeIfAbsent(mapping.getRoute(), r -> new InsectCollection(pulseDelayCutoff));
 
         // do we have an existing entry for this slave?
         val nextState = alternatives.compute(mapping.getSocketAddress(), state ->
         {
             val remoteTimestamp = mapping.getTimestamp();
+            val offsetNanos = nowNanos - remoteTimestamp;
             val nextStateBuilder = InsectState.builder()
                     .name(mapping.getName());
 
@@ -362,24 +532,65 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
                 if (adjustedTimestamp < previousAdjustedTimestamp || adjustedTimestamp > (previousAdjustedTimestamp + pulseDelayNanos + (pulseDelayNanos >>> 1)))
                 {
                     // missed heartbeat package or service restarted, need to reset epoch
-                    nextStateBuilder.newEpoch(nowNanos, remoteTimestamp);
+                    nextStateBuilder.newEpoch(nowNanos, remoteTimestamp)
+                            .baselineOffsetNanos(offsetNanos)
+                            .lagNanos(state.getLagNanos())
+                            .jitterNanos(state.getJitterNanos());
                 }
                 else
                 {
                     nextStateBuilder.timestampEpochLocal(localEpoch)
                             .timestampEpochRemote(remoteEpoch)
                             .timestamp(localEpoch + (remoteTimestamp - remoteEpoch));
+
+                    // how much later than the fastest heartbeat seen (by the remote clock) did this heartbeat arrive?
+                    // network delay and clock offset cancel out, the baseline only rises slowly to follow clock drift
+                    val previousBaselineNanos = state.getBaselineOffsetNanos();
+                    val baselineNanos = (offsetNanos <= previousBaselineNanos || offsetNanos - previousBaselineNanos > LAG_REBASE_THRESHOLD_NANOS)
+                            ? offsetNanos
+                            : previousBaselineNanos + ((offsetNanos - previousBaselineNanos) >> LAG_BASELINE_SHIFT);
+                    nextStateBuilder.baselineOffsetNanos(baselineNanos);
+
+                    val lagNanos = offsetNanos - baselineNanos;
+                    val smoothedLagNanos = state.getLagNanos() + ((lagNanos - state.getLagNanos()) >> LAG_EWMA_SHIFT);
+                    val jitterNanos = Math.abs(lagNanos - state.getLagNanos());
+                    nextStateBuilder.lagNanos(smoothedLagNanos)
+                            .jitterNanos(state.getJitterNanos() + ((jitterNanos - state.getJitterNanos()) >> LAG_EWMA_SHIFT));
                 }
             }
             else
             {
                 socketAddress = null;
 
-                nextStateBuilder.newEpoch(nowNanos, remoteTimestamp);
+                nextStateBuilder.newEpoch(nowNanos, remoteTimestamp)
+                        .baselineOffsetNanos(offsetNanos);
+            }
+
+            // server reported load, keep the last known values if the sender doesn't report any
+            if ((mapping.getFlags() & Mapping.FLAG_LOAD) != 0)
+            {
+                nextStateBuilder.inFlightRequests(mapping.getInFlightRequests())
+                        .queueDepth(mapping.getQueueDepth())
+                        .capacityWeight(mapping.getCapacityWeight());
+            }
+            else if (state != null)
+            {
+                nextStateBuilder.inFlightRequests(state.getInFlightRequests())
+                        .queueDepth(state.getQueueDepth())
+                        .capacityWeight(state.getCapacityWeight());
+            }
+
+            if ((mapping.getFlags() & Mapping.FLAG_ZONE) != 0)
+            {
+                nextStateBuilder.zone(mapping.getZone());
+            }
+            else if (state != null)
+            {
+                nextStateBuilder.zone(state.getZone());
             }
 
             // resolve once
-            nextStateBuilder.socketAddress((socketAddress != null) ? socketAddress : new InetSocketAddress(mapping.getHost(), mapping.getPort()));
+            nextStateBuilder.socketAddress((socketAddress != null) ? socketAddress : resolution.toSocketAddress(mapping.getHost(), mapping.getPort()));
 
             val newDependency = mapping.getDependency();
             if (!newDependency.isEmpty())
@@ -434,6 +645,21 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         }
 
         val nowNanos = System.nanoTime();
+
+        // continue with mappings whose host has been resolved in the meantime
+        Mapping resolvedMapping;
+        while ((resolvedMapping = resolvedMappings.poll()) != null)
+        {
+            try
+            {
+                handleMapping(nowNanos, resolvedMapping);
+            }
+            catch (Throwable e)
+            {
+                log.error("error handling resolved mapping for host {}: {}: {}", resolvedMapping.getHost(), e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+
         InsectMessage inBoundMessage;
         while ((inBoundMessage = control.pollInbound()) != null)
         {
@@ -448,7 +674,32 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         }
 
         // call handlePulse() as soon as the last queued inbound message has been processed
-        return handlePulse(nowNanos);
+        try
+        {
+            return handlePulse(nowNanos);
+        }
+        finally
+        {
+            outBoundCycle.get().finish(control);
+        }
+    }
+
+
+    /**
+     * Copy all current (route, state) entries, ie. for persisting them.
+     */
+    protected List<Map.Entry<String, InsectState>> copyInsectState()
+    {
+        val entries = new ArrayList<Map.Entry<String, InsectState>>();
+        for (val routeAndInsects : routeToInsects.entrySet())
+        {
+            for (val state : routeAndInsects.getValue().getAll())
+            {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(routeAndInsects.getKey(), state));
+            }
+        }
+
+        return entries;
     }
 
 
@@ -480,6 +731,96 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
     }
 
 
+    /**
+     * Outbound messages added during one processMessages() cycle.
+     */
+    private static final class OutBoundCycle
+    {
+        /**
+         * Mappings added for batch receivers, sent at the end of the cycle.
+         */
+        private final Map<InetSocketAddress, List<Mapping>> pendingMappings = new HashMap<>();
+
+        /**
+         * Last payload added and the message it has been serialized to (fan-out).
+         */
+        private Payload lastPayload;
+
+        private InsectMessage lastMessage;
+
+
+        private void addOutbound(MessageQueueControl<?> queueControl, InetSocketAddress destination, Payload payload)
+        {
+            val message = (InsectMessage) queueControl.addOutbound(destination);
+            if (payload == lastPayload)
+            {
+                // fan-out: just copy the already serialized payload
+                message.setPayloadFrom(lastMessage);
+            }
+            else
+            {
+                message.setPayload(payload);
+
+                lastPayload = payload;
+                lastMessage = message;
+            }
+        }
+
+
+        /**
+         * Pack all mappings collected for batch receivers into as few messages as possible.
+         */
+        private void flushPendingMappings(MessageQueueControl<?> queueControl)
+        {
+            if (pendingMappings.isEmpty())
+            {
+                return;
+            }
+
+            for (val entry : pendingMappings.entrySet())
+            {
+                val destination = entry.getKey();
+                val mappings = entry.getValue();
+                int i = 0;
+                while (i < mappings.size())
+                {
+                    val count = Mappings.countFitting(mappings, i);
+                    if (count <= 1)
+                    {
+                        // no need to wrap a single mapping
+                        addOutbound(queueControl, destination, mappings.get(i));
+                        ++i;
+                    }
+                    else
+                    {
+                        addOutbound(queueControl, destination, Mappings.builder()
+                                .mappings(mappings.subList(i, i + count))
+                                .build());
+                        i += count;
+                    }
+                }
+            }
+        }
+
+
+        private void finish(MessageQueueControl<?> queueControl)
+        {
+            try
+            {
+                flushPendingMappings(queueControl);
+            }
+            finally
+            {
+                pendingMappings.clear();
+
+                // outbound messages may be sent and recycled after processMessages() returns
+                lastPayload = null;
+                lastMessage = null;
+            }
+        }
+    }
+
+
     private static final class InsectPool
     {
         private static final InsectPool EMPTY = new InsectPool(new InsectState[0], 0);
@@ -502,36 +843,68 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
 
     protected static class InsectCollection
     {
-        private static final int ACTION_REPLACE = 0;
+        private final long pulseDelayCutoff;
 
-        private static final int ACTION_ADD = 1;
+        /**
+         * Address (unresolved) to current state index, guarded by this.
+         */
+        private final Map<InetSocketAddress, InsectState> addressToState = new HashMap<>();
 
-        private static final int ACTION_REMOVE = -1;
+        /**
+         * Copy-on-write snapshot, sorted by timestamp descending (to allow faster lookup by slave).
+         */
+        private volatile InsectPool insects = InsectPool.EMPTY;
 
-        private final AtomicReference<InsectPool> insects = new AtomicReference<>(InsectPool.EMPTY);
 
-        private final long pulseDelayCutoff;
+        InsectCollection(long pulseDelayCutoff)
+        {
+            this.pulseDelayCutoff = pulseDelayCutoff;
+        }
 
 
-        private InsectCollection(long pulseDelayCutoff)
+        /**
+         * Get the key used for the address index (host string and port).
+         */
+        private static InetSocketAddress toKey(InetSocketAddress socketAddress)
         {
-            this.pulseDelayCutoff = pulseDelayCutoff;
+            return socketAddress.isUnresolved()
+                    ? socketAddress
+                    : InetSocketAddress.createUnresolved(socketAddress.getHostString(), socketAddress.getPort());
         }
 
 
-        private static int indexOf(InsectState[] array, InetSocketAddress socketAddress)
+        /**
+         * Find the index of the first element with a timestamp less or equal to the specified timestamp.
+         */
+        private static int lowerBound(InsectState[] array, int length, long timestamp)
         {
-            for (int i = 0; i < array.length; ++i)
+            int low = 0;
+            int high = length;
+            while (low < high)
             {
-                val otherAddress = array[i].getSocketAddress();
-                if (socketAddress.getPort() == otherAddress.getPort())
+                val mid = (low + high) >>> 1;
+                if (array[mid].getTimestamp() > timestamp)
                 {
-                    val hostString = socketAddress.getHostString();
-                    val otherHostString = otherAddress.getHostString();
-                    if (Objects.equals(hostString, otherHostString))
-                    {
-                        return i;
-                    }
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+
+        private static int indexOf(InsectState[] array, InsectState state)
+        {
+            val timestamp = state.getTimestamp();
+            for (int i = lowerBound(array, array.length, timestamp); i < array.length && array[i].getTimestamp() == timestamp; ++i)
+            {
+                if (array[i] == state)
+                {
+                    return i;
                 }
             }
 
@@ -539,21 +912,47 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
         }
 
 
+        /**
+         * Insert state into the sorted array (which has space for one more element at length).
+         */
+        private static void insert(InsectState[] array, int length, InsectState state)
+        {
+            val index = lowerBound(array, length, state.getTimestamp());
+            System.arraycopy(array, index, array, index + 1, length - index);
+            array[index] = state;
+        }
+
+
         public List<InsectState> getActive()
         {
-            return insects.get().activeInsects;
+            return insects.activeInsects;
         }
 
 
         public List<InsectState> getAll()
         {
-            return insects.get().allInsects;
+            return insects.allInsects;
         }
 
 
-        void clear()
+        synchronized void clear()
         {
-            insects.set(InsectPool.EMPTY);
+            addressToState.clear();
+            insects = InsectPool.EMPTY;
+        }
+
+
+        private InsectPool newPool(InsectState[] next)
+        {
+            if (next.length == 0)
+            {
+                return InsectPool.EMPTY;
+            }
+
+            // find first timed-out insect
+            val timestampCutOff = next[0].getTimestamp() - pulseDelayCutoff;
+
+            return new InsectPool(next, lowerBound(next, next.length, timestampCutOff - 1));
         }
 
 
@@ -564,128 +963,92 @@ public abstract class Insect<S extends InsectSettings> extends MessageExchange<I
          */
         int truncateOlderThan(long deadlineNanos, Consumer<InsectState> removedConsumer)
         {
-            InsectPool pool;
-            InsectPool nextPool;
-
-            int count = 0;
-            do
+            final InsectState[] existing;
+            final int nextLength;
+            synchronized (this)
             {
-                pool = insects.get();  // acquire
-                val activeEndIndex = pool.activeInsects.size();
-                val existing = pool.insects;
-
-                int i = existing.length - 1;
-                while (i >= 0 && existing[i].getTimestamp() < deadlineNanos)
-                {
-                    --i;
-                }
-
-                val nextLength = i + 1;
-                count = existing.length - nextLength;
+                existing = insects.insects;
+                nextLength = lowerBound(existing, existing.length, deadlineNanos - 1);
                 if (nextLength == existing.length)
                 {
                     // nothing to do
-                    break;
+                    return 0;
                 }
-                else if (nextLength > 0)
-                {
-                    val next = new InsectState[nextLength];
-                    System.arraycopy(existing, 0, next, 0, Math.min(existing.length, nextLength));
 
-                    nextPool = new InsectPool(next, activeEndIndex);
-                }
-                else
+                for (int i = nextLength; i < existing.length; ++i)
                 {
-                    nextPool = InsectPool.EMPTY;
+                    addressToState.remove(toKey(existing[i].getSocketAddress()));
                 }
+
+                insects = newPool(Arrays.copyOf(existing, nextLength));
             }
-            while (!insects.compareAndSet(pool, nextPool));
 
             // notify about removed instances
-            for (int i = pool.insects.length - 1; i >= pool.insects.length - count; --i)
+            for (int i = existing.length - 1; i >= nextLength; --i)
             {
-                removedConsumer.accept(pool.insects[i]);
+                removedConsumer.accept(existing[i]);
             }
 
-            return count;
+            return existing.length - nextLength;
         }
 
 
         /**
          * Updates this collection of insects.
+         * <p>
+         * Only the updated element is moved to its new position, readers always see a consistent snapshot.
          *
          * @param key            The address of the insect to compute.
          * @param updateFunction Function that will create a new immutable InsectState value, based on the previous value.
          * @return The new value or null if none exists (the previous item has been removed or didn't exist in the first place).
          */
-        InsectState compute(InetSocketAddress key, InsectStateUpdateFunction updateFunction)
+        synchronized InsectState compute(InetSocketAddress key, InsectStateUpdateFunction updateFunction)
         {
-            InsectPool pool;
-            InsectPool nextPool;
-            InsectState nextState;
-            do
+            val indexKey = toKey(key);
+            val state = addressToState.get(indexKey);
+            val nextState = updateFunction.apply(state);
+            if (state == null && nextState == null)
             {
-                pool = insects.get();  // acquire
-
-                val existing = pool.insects;
-                val index = indexOf(existing, key);
-                nextState = updateFunction.apply(index >= 0 ? existing[index] : null);
-
-                final int action;
-                if (index >= 0)
-                {
-                    if (nextState != null)
-                    {
-                        action = ACTION_REPLACE;
-                    }
-                    else
-                    {
-                        action = ACTION_REMOVE;
-                    }
-                }
-                else if (nextState != null)
-                {
-                    // add
-                    action = ACTION_ADD;
-                }
-                else
-                {
-                    // no-op
-                    return null;
-                }
+                // no-op
+                return null;
+            }
 
-                val nextLength = existing.length + action;
-                if (nextLength > 0)
-                {
-                    val next = new InsectState[nextLength];
-                    System.arraycopy(existing, 0, next, 0, Math.min(existing.length, nextLength));
-                    next[action == ACTION_ADD ? existing.length : index] = (action != ACTION_REMOVE) ? nextState : existing[existing.length - 1];
+            val existing = insects.insects;
+            val index = (state != null) ? indexOf(existing, state) : -1;
+            if (state != null && index < 0)
+            {
+                throw new IllegalStateException("address index out of sync with insects: " + key);
+            }
 
-                    // copy of last array has been updated now
+            final InsectState[] next;
+            if (nextState == null)
+            {
+                // remove
+                next = new InsectState[existing.length - 1];
+                System.arraycopy(existing, 0, next, 0, index);
+                System.arraycopy(existing, index + 1, next, index, next.length - index);
 
-                    // sort by timestamp descending (to allow faster lookup by slave)
-                    Arrays.sort(next, (s1, s2) -> -Long.compare(s1.getTimestamp(), s2.getTimestamp()));
+                addressToState.remove(indexKey);
+            }
+            else if (state == null)
+            {
+                // add
+                next = Arrays.copyOf(existing, existing.length + 1);
+                insert(next, existing.length, nextState);
 
-                    // find first timed-out insect
-                    val timestampCutOff = next[0].getTimestamp() - pulseDelayCutoff;
-                    int i;
-                    for (i = 1; i < next.length; ++i)
-                    {
-                        if (next[i].getTimestamp() < timestampCutOff)
-                        {
-                            // cutoff reached
-                            break;
-                        }
-                    }
+                addressToState.put(indexKey, nextState);
+            }
+            else
+            {
+                // replace, move updated element to its new position
+                next = existing.clone();
+                System.arraycopy(next, index + 1, next, index, next.length - index - 1);
+                insert(next, next.length - 1, nextState);
 
-                    nextPool = new InsectPool(next, i);
-                }
-                else
-                {
-                    nextPool = InsectPool.EMPTY;
-                }
+                addressToState.put(indexKey, nextState);
             }
-            while (!insects.compareAndSet(pool, nextPool));
+
+            insects = newPool(next);
 
             return nextState;
         }
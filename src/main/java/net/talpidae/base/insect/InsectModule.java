@@ -37,7 +37,9 @@ public class InsectModule extends AbstractModule
 
         OptionalBinder.newOptionalBinder(binder(), SlaveSettings.class).setDefault().to(DefaultSlaveSettings.class);
         OptionalBinder.newOptionalBinder(binder(), Slave.class).setDefault().to(AsyncSlave.class);
+        OptionalBinder.newOptionalBinder(binder(), ServiceSelector.class).setDefault().to(UniformServiceSelector.class);
 
+        OptionalBinder.newOptionalBinder(binder(), LoadSource.class);
         OptionalBinder.newOptionalBinder(binder(), MetricsSink.class);
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect;
+
+import com.google.inject.Singleton;
+
+import net.talpidae.base.insect.state.ServiceState;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import lombok.val;
+
+
+/**
+ * Picks a random instance, weighted by the inverse of its heartbeat lag and jitter.
+ * <p>
+ * Lagging instances (overloaded, GC-bound) thus receive proportionally less traffic.
+ */
+@Singleton
+public class LatencyWeightedServiceSelector implements ServiceSelector
+{
+    // lag at which an instances weight is halved
+    private static final double REFERENCE_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static double weight(ServiceState state)
+    {
+        return 1.0 / (1.0 + (state.getLagNanos() + 2 * state.getJitterNanos()) / REFERENCE_LAG_NANOS);
+    }
+
+
+    @Override
+    public ServiceState select(List<? extends ServiceState> alternatives)
+    {
+        val size = alternatives.size();
+        if (size == 1)
+        {
+            return alternatives.get(0);
+        }
+
+        double totalWeight = 0.0;
+        for (int i = 0; i < size; ++i)
+        {
+            totalWeight += weight(alternatives.get(i));
+        }
+
+        double remainder = ThreadLocalRandom.current().nextDouble(totalWeight);
+        for (int i = 0; i < size; ++i)
+        {
+            val candidate = alternatives.get(i);
+            remainder -= weight(candidate);
+            if (remainder < 0.0)
+            {
+                return candidate;
+            }
+        }
+
+        // rounding
+        return alternatives.get(size - 1);
+    }
+}
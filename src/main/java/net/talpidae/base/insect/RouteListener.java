@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect;
+
+import net.talpidae.base.insect.state.RouteChange;
+
+
+/**
+ * Receives membership changes of a route subscribed to via Slave.subscribe().
+ */
+@FunctionalInterface
+public interface RouteListener
+{
+    /**
+     * Called on the exchange thread with coalesced changes, implementations must not block.
+     */
+    void onRouteChanged(RouteChange change);
+}
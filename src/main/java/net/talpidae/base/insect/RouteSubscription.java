@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect;
+
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.RouteChange;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Tracks the members of a subscribed route and coalesces changes until they are flushed.
+ * <p>
+ * New listeners receive the current members with the next flush (on the exchange thread), after that only changes.
+ */
+@Slf4j
+class RouteSubscription
+{
+    private final String route;
+
+    private final List<RouteListener> listeners = new ArrayList<>();
+
+    // listeners still waiting for their initial snapshot
+    private final List<RouteListener> pendingListeners = new ArrayList<>();
+
+    private final Map<InetSocketAddress, InsectState> known = new HashMap<>();
+
+    private final Map<InetSocketAddress, InsectState> pendingAdded = new LinkedHashMap<>();
+
+    private final Map<InetSocketAddress, InsectState> pendingRemoved = new LinkedHashMap<>();
+
+    private boolean isInitialized;
+
+
+    RouteSubscription(String route)
+    {
+        this.route = route;
+    }
+
+
+    private static <T> List<T> copyValues(Map<?, T> map)
+    {
+        val values = new ArrayList<T>(map.values());
+        map.clear();
+
+        return values;
+    }
+
+
+    synchronized void addListener(RouteListener listener)
+    {
+        pendingListeners.add(listener);
+    }
+
+
+    /**
+     * @return true if there are listeners left
+     */
+    synchronized boolean removeListener(RouteListener listener)
+    {
+        // the same listener may have been added twice, remove a single registration
+        if (!pendingListeners.remove(listener))
+        {
+            listeners.remove(listener);
+        }
+
+        return !listeners.isEmpty() || !pendingListeners.isEmpty();
+    }
+
+
+    synchronized void update(InsectState state)
+    {
+        val socketAddress = state.getSocketAddress();
+        if (known.put(socketAddress, state) == null)
+        {
+            // removed and re-added within the same cycle cancel each other out
+            if (pendingRemoved.remove(socketAddress) == null)
+            {
+                pendingAdded.put(socketAddress, state);
+            }
+        }
+    }
+
+
+    synchronized void remove(InsectState state)
+    {
+        val socketAddress = state.getSocketAddress();
+
+        // only remove the exact state we know (the same address may appear in other routes)
+        if (known.get(socketAddress) == state)
+        {
+            known.remove(socketAddress);
+            if (pendingAdded.remove(socketAddress) == null)
+            {
+                pendingRemoved.put(socketAddress, state);
+            }
+        }
+    }
+
+
+    synchronized void removeAll()
+    {
+        for (val state : new ArrayList<>(known.values()))
+        {
+            remove(state);
+        }
+    }
+
+
+    /**
+     * Notify listeners about all changes since the last call, new listeners about all current members instead.
+     *
+     * @param members Current members of the route, used to seed the known members on the first call.
+     */
+    void flush(Supplier<? extends Collection<InsectState>> members)
+    {
+        final RouteChange change;
+        final List<RouteListener> changeListeners;
+        final RouteChange snapshot;
+        final List<RouteListener> newListeners;
+        synchronized (this)
+        {
+            if (!isInitialized)
+            {
+                isInitialized = true;
+                for (val state : members.get())
+                {
+                    known.putIfAbsent(state.getSocketAddress(), state);
+                }
+            }
+
+            if (pendingAdded.isEmpty() && pendingRemoved.isEmpty())
+            {
+                change = null;
+                changeListeners = Collections.emptyList();
+            }
+            else
+            {
+                change = new RouteChange(route, copyValues(pendingAdded), copyValues(pendingRemoved));
+                changeListeners = new ArrayList<>(listeners);
+            }
+
+            if (pendingListeners.isEmpty())
+            {
+                snapshot = null;
+                newListeners = Collections.emptyList();
+            }
+            else
+            {
+                // known already includes the pending changes, so new listeners must not receive those
+                snapshot = new RouteChange(route, new ArrayList<>(known.values()), Collections.emptyList());
+                newListeners = new ArrayList<>(pendingListeners);
+                pendingListeners.clear();
+                listeners.addAll(newListeners);
+            }
+        }
+
+        for (val listener : changeListeners)
+        {
+            notify(listener, change);
+        }
+
+        if (snapshot != null && !snapshot.getAdded().isEmpty())
+        {
+            for (val listener : newListeners)
+            {
+                notify(listener, snapshot);
+            }
+        }
+    }
+
+
+    private void notify(RouteListener listener, RouteChange change)
+    {
+        try
+        {
+            listener.onRouteChanged(change);
+        }
+        catch (RuntimeException e)
+        {
+            log.error("route listener for {} failed: {}", route, e.getMessage(), e);
+        }
+    }
+}
@@ -21,8 +21,10 @@ import net.talpidae.base.insect.state.ServiceState;
 import net.talpidae.base.util.performance.Metric;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 
 public interface Slave extends CloseableRunnable
@@ -46,6 +48,73 @@ public interface Slave extends CloseableRunnable
      */
     List<? extends ServiceState> findServices(String route, long timeoutMillies) throws InterruptedException;
 
+    /**
+     * Try to find a service for route and register route as a dependency without blocking.
+     * <p>
+     * The default implementation calls findService() on the common fork-join pool.
+     *
+     * @return Future completed with the address of a discovered service or null, if none was discovered before a timeout occurred.
+     */
+    default CompletableFuture<InetSocketAddress> findServiceAsync(String route, long timeoutMillies)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                return findService(route, timeoutMillies);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Return all known services for route and register route as a dependency without blocking.
+     * <p>
+     * The default implementation calls findServices() on the common fork-join pool.
+     *
+     * @return Future completed with the discovered services or an empty list, if none were discovered before a timeout occurred.
+     */
+    default CompletableFuture<List<? extends ServiceState>> findServicesAsync(String route, long timeoutMillies)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                final List<? extends ServiceState> alternatives = findServices(route, timeoutMillies);
+                return (alternatives != null) ? alternatives : Collections.<ServiceState>emptyList();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return Collections.<ServiceState>emptyList();
+            }
+        });
+    }
+
+    /**
+     * Register a listener for membership changes of route and register route as a dependency.
+     * <p>
+     * Changes are coalesced and delivered on the exchange thread, listeners must not block.
+     * <p>
+     * The default implementation doesn't support subscriptions, the listener is never called.
+     */
+    default void subscribe(String route, RouteListener listener)
+    {
+
+    }
+
+    /**
+     * Remove a listener registered via subscribe().
+     */
+    default void unsubscribe(String route, RouteListener listener)
+    {
+
+    }
+
 
     /**
      * Send some of the specified metrics from the front of the queue.
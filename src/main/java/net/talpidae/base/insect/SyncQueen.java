@@ -17,19 +17,32 @@
 
 package net.talpidae.base.insect;
 
+import com.google.common.base.Strings;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 
 import net.talpidae.base.event.ServerShutdown;
 import net.talpidae.base.insect.config.QueenSettings;
+import net.talpidae.base.insect.metrics.MetricsStore;
 import net.talpidae.base.insect.message.payload.Invalidate;
 import net.talpidae.base.insect.message.payload.Mapping;
+import net.talpidae.base.insect.message.payload.Metrics;
 import net.talpidae.base.insect.message.payload.Shutdown;
 import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.InsectStateSnapshot;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.inject.Inject;
@@ -45,23 +58,81 @@ import lombok.val;
 @Slf4j
 public class SyncQueen extends Insect<QueenSettings> implements Queen
 {
+    private static final long SNAPSHOT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // rewrite unchanged state once in a while to keep the stored ages accurate
+    private static final long SNAPSHOT_REFRESH_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // invalidate also drops the route table of the slave, so don't ask for missing metric path definitions too often
+    private static final long METRIC_INVALIDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final int METRIC_INVALIDATE_SENDERS_MAX = 4096;
+
     @Getter(AccessLevel.PROTECTED)
     private final EventBus eventBus;
 
+    // null if metrics are not stored
+    @Getter
+    private final MetricsStore metricsStore;
+
+    // dependency route -> (subscriber address -> latest subscriber state)
+    private final Map<String, Map<InetSocketAddress, InsectState>> routeToSubscribers = new ConcurrentHashMap<>();
+
+    // insects that announced support for batched mappings
+    private final Set<InetSocketAddress> batchReceivers = ConcurrentHashMap.newKeySet();
+
+    // insects that announced support for the load and zone extensions
+    private final Set<InetSocketAddress> extensionReceivers = ConcurrentHashMap.newKeySet();
+
+    // metrics sender -> System.nanoTime() after which it may be sent another invalidate for unknown path IDs
+    private final Map<InetSocketAddress, Long> metricInvalidateNanos = new ConcurrentHashMap<>();
+
+    // state passed to initializeInsectState(), applied on startup
+    private final List<Map.Entry<String, InsectState>> initialState = new ArrayList<>();
+
+    // null if snapshots are disabled
+    private final InsectStateSnapshot stateSnapshot;
+
+    // incremented on every relevant state change, allows to skip writing unchanged snapshots
+    private final AtomicLong stateVersion = new AtomicLong();
+
+    private final AtomicLong nextSnapshotNanos = new AtomicLong();
+
+    private volatile long snapshotVersion = -1L;
+
+    private volatile long lastSnapshotNanos;
+
+    // do not overwrite a snapshot that has not been restored (ie. when closed before running)
+    private volatile boolean isSnapshotRestored;
+
 
-    @Inject
     public SyncQueen(QueenSettings settings, EventBus eventBus)
+    {
+        this(settings, eventBus, null);
+    }
+
+    @Inject
+    public SyncQueen(QueenSettings settings, EventBus eventBus, MetricsStore metricsStore)
     {
         super(settings, false);
 
         this.eventBus = eventBus;
+        this.metricsStore = (settings.getMaximumMetricSeries() > 0) ? metricsStore : null;
+        this.stateSnapshot = (settings.getStateSnapshotPath() != null)
+                ? new InsectStateSnapshot(Paths.get(settings.getStateSnapshotPath()))
+                : null;
 
         eventBus.register(this);
     }
 
-    private static Mapping createMappingFromState(InsectState state, String route)
+    private static Mapping createMappingFromState(InsectState state, String route, boolean includeLoad)
     {
         return Mapping.builder()
+                .flags(includeLoad ? ((state.getCapacityWeight() > 0) ? Mapping.FLAG_LOAD : 0) | (Strings.isNullOrEmpty(state.getZone()) ? 0 : Mapping.FLAG_ZONE) : 0)
+                .inFlightRequests(state.getInFlightRequests())
+                .queueDepth(state.getQueueDepth())
+                .capacityWeight(state.getCapacityWeight())
+                .zone(state.getZone())
                 .name(state.getName())
                 .host(state.getSocketAddress().getHostString())
                 .port(state.getSocketAddress().getPort())
@@ -71,18 +142,25 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
                 .build();
     }
 
+    @Override
+    public void run()
+    {
+        routeToSubscribers.clear();
+        batchReceivers.clear();
+        extensionReceivers.clear();
+
+        super.run();
+    }
+
     @Override
     public void initializeInsectState(Stream<Map.Entry<String, InsectState>> stateStream)
     {
         if (!isRunning())
         {
-            stateStream.forEach(entry ->
+            synchronized (initialState)
             {
-                initializeRoute(entry.getKey())
-                        .compute(entry.getValue().getSocketAddress(), state ->
-                                (state != null) ? state : entry.getValue()
-                        );
-            });
+                initialState.addAll(stateStream.collect(Collectors.toList()));
+            }
         }
         else
         {
@@ -90,6 +168,82 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
         }
     }
 
+    @Override
+    protected void prepareRun()
+    {
+        synchronized (initialState)
+        {
+            initialState.forEach(this::restoreInsectState);
+        }
+
+        if (stateSnapshot != null)
+        {
+            val nowNanos = System.nanoTime();
+            try
+            {
+                val entries = stateSnapshot.read(nowNanos, getSettings().getRestInPeaceTimeout());
+                entries.forEach(this::restoreInsectState);
+
+                entries.stream()
+                        .mapToLong(entry -> entry.getValue().getTimestamp())
+                        .max()
+                        .ifPresent(this::setMaximumTimestamp);
+
+                log.info("restored {} insects from state snapshot", entries.size());
+            }
+            catch (IOException | RuntimeException e)
+            {
+                log.warn("failed to restore state snapshot: {}", e.getMessage());
+            }
+
+            lastSnapshotNanos = nowNanos;
+            nextSnapshotNanos.set(nowNanos + SNAPSHOT_INTERVAL_NANOS);
+            isSnapshotRestored = true;
+        }
+    }
+
+
+    @Override
+    protected long handlePulse(long nowNanos)
+    {
+        val nextPulseDelay = super.handlePulse(nowNanos);
+
+        if (stateSnapshot != null)
+        {
+            val next = nextSnapshotNanos.get();
+            if (nowNanos - next >= 0 && nextSnapshotNanos.compareAndSet(next, nowNanos + SNAPSHOT_INTERVAL_NANOS))
+            {
+                // only one exchange thread gets here per interval
+                if (stateVersion.get() != snapshotVersion || nowNanos - lastSnapshotNanos >= SNAPSHOT_REFRESH_INTERVAL_NANOS)
+                {
+                    writeSnapshot(nowNanos);
+                }
+            }
+        }
+
+        return nextPulseDelay;
+    }
+
+
+    @Override
+    protected void prepareShutdown()
+    {
+        if (stateSnapshot != null && isSnapshotRestored)
+        {
+            writeSnapshot(System.nanoTime());
+
+            try
+            {
+                stateSnapshot.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("failed to close state snapshot: {}", e.getMessage());
+            }
+        }
+    }
+
+
     /**
      * Get a (live) stream of all current service state.
      */
@@ -119,32 +273,58 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
     @Override
     public void setIsOutOfService(String route, InetSocketAddress socketAddress, boolean isOutOfService)
     {
-        getRouteToInsects().getOrDefault(route, emptyRoute())
+        val nextState = getRouteToInsects().getOrDefault(route, emptyRoute())
                 .compute(socketAddress, state ->
                         (state != null) ?
                                 // copy everything but the isOutOfService flag
-                                InsectState.builder()
-                                        .name(state.getName())
+                                state.toBuilder()
                                         .isOutOfService(isOutOfService)
-                                        .timestampEpochRemote(state.getTimestampEpochRemote())
-                                        .timestamp(state.getTimestamp())
-                                        .timestampEpochLocal(state.getTimestampEpochLocal())
-                                        .dependencies(state.getDependencies())
-                                        .socketAddress(state.getSocketAddress())
                                         .build()
                                 : null
                 );
+
+        if (nextState != null)
+        {
+            updateSubscriber(nextState);
+            stateVersion.incrementAndGet();
+        }
     }
 
 
     @Override
     protected void postHandleMapping(InsectState state, Mapping mapping, boolean isNewMapping, boolean isDependencyMapping)
     {
+        // keep the reverse index pointing to the latest state of this subscriber
+        updateSubscriber(state);
+
+        if ((mapping.getFlags() & Mapping.FLAG_BATCH_RECEIVER) != 0)
+        {
+            batchReceivers.add(state.getSocketAddress());
+        }
+        else
+        {
+            batchReceivers.remove(state.getSocketAddress());
+        }
+
+        if ((mapping.getFlags() & (Mapping.FLAG_EXTENSION_RECEIVER | Mapping.FLAG_LOAD)) != 0)
+        {
+            extensionReceivers.add(state.getSocketAddress());
+        }
+        else
+        {
+            extensionReceivers.remove(state.getSocketAddress());
+        }
+
         if (isNewMapping)
         {
             sendInvalidate(state.getSocketAddress());
         }
 
+        if (isNewMapping || isDependencyMapping)
+        {
+            stateVersion.incrementAndGet();
+        }
+
         if (isDependencyMapping)
         {
             handleDependencyRequest(state, mapping);
@@ -155,6 +335,52 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
         }
     }
 
+    @Override
+    protected void handleTimeout(InsectState timedOutState)
+    {
+        removeSubscriber(timedOutState);
+        batchReceivers.remove(timedOutState.getSocketAddress());
+        extensionReceivers.remove(timedOutState.getSocketAddress());
+        stateVersion.incrementAndGet();
+    }
+
+
+    @Override
+    protected void handleMetrics(Metrics metrics)
+    {
+        if (metricsStore != null)
+        {
+            metricsStore.record(metrics.getMetrics());
+        }
+    }
+
+
+    @Override
+    protected void handleUnknownMetricPaths(InetSocketAddress remote)
+    {
+        val nowNanos = System.nanoTime();
+        val nextNanos = metricInvalidateNanos.get(remote);
+        if (nextNanos == null || nowNanos - nextNanos >= 0)
+        {
+            if (metricInvalidateNanos.size() >= METRIC_INVALIDATE_SENDERS_MAX)
+            {
+                metricInvalidateNanos.clear();
+            }
+
+            metricInvalidateNanos.put(remote, nowNanos + METRIC_INVALIDATE_INTERVAL_NANOS);
+
+            // the slave defines all its metric paths again
+            sendInvalidate(remote);
+        }
+    }
+
+
+    @Override
+    protected boolean isBatchReceiver(InetSocketAddress destination)
+    {
+        return batchReceivers.contains(destination);
+    }
+
     /**
      * Send an invalidate request to a slave.
      */
@@ -169,6 +395,70 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
     }
 
 
+    /**
+     * Add the specified state unless the route already contains state for the same address.
+     */
+    private void restoreInsectState(Map.Entry<String, InsectState> entry)
+    {
+        val nextState = initializeRoute(entry.getKey())
+                .compute(entry.getValue().getSocketAddress(), state ->
+                        (state != null) ? state : entry.getValue()
+                );
+
+        updateSubscriber(nextState);
+    }
+
+
+    /**
+     * Write the current state of all routes to the snapshot file.
+     */
+    private void writeSnapshot(long nowNanos)
+    {
+        val version = stateVersion.get();
+        try
+        {
+            stateSnapshot.write(copyInsectState(), nowNanos);
+
+            snapshotVersion = version;
+            lastSnapshotNanos = nowNanos;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.warn("failed to write state snapshot: {}", e.getMessage());
+        }
+    }
+
+
+    /**
+     * Register the specified state as subscriber for all of its dependencies.
+     */
+    private void updateSubscriber(InsectState state)
+    {
+        val socketAddress = state.getSocketAddress();
+        for (val dependency : state.getDependencies())
+        {
+            routeToSubscribers.computeIfAbsent(dependency, k -> new ConcurrentHashMap<>())
+                    .put(socketAddress, state);
+        }
+    }
+
+    /**
+     * Remove the specified state from the subscribers of all of its dependencies.
+     */
+    private void removeSubscriber(InsectState state)
+    {
+        val socketAddress = state.getSocketAddress();
+        for (val dependency : state.getDependencies())
+        {
+            val subscribers = routeToSubscribers.get(dependency);
+            if (subscribers != null)
+            {
+                subscribers.remove(socketAddress);
+            }
+        }
+    }
+
+
     @Subscribe
     protected void onServerShutdown(ServerShutdown serverShutdown)
     {
@@ -178,7 +468,7 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
 
 
     /**
-     * Immediately respond with one of the mappings we have in case a dependency was published.
+     * Immediately respond with the mappings we have in case a dependency was published.
      * Otherwise the sender would have to wait for the next pulse to reach it.
      */
     private void handleDependencyRequest(InsectState state, Mapping mapping)
@@ -187,14 +477,16 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
         val size = alternatives.size();
         if (size > 0)
         {
-            // find random non out-of-service insect
+            // send all non out-of-service insects, starting at a random one
+            val destination = state.getSocketAddress();
+            val includeLoad = extensionReceivers.contains(destination);
             val startIndex = getRandom().nextInt(size);
             for (int i = 0; i < size; ++i)
             {
                 val candidate = alternatives.get((i + startIndex) % size);
                 if (!candidate.isOutOfService())
                 {
-                    addMessage(candidate.getSocketAddress(), createMappingFromState(candidate, mapping.getDependency()));
+                    addMessage(destination, createMappingFromState(candidate, mapping.getDependency(), includeLoad));
                 }
             }
         }
@@ -211,26 +503,39 @@ public class SyncQueen extends Insect<QueenSettings> implements Queen
             return;
         }
 
-        getRouteToInsects().forEach((route, states) ->
+        val subscribers = routeToSubscribers.get(mapping.getRoute());
+        if (subscribers != null)
         {
-            val mappingRoute = mapping.getRoute();
-            if (route != null)
+            // skip subscribers that are not active anymore (about to time out)
+            val activeCutOff = getMaximumTimestamp() - getPulseDelayCutoff();
+            Mapping mappingWithoutExtensions = null;
+            for (val s : subscribers.values())
             {
-                for (val s : states.getActive())
+                if (s.getTimestamp() >= activeCutOff)
                 {
-                    if (s.getDependencies().contains(mappingRoute))
+                    val destination = s.getSocketAddress();
+
+                    if (destination.isUnresolved())
                     {
-                        val destination = s.getSocketAddress();
+                        log.debug("unresolved address {}", destination);
+                    }
 
-                        if (destination.isUnresolved())
+                    if (extensionReceivers.contains(destination))
+                    {
+                        addMessage(destination, mapping);
+                    }
+                    else
+                    {
+                        // strip extensions for receivers that don't understand them
+                        if (mappingWithoutExtensions == null)
                         {
-                            log.debug("unresolved address {}", destination);
+                            mappingWithoutExtensions = mapping.withoutExtensions();
                         }
 
-                        addMessage(destination, mapping);
+                        addMessage(destination, mappingWithoutExtensions);
                     }
                 }
             }
-        });
+        }
     }
 }
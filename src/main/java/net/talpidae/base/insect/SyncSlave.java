@@ -26,19 +26,29 @@ import net.talpidae.base.event.Invalidate;
 import net.talpidae.base.event.ServerShutdown;
 import net.talpidae.base.event.Shutdown;
 import net.talpidae.base.insect.config.SlaveSettings;
+import net.talpidae.base.insect.message.payload.CompactMetrics;
 import net.talpidae.base.insect.message.payload.Mapping;
+import net.talpidae.base.insect.message.payload.MetricPathDictionary;
 import net.talpidae.base.insect.message.payload.Metrics;
 import net.talpidae.base.insect.message.payload.Payload;
 import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.InsectStateSnapshot;
 import net.talpidae.base.insect.state.ServiceState;
 import net.talpidae.base.util.network.NetworkUtil;
 import net.talpidae.base.util.performance.Metric;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
@@ -46,6 +56,8 @@ import java.util.function.BiFunction;
 import javax.inject.Inject;
 
 import lombok.Getter;
+import lombok.Setter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
@@ -58,24 +70,57 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
 
     private static final long DEPENDENCY_RESEND_MILLIES_MAX = TimeUnit.SECONDS.toMillis(12);
 
+    private static final long ROUTE_CACHE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // re-announce compact metrics path definitions once in a while, in case some were lost
+    private static final long METRIC_DICTIONARY_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
     private final Map<String, RouteWaiter> dependencies = new ConcurrentHashMap<>();
 
+    // routes restored from the route cache, their discovery is requested on the first pulse
+    private final Set<String> provisionalRoutes = ConcurrentHashMap.newKeySet();
+
+    // route -> listeners and members of that route
+    private final Map<String, RouteSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    // null if the route cache is disabled
+    private final InsectStateSnapshot routeCache;
+
+    private volatile boolean isRouteCacheRestored;
+
+    private long nextRouteCacheNanos = 0L;
+
+    private final MetricPathDictionary metricPathDictionary = new MetricPathDictionary();
+
+    private long nextMetricDictionaryRefreshNanos = 0L;
+
     private final EventBus eventBus;
 
     private final NetworkUtil networkUtil;
 
+    private final ServiceSelector serviceSelector;
+
+    // null if no load is reported
+    private final LoadSource loadSource;
+
     private long nextHeartBeatNanos = 0L;
 
     @Getter
     private volatile boolean isRunning = false;
 
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
     @Inject
-    public SyncSlave(SlaveSettings settings, EventBus eventBus, NetworkUtil networkUtil)
+    public SyncSlave(SlaveSettings settings, EventBus eventBus, NetworkUtil networkUtil, ServiceSelector serviceSelector, Optional<LoadSource> loadSource)
     {
         super(settings, true);
 
         this.eventBus = eventBus;
         this.networkUtil = networkUtil;
+        this.serviceSelector = serviceSelector;
+        this.loadSource = loadSource.orElse(null);
+        this.routeCache = (settings.getRouteCachePath() != null)
+                ? new InsectStateSnapshot(Paths.get(settings.getRouteCachePath()))
+                : null;
 
         eventBus.register(this);
     }
@@ -106,6 +151,69 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
         }
     }
 
+    @Override
+    protected void prepareRun()
+    {
+        provisionalRoutes.clear();
+
+        if (routeCache != null)
+        {
+            val nowNanos = System.nanoTime();
+            try
+            {
+                // provisional entries serve lookups until fresh mappings arrive and they time out
+                val entries = routeCache.read(nowNanos, getSettings().getRestInPeaceTimeout());
+                for (val entry : entries)
+                {
+                    initializeRoute(entry.getKey()).compute(entry.getValue().getSocketAddress(), state ->
+                            (state != null) ? state : entry.getValue());
+
+                    provisionalRoutes.add(entry.getKey());
+                }
+
+                entries.stream()
+                        .mapToLong(entry -> entry.getValue().getTimestamp())
+                        .max()
+                        .ifPresent(this::setMaximumTimestamp);
+
+                log.info("restored {} routes from route cache", provisionalRoutes.size());
+            }
+            catch (IOException | RuntimeException e)
+            {
+                log.warn("failed to restore route cache: {}", e.getMessage());
+            }
+
+            nextRouteCacheNanos = nowNanos + ROUTE_CACHE_INTERVAL_NANOS;
+            isRouteCacheRestored = true;
+        }
+    }
+
+
+    @Override
+    protected void prepareShutdown()
+    {
+        // nothing will be discovered anymore
+        for (val routeWaiter : dependencies.values())
+        {
+            routeWaiter.completePending(Collections.emptyList());
+        }
+
+        if (routeCache != null && isRouteCacheRestored)
+        {
+            writeRouteCache(System.nanoTime());
+
+            try
+            {
+                routeCache.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("failed to close route cache: {}", e.getMessage());
+            }
+        }
+    }
+
+
     /**
      * Try to find a service for route, register route as a dependency and block in case it isn't available immediately.
      */
@@ -125,11 +233,10 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
     {
         // we may occasionally get an empty collection from findServices()
         val alternatives = findServices(route, timeoutMillies);
-        val size = alternatives.size();
-        if (size > 0)
+        if (!alternatives.isEmpty())
         {
-            // pick a random service from the pool
-            return alternatives.get(getRandom().nextInt(size)).getSocketAddress();
+            // pick a service from the pool
+            return serviceSelector.select(alternatives).getSocketAddress();
         }
 
         // timeout
@@ -204,12 +311,131 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
     }
 
 
+    /**
+     * Try to find a service for route and register route as a dependency without blocking.
+     *
+     * @return Future completed with the address of a discovered service or null, if none was discovered before a timeout occurred.
+     */
+    @Override
+    public CompletableFuture<InetSocketAddress> findServiceAsync(String route, long timeoutMillies)
+    {
+        return findServicesAsync(route, timeoutMillies).thenApply(alternatives ->
+                (!alternatives.isEmpty()) ? serviceSelector.select(alternatives).getSocketAddress() : null);
+    }
+
+    /**
+     * Return all known services for route and register route as a dependency without blocking.
+     * <p>
+     * The returned future is completed on the exchange thread, dependent stages must not block.
+     *
+     * @return Future completed with the discovered services or an empty list, if none were discovered before a timeout occurred.
+     */
+    @Override
+    public CompletableFuture<List<? extends ServiceState>> findServicesAsync(String route, long timeoutMillies)
+    {
+        val alternatives = lookupServices(route);
+        if (!alternatives.isEmpty())
+        {
+            // fast path
+            return CompletableFuture.completedFuture(alternatives);
+        }
+
+        val nowNanos = System.nanoTime();
+        val deadlineNanos = (timeoutMillies >= 0) ? nowNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillies) : Long.MAX_VALUE;
+        val future = new CompletableFuture<List<? extends ServiceState>>();
+
+        val routeWaiter = dependencies.computeIfAbsent(route, k -> new RouteWaiter());
+        routeWaiter.addPending(future, deadlineNanos);
+
+        if (routeWaiter.advanceDiscoveryState(nowNanos) == RouteWaiter.State.SEND)
+        {
+            requestDependency(nowNanos, route);
+        }
+
+        // the route may have been discovered (and the waiter dropped) meanwhile
+        val discovered = lookupServices(route);
+        if (!discovered.isEmpty())
+        {
+            future.complete(discovered);
+        }
+
+        // further resends and timeouts are handled by handlePulse()
+        return future;
+    }
+
+
+    /**
+     * Register a listener for membership changes of route and register route as a dependency.
+     * <p>
+     * Currently known members are reported to the listener with the next pulse (on the exchange thread).
+     */
+    @Override
+    public void subscribe(String route, RouteListener listener)
+    {
+        subscriptions.compute(route, (k, existing) ->
+        {
+            val next = (existing != null) ? existing : new RouteSubscription(k);
+            next.addListener(listener);
+
+            return next;
+        });
+
+        // make sure the queen relays changes for this route
+        val nowNanos = System.nanoTime();
+        if (lookupServices(route).isEmpty())
+        {
+            // the request or its answer may get lost, resend from handlePulse() until the first mapping arrives
+            val routeWaiter = dependencies.computeIfAbsent(route, k -> new RouteWaiter());
+            routeWaiter.setSubscribed(true);
+            if (routeWaiter.advanceDiscoveryState(nowNanos) == RouteWaiter.State.SEND)
+            {
+                requestDependency(nowNanos, route);
+            }
+
+            // the route may have been discovered (and the waiter dropped) meanwhile
+            if (!lookupServices(route).isEmpty())
+            {
+                dependencies.remove(route, routeWaiter);
+            }
+        }
+        else
+        {
+            requestDependency(nowNanos, route);
+        }
+    }
+
+    /**
+     * Remove a listener registered via subscribe().
+     */
+    @Override
+    public void unsubscribe(String route, RouteListener listener)
+    {
+        val subscription = subscriptions.computeIfPresent(route, (k, existing) -> existing.removeListener(listener) ? existing : null);
+        if (subscription == null)
+        {
+            val routeWaiter = dependencies.get(route);
+            if (routeWaiter != null)
+            {
+                routeWaiter.setSubscribed(false);
+            }
+        }
+    }
+
+
     @Override
     public void forwardMetrics(Queue<Metric> metricQueue)
     {
-        val metrics = Metrics.builder()
-                .metrics(metricQueue)
-                .build();
+        final Payload metrics;
+        if (getSettings().isCompactMetricsEnabled())
+        {
+            metrics = CompactMetrics.pack(metricQueue, metricPathDictionary);
+        }
+        else
+        {
+            metrics = Metrics.builder()
+                    .metrics(metricQueue)
+                    .build();
+        }
 
         sendToRemotes((settings, remote) -> metrics);
     }
@@ -224,6 +450,12 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
     @Override
     protected void postHandleMapping(InsectState state, Mapping mapping, boolean isNewMapping, boolean isDependencyMapping)
     {
+        val subscription = subscriptions.get(mapping.getRoute());
+        if (subscription != null)
+        {
+            subscription.update(state);
+        }
+
         if (isNewMapping)
         {
             // notify findService() callers blocking for route discovery
@@ -232,6 +464,9 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
             {
                 routeWaiter.setDiscoveryComplete();
                 dependencies.remove(mapping.getRoute());
+
+                // complete findServicesAsync() callers
+                routeWaiter.completePending(lookupServices(mapping.getRoute()));
             }
         }
     }
@@ -252,11 +487,25 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
     }
 
 
+    @Override
+    protected void handleTimeout(InsectState timedOutState)
+    {
+        for (val subscription : subscriptions.values())
+        {
+            subscription.remove(timedOutState);
+        }
+    }
+
+
     @Override
     protected void handleInvalidate()
     {
         // drop cached remotes
         getRouteToInsects().values().forEach(InsectCollection::clear);
+        subscriptions.values().forEach(RouteSubscription::removeAll);
+
+        // the queen may have lost our metric path definitions
+        metricPathDictionary.invalidate();
 
         // tell listeners that we received an invalidate request
         eventBus.post(new Invalidate());
@@ -276,16 +525,82 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
             nextHeartBeatNanos = nowNanos + Math.max(0, (TimeUnit.MILLISECONDS.toNanos(getPulseDelayMillies()) - Math.max(0L, (nowNanos - nextHeartBeatNanos))));
         }
 
+        // resend discovery requests (for findServicesAsync() callers and subscribers) and time out futures
+        for (val routeAndWaiter : dependencies.entrySet())
+        {
+            val routeWaiter = routeAndWaiter.getValue();
+            if (routeWaiter.expirePending(nowNanos) || routeWaiter.isSubscribed())
+            {
+                if (routeWaiter.advanceDiscoveryState(nowNanos) == RouteWaiter.State.SEND)
+                {
+                    requestDependency(nowNanos, routeAndWaiter.getKey());
+                }
+            }
+        }
+
+        // notify route listeners once per cycle
+        for (val routeAndSubscription : subscriptions.entrySet())
+        {
+            val route = routeAndSubscription.getKey();
+            routeAndSubscription.getValue().flush(() -> getRouteToInsects().getOrDefault(route, emptyRoute()).getAll());
+        }
+
+        if (!provisionalRoutes.isEmpty())
+        {
+            // lookups for restored routes never block, so subscribe to them here
+            for (val route : provisionalRoutes)
+            {
+                requestDependency(nowNanos, route);
+            }
+
+            provisionalRoutes.clear();
+        }
+
+        if (routeCache != null && nowNanos - nextRouteCacheNanos >= 0)
+        {
+            writeRouteCache(nowNanos);
+
+            nextRouteCacheNanos = nowNanos + ROUTE_CACHE_INTERVAL_NANOS;
+        }
+
+        if (nowNanos - nextMetricDictionaryRefreshNanos >= 0)
+        {
+            metricPathDictionary.invalidate();
+
+            nextMetricDictionaryRefreshNanos = nowNanos + METRIC_DICTIONARY_REFRESH_INTERVAL_NANOS;
+        }
+
         return Math.max(1L, Math.min(maximumWaitTime, TimeUnit.NANOSECONDS.toMillis(nextHeartBeatNanos - nowNanos)));
     }
 
 
+    private void writeRouteCache(long nowNanos)
+    {
+        try
+        {
+            routeCache.write(copyInsectState(), nowNanos);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.warn("failed to write route cache: {}", e.getMessage());
+        }
+    }
+
+
     private void sendHeartbeat(long nowNanos)
     {
         val bindSocketAddress = getSettings().getBindAddress();
         val hostAddress = getSettings().getBindAddress().getAddress();
         val port = getSettings().getBindAddress().getPort();
 
+        // sample load once for all remotes
+        val inFlightRequests = (loadSource != null) ? loadSource.getInFlightRequests() : 0;
+        val queueDepth = (loadSource != null) ? loadSource.getQueueDepth() : 0;
+        val capacityWeight = getSettings().getCapacityWeight();
+        val zone = Strings.nullToEmpty(getSettings().getZone());
+        val loadFlag = (loadSource != null) ? Mapping.FLAG_LOAD : 0;
+        val zoneFlag = zone.isEmpty() ? 0 : Mapping.FLAG_ZONE;
+
         sendToRemotes((settings, remote) ->
         {
             val remoteAddress = remote.getAddress();
@@ -295,6 +610,11 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
                     : bindSocketAddress.getHostString();
 
             return Mapping.builder()
+                    .flags(Mapping.FLAG_BATCH_RECEIVER | Mapping.FLAG_EXTENSION_RECEIVER | loadFlag | zoneFlag)
+                    .inFlightRequests(inFlightRequests)
+                    .queueDepth(queueDepth)
+                    .capacityWeight(capacityWeight)
+                    .zone(zone)
                     .host(host)
                     .port(port)
                     .timestamp(nowNanos)
@@ -312,6 +632,14 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
         val hostAddress = getSettings().getBindAddress().getAddress();
         val port = getSettings().getBindAddress().getPort();
 
+        // sample load once for all remotes
+        val inFlightRequests = (loadSource != null) ? loadSource.getInFlightRequests() : 0;
+        val queueDepth = (loadSource != null) ? loadSource.getQueueDepth() : 0;
+        val capacityWeight = getSettings().getCapacityWeight();
+        val zone = Strings.nullToEmpty(getSettings().getZone());
+        val loadFlag = (loadSource != null) ? Mapping.FLAG_LOAD : 0;
+        val zoneFlag = zone.isEmpty() ? 0 : Mapping.FLAG_ZONE;
+
         sendToRemotes((settings, remote) ->
         {
             val remoteAddress = remote.getAddress();
@@ -321,6 +649,11 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
                     : bindSocketAddress.getHostString();
 
             return Mapping.builder()
+                    .flags(Mapping.FLAG_BATCH_RECEIVER | Mapping.FLAG_EXTENSION_RECEIVER | loadFlag | zoneFlag)
+                    .inFlightRequests(inFlightRequests)
+                    .queueDepth(queueDepth)
+                    .capacityWeight(capacityWeight)
+                    .zone(zone)
                     .host(host)
                     .port(port)
                     .timestamp(nowNanos)
@@ -349,6 +682,14 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
 
         private volatile long resendNanos = TimeUnit.MILLISECONDS.toNanos(DEPENDENCY_RESEND_MILLIES_MIN);
 
+        // futures of findServicesAsync() callers
+        private final Queue<PendingDiscovery> pending = new ConcurrentLinkedQueue<>();
+
+        // route has subscribers waiting for its first mapping
+        @Getter
+        @Setter
+        private volatile boolean isSubscribed;
+
 
         RouteWaiter()
         {
@@ -393,6 +734,48 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
         }
 
 
+        void addPending(CompletableFuture<List<? extends ServiceState>> future, long deadlineNanos)
+        {
+            pending.add(new PendingDiscovery(future, deadlineNanos));
+        }
+
+
+        void completePending(List<? extends ServiceState> alternatives)
+        {
+            PendingDiscovery discovery;
+            while ((discovery = pending.poll()) != null)
+            {
+                discovery.getFuture().complete(alternatives);
+            }
+        }
+
+
+        /**
+         * Complete timed out futures with an empty list.
+         *
+         * @return true if there are futures left waiting for discovery
+         */
+        boolean expirePending(long nowNanos)
+        {
+            val iterator = pending.iterator();
+            while (iterator.hasNext())
+            {
+                val discovery = iterator.next();
+                if (discovery.getFuture().isDone())
+                {
+                    iterator.remove();
+                }
+                else if (nowNanos - discovery.getDeadlineNanos() >= 0)
+                {
+                    iterator.remove();
+                    discovery.getFuture().complete(Collections.emptyList());
+                }
+            }
+
+            return !pending.isEmpty();
+        }
+
+
         enum State
         {
             WAIT,
@@ -400,4 +783,13 @@ public class SyncSlave extends Insect<SlaveSettings> implements Slave
             SEND
         }
     }
-}
\ No newline at end of file
+
+
+    @Value
+    private static class PendingDiscovery
+    {
+        private final CompletableFuture<List<? extends ServiceState>> future;
+
+        private final long deadlineNanos;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect;
+
+import com.google.inject.Singleton;
+
+import net.talpidae.base.insect.state.ServiceState;
+import net.talpidae.base.util.random.AtomicXorShiftRandom;
+
+import java.util.List;
+
+
+/**
+ * Picks a random instance, each with the same probability.
+ */
+@Singleton
+public class UniformServiceSelector implements ServiceSelector
+{
+    private final AtomicXorShiftRandom random = new AtomicXorShiftRandom();
+
+
+    @Override
+    public ServiceState select(List<? extends ServiceState> alternatives)
+    {
+        return alternatives.get(random.nextInt(alternatives.size()));
+    }
+}
@@ -22,7 +22,9 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import net.talpidae.base.server.ServerConfig;
+import net.talpidae.base.util.BaseArguments;
 import net.talpidae.base.util.log.LoggingConfigurer;
 import net.talpidae.base.util.names.InsectNameGenerator;
 
@@ -54,13 +56,29 @@ public class DefaultQueenSettings implements QueenSettings
 
     private long restInPeaceTimeout = DEFAULT_REST_IN_PEACE_TIMEOUT;
 
+    private int exchangeShardCount;
+
+    private String stateSnapshotPath;
+
+    private int maximumMetricSeries;
+
     @Inject
-    public DefaultQueenSettings(ServerConfig serverConfig, LoggingConfigurer loggingConfigurer, InsectNameGenerator insectNameGenerator)
+    public DefaultQueenSettings(ServerConfig serverConfig, BaseArguments baseArguments, LoggingConfigurer loggingConfigurer, InsectNameGenerator insectNameGenerator)
     {
         name = insectNameGenerator.compose().replace(' ', '-').intern();
         bindAddress = new InetSocketAddress(serverConfig.getHost(), serverConfig.getPort());
         remotes = Collections.emptySet();
 
+        val parser = baseArguments.getOptionParser();
+        val shardsOption = parser.accepts("insect.queen.shards").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_EXCHANGE_SHARD_COUNT);
+        val snapshotOption = parser.accepts("insect.queen.snapshot").withRequiredArg();
+        val metricSeriesOption = parser.accepts("insect.queen.metrics.series").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_MAXIMUM_METRIC_SERIES);
+        val options = baseArguments.parse();
+
+        exchangeShardCount = options.valueOf(shardsOption);
+        stateSnapshotPath = options.valueOf(snapshotOption);
+        maximumMetricSeries = options.valueOf(metricSeriesOption);
+
         loggingConfigurer.putContext(CONTEXT_INSECT_NAME_KEY, name);
     }
 }
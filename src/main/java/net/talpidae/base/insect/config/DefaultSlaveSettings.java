@@ -21,6 +21,7 @@ import com.google.common.base.Strings;
 import com.google.common.net.HostAndPort;
 import com.google.inject.Singleton;
 
+import net.talpidae.base.insect.message.payload.Mapping;
 import net.talpidae.base.server.ServerConfig;
 import net.talpidae.base.util.BaseArguments;
 import net.talpidae.base.util.log.LoggingConfigurer;
@@ -64,6 +65,16 @@ public class DefaultSlaveSettings implements SlaveSettings
 
     private long restInPeaceTimeout;
 
+    private String routeCachePath;
+
+    private int capacityWeight;
+
+    private String zone;
+
+    private boolean isMetricsAggregationEnabled;
+
+    private boolean isCompactMetricsEnabled;
+
 
     @Inject
     public DefaultSlaveSettings(ServerConfig serverConfig, BaseArguments baseArguments, LoggingConfigurer loggingConfigurer)
@@ -74,10 +85,26 @@ public class DefaultSlaveSettings implements SlaveSettings
         val nameOption = parser.accepts("insect.name").withRequiredArg().required();
         val remoteOption = parser.accepts("insect.slave.remote").withRequiredArg().required();
         val timeoutOption = parser.accepts("insect.slave.timeout").withRequiredArg().ofType(Long.class).defaultsTo(DEFAULT_REST_IN_PEACE_TIMEOUT);
+        val cacheOption = parser.accepts("insect.slave.cache").withRequiredArg();
+        val capacityOption = parser.accepts("insect.slave.capacity").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_CAPACITY_WEIGHT);
+        val zoneOption = parser.accepts("insect.slave.zone").withRequiredArg();
+        val metricsAggregationOption = parser.accepts("insect.slave.metrics.aggregate").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
+        val compactMetricsOption = parser.accepts("insect.slave.metrics.compact").withRequiredArg().ofType(Boolean.class).defaultsTo(false);
         val options = baseArguments.parse();
 
         this.name = options.valueOf(nameOption).intern();
         this.restInPeaceTimeout = options.valueOf(timeoutOption);
+        this.routeCachePath = options.valueOf(cacheOption);
+        this.capacityWeight = options.valueOf(capacityOption);
+        if (capacityWeight <= 0 || capacityWeight > Mapping.LOAD_VALUE_MAX)
+        {
+            throw new IllegalArgumentException("invalid capacity weight specified: " + capacityWeight);
+        }
+
+        val zone = options.valueOf(zoneOption);
+        this.zone = (zone != null) ? zone.intern() : null;
+        this.isMetricsAggregationEnabled = options.valueOf(metricsAggregationOption);
+        this.isCompactMetricsEnabled = options.valueOf(compactMetricsOption);
 
         val remotes = new HashSet<InetSocketAddress>();
         for (val remoteValue : options.valuesOf(remoteOption))
@@ -63,4 +63,12 @@ public interface InsectSettings
     long getRestInPeaceTimeout();
 
     void setRestInPeaceTimeout(long restInPeaceTimeout);
+
+    /**
+     * Number of sockets (bound to the same port using SO_REUSEPORT) each with its own exchange thread.
+     */
+    default int getExchangeShardCount()
+    {
+        return 1;
+    }
 }
@@ -21,4 +21,28 @@ package net.talpidae.base.insect.config;
 public interface QueenSettings extends InsectSettings
 {
     int DEFAULT_PORT = 13300;
+
+    int DEFAULT_EXCHANGE_SHARD_COUNT = 1;
+
+    int DEFAULT_MAXIMUM_METRIC_SERIES = 2048;
+
+    /**
+     * Path of the file used to persist route state across restarts, null to disable.
+     */
+    default String getStateSnapshotPath()
+    {
+        return null;
+    }
+
+    /**
+     * Maximum number of metric paths kept by the MetricsStore, 0 disables storing metrics.
+     * <p>
+     * Each series takes about 45KiB once it received its first sample, the default thus limits the store to ~90MiB.
+     * That is enough for ~150 routes reporting aggregated histograms and status classes (~11 series each) plus
+     * the JVM metrics of their instances, least recently updated series are evicted beyond that.
+     */
+    default int getMaximumMetricSeries()
+    {
+        return DEFAULT_MAXIMUM_METRIC_SERIES;
+    }
 }
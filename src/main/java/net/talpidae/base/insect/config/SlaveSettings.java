@@ -19,10 +19,53 @@ package net.talpidae.base.insect.config;
 
 public interface SlaveSettings extends InsectSettings
 {
+    int DEFAULT_CAPACITY_WEIGHT = 100;
+
     /**
      * The route this slave provides.
      */
     String getRoute();
 
     void setRoute(String route);
+
+    /**
+     * Path of the file used to cache discovered routes across restarts, null to disable.
+     */
+    default String getRouteCachePath()
+    {
+        return null;
+    }
+
+
+    /**
+     * Capacity of this instance relative to others (reported to clients, see Mapping.FLAG_LOAD).
+     */
+    default int getCapacityWeight()
+    {
+        return DEFAULT_CAPACITY_WEIGHT;
+    }
+
+    /**
+     * Zone label of this instance (ie. rack or availability zone), null if unknown.
+     */
+    default String getZone()
+    {
+        return null;
+    }
+
+    /**
+     * Aggregate metrics per path instead of forwarding each sample (see QueuedMetricsSink).
+     */
+    default boolean isMetricsAggregationEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Forward metrics using the dictionary compressed CompactMetrics payload (requires queens that understand it).
+     */
+    default boolean isCompactMetricsEnabled()
+    {
+        return false;
+    }
 }
@@ -23,6 +23,7 @@ import net.talpidae.base.util.pool.SoftReferenceObjectPool;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
@@ -32,8 +33,10 @@ import java.nio.channels.Selector;
 import java.nio.channels.UnresolvedAddressException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
@@ -41,39 +44,31 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
-import static com.google.common.base.Strings.nullToEmpty;
-
 
 @Slf4j
 public abstract class MessageExchange<M extends BaseMessage> implements CloseableRunnable
 {
     private static final int MESSAGE_POOL_HARD_LIMIT = 512;
 
-    private final InsectSettings settings;
-
-    private final SoftReferenceObjectPool<M> messagePool;
+    private static final long SHARD_SHUTDOWN_TIMEOUT_MILLIES = TimeUnit.SECONDS.toMillis(2);
 
-    private final Queue<M> inbound = new ArrayDeque<>();
-
-    private final Queue<M> outbound = new ArrayDeque<>();
+    private final InsectSettings settings;
 
-    private final ExchangeMessageQueueControl queueControl = new ExchangeMessageQueueControl();
+    private final Supplier<M> messageFactory;
 
     private final AtomicLong runThreadId = new AtomicLong(-1);
 
-    private Selector selector;
-
-    private int activeInterestOps = SelectionKey.OP_READ;
+    private volatile List<Shard> shards = Collections.emptyList();
 
     @Getter
     private int port = 0;
 
-    private String lastErrorMessage;
+    private volatile String lastErrorMessage;
 
 
     public MessageExchange(Supplier<M> messageFactory, InsectSettings settings)
     {
-        this.messagePool = new SoftReferenceObjectPool<>(messageFactory, MESSAGE_POOL_HARD_LIMIT);
+        this.messageFactory = messageFactory;
         this.settings = settings;
     }
 
@@ -84,9 +79,9 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
     protected void wakeup() throws IllegalStateException
     {
         // make sure our raw is processed as soon as possible
-        if (selector != null)
+        for (val shard : shards)
         {
-            selector.wakeup();
+            shard.selector.wakeup();
         }
     }
 
@@ -95,6 +90,8 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
      * <p>
      * This allows to handle almost all logic on the same thread as the exchange and thus avoid
      * extensive locking for thread-safety.
+     * <p>
+     * If more than one exchange shard is configured, this is called concurrently from each shard's thread.
      *
      * @return Returns the maximum delay im milliseconds until the next invocation of this method.
      */
@@ -102,6 +99,7 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
 
     public void run()
     {
+        val shardThreads = new ArrayList<Thread>();
         try
         {
             if (!runThreadId.compareAndSet(-1L, Thread.currentThread().getId()))
@@ -115,49 +113,35 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
                 notifyAll();
             }
 
-            val key = setup();
-            val channel = (DatagramChannel) key.channel();
+            val runningShards = setup();
+            shards = runningShards;
 
-            log.info("MessageExchange running on {}", settings.getBindAddress().toString());
+            log.info("MessageExchange running on {} ({} shard(s))", settings.getBindAddress().toString(), runningShards.size());
 
-            long maxWaitMillies;
-            M outboundMessage = null;
-            while (!Thread.interrupted())
+            // additional shards run on their own threads, the first one on ours
+            val name = Thread.currentThread().getName();
+            val priority = Thread.currentThread().getPriority();
+            for (int i = 1; i < runningShards.size(); ++i)
             {
-                try
+                val shard = runningShards.get(i);
+                val shardThread = new Thread(() ->
                 {
-                    maxWaitMillies = processMessages(queueControl);
-
-                    // recycle messages removed from the inbound queue by processMessages()
-                    queueControl.recycleConsumedMessages();
-
-                    if (outboundMessage == null)
+                    try
                     {
-                        // look for new messages
-                        outboundMessage = pollAndUpdateInterestSet(key);
+                        shard.run();
                     }
-
-                    selector.select(maxWaitMillies);
-                    if (key.isValid())
+                    catch (Exception e)
                     {
-                        boolean mayReadMore = key.isReadable();
-                        boolean mayWriteMore = key.isWritable() && outboundMessage != null;
-
-                        while (mayReadMore || mayWriteMore)
-                        {
-                            mayReadMore = mayReadMore && tryReceive(channel);
-
-                            mayWriteMore = mayWriteMore
-                                    && trySend(channel, outboundMessage)
-                                    && ((outboundMessage = outbound.poll()) != null);
-                        }
+                        handleRunError(e);
                     }
-                }
-                catch (IOException e)
-                {
-                    handleSelectError(e);
-                }
+                }, name + "-" + i);
+
+                shardThread.setPriority(priority);
+                shardThread.start();
+                shardThreads.add(shardThread);
             }
+
+            runningShards.get(0).run();
         }
         catch (Exception e)
         {
@@ -166,6 +150,7 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
         finally
         {
             close();
+            joinShardThreads(shardThreads);
             runThreadId.set(-1);
         }
     }
@@ -180,14 +165,17 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
     /**
      * Get access to the current queue control.
      *
-     * @return Queue control object if currently executing processMessages() and inside the same thread, null otherwise.
+     * @return Queue control object if currently executing processMessages() and inside an exchange thread, null otherwise.
      */
     protected MessageQueueControl getQueueControl()
     {
         val threadId = Thread.currentThread().getId();
-        if (threadId == runThreadId.get())
+        for (val shard : shards)
         {
-            return queueControl;
+            if (threadId == shard.threadId)
+            {
+                return shard.queueControl;
+            }
         }
 
         return null;
@@ -196,9 +184,40 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
     @Override
     public void close()
     {
-        if (selector != null)
+        for (val shard : shards)
         {
-            try { selector.close(); } catch (IOException e) { /* ignore */ }
+            shard.close();
+        }
+    }
+
+
+    private static boolean isReusePortSupported()
+    {
+        try (val channel = DatagramChannel.open())
+        {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+
+    private static void joinShardThreads(List<Thread> shardThreads)
+    {
+        for (val shardThread : shardThreads)
+        {
+            shardThread.interrupt();
+            try
+            {
+                shardThread.join(SHARD_SHUTDOWN_TIMEOUT_MILLIES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
     }
 
@@ -289,136 +308,267 @@ public abstract class MessageExchange<M extends BaseMessage> implements Closeabl
     }
 
 
-    private SelectionKey setup() throws IOException
+    private List<Shard> setup() throws IOException
     {
-        outbound.clear();
-        inbound.clear();
         lastErrorMessage = null;
-        selector = Selector.open();
-
-        val channel = DatagramChannel.open();
-
-        val bindAddress = settings.getBindAddress();
-        channel.socket().bind(bindAddress);
-        port = channel.socket().getLocalPort();
-
-        channel.configureBlocking(false);
-
-        return channel.register(selector, activeInterestOps);
-    }
 
+        int shardCount = Math.max(1, settings.getExchangeShardCount());
+        if (shardCount > 1 && !isReusePortSupported())
+        {
+            log.warn("SO_REUSEPORT is not supported, using a single exchange shard instead of {}", shardCount);
+            shardCount = 1;
+        }
 
-    private boolean tryReceive(DatagramChannel channel)
-    {
-        val message = messagePool.borrow();
+        val shards = new ArrayList<Shard>(shardCount);
         try
         {
-            if (message.receiveFrom(channel))
+            val isReusePort = shardCount > 1;
+            val firstChannel = openChannel(settings.getBindAddress(), isReusePort);
+            shards.add(new Shard(firstChannel));
+
+            // all other shards bind to the same (possibly ephemeral) port
+            port = firstChannel.socket().getLocalPort();
+            val shardAddress = new InetSocketAddress(firstChannel.socket().getLocalAddress(), port);
+            for (int i = 1; i < shardCount; ++i)
             {
-                inbound.add(message);
-                return true;
+                shards.add(new Shard(openChannel(shardAddress, true)));
             }
         }
         catch (IOException e)
         {
-            handleReceiveError(e);
+            shards.forEach(Shard::close);
+            throw e;
         }
 
-        // nothing received, return message to pool
-        recycleMessage(message);
-        return false;
+        return shards;
     }
 
 
-    private boolean trySend(DatagramChannel channel, M message)
+    private DatagramChannel openChannel(InetSocketAddress bindAddress, boolean isReusePort) throws IOException
     {
+        val channel = DatagramChannel.open();
         try
         {
-            if (!message.sendTo(channel))
+            if (isReusePort)
             {
-                // not ready for writing, try again later
-                return false;
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
             }
+
+            channel.socket().bind(bindAddress);
+            channel.configureBlocking(false);
         }
-        catch (IOException | UnresolvedAddressException e)
+        catch (IOException e)
         {
-            handleSendError(e, message);
+            channel.close();
+            throw e;
         }
 
-        // message handled or dropped because of send error
-        recycleMessage(message);
-        return true;
+        return channel;
     }
 
 
-    private M pollAndUpdateInterestSet(SelectionKey key)
+    /**
+     * One socket with its own selector, message queues and exchange loop.
+     */
+    private final class Shard
     {
-        final M message = outbound.poll();
+        private final SoftReferenceObjectPool<M> messagePool = new SoftReferenceObjectPool<>(messageFactory, MESSAGE_POOL_HARD_LIMIT);
 
-        final int interestOps;
-        if (message != null)
-        {
-            // we have packets to write and will still tryReceive
-            interestOps = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
-        }
-        else
+        private final Queue<M> inbound = new ArrayDeque<>();
+
+        private final Queue<M> outbound = new ArrayDeque<>();
+
+        private final ExchangeMessageQueueControl queueControl = new ExchangeMessageQueueControl();
+
+        private final DatagramChannel channel;
+
+        private final Selector selector;
+
+        private final SelectionKey key;
+
+        private int activeInterestOps = SelectionKey.OP_READ;
+
+        private volatile long threadId = -1L;
+
+
+        private Shard(DatagramChannel channel) throws IOException
         {
-            // nothing to trySend, still interested inbound receiving
-            interestOps = SelectionKey.OP_READ;
+            this.channel = channel;
+            this.selector = Selector.open();
+            this.key = channel.register(selector, activeInterestOps);
         }
 
-        if (interestOps != activeInterestOps)
+
+        private void run()
         {
-            activeInterestOps = interestOps;
-            key.interestOps(interestOps);
-        }
+            threadId = Thread.currentThread().getId();
+            try
+            {
+                long maxWaitMillies;
+                M outboundMessage = null;
+                while (!Thread.interrupted())
+                {
+                    try
+                    {
+                        maxWaitMillies = processMessages(queueControl);
 
-        return message;
-    }
+                        // recycle messages removed from the inbound queue by processMessages()
+                        queueControl.recycleConsumedMessages();
 
+                        if (outboundMessage == null)
+                        {
+                            // look for new messages
+                            outboundMessage = pollAndUpdateInterestSet();
+                        }
 
-    private void recycleMessage(M message)
-    {
-        message.passivate();
-        messagePool.recycle(message);
-    }
+                        selector.select(maxWaitMillies);
+                        if (key.isValid())
+                        {
+                            boolean mayReadMore = key.isReadable();
+                            boolean mayWriteMore = key.isWritable() && outboundMessage != null;
 
+                            while (mayReadMore || mayWriteMore)
+                            {
+                                mayReadMore = mayReadMore && tryReceive();
 
-    private class ExchangeMessageQueueControl implements MessageQueueControl<M>
-    {
-        private final List<M> consumedInboundMessages = new ArrayList<>();
+                                mayWriteMore = mayWriteMore
+                                        && trySend(outboundMessage)
+                                        && ((outboundMessage = outbound.poll()) != null);
+                            }
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        handleSelectError(e);
+                    }
+                }
+            }
+            finally
+            {
+                threadId = -1L;
+            }
+        }
 
 
-        @Override
-        public M addOutbound(InetSocketAddress remoteAddress)
+        private void close()
+        {
+            try { selector.close(); } catch (IOException e) { /* ignore */ }
+            try { channel.close(); } catch (IOException e) { /* ignore */ }
+        }
+
+
+        private boolean tryReceive()
         {
             val message = messagePool.borrow();
+            try
+            {
+                if (message.receiveFrom(channel))
+                {
+                    inbound.add(message);
+                    return true;
+                }
+            }
+            catch (IOException e)
+            {
+                handleReceiveError(e);
+            }
+
+            // nothing received, return message to pool
+            recycleMessage(message);
+            return false;
+        }
 
-            message.setRemoteAddress(remoteAddress);
-            outbound.add(message);
 
-            // caller may fill message now
-            return message;
+        private boolean trySend(M message)
+        {
+            try
+            {
+                if (!message.sendTo(channel))
+                {
+                    // not ready for writing, try again later
+                    return false;
+                }
+            }
+            catch (IOException | UnresolvedAddressException e)
+            {
+                handleSendError(e, message);
+            }
+
+            // message handled or dropped because of send error
+            recycleMessage(message);
+            return true;
         }
 
-        @Override
-        public M pollInbound()
+
+        private M pollAndUpdateInterestSet()
         {
-            val message = inbound.poll();
+            final M message = outbound.poll();
+
+            final int interestOps;
             if (message != null)
             {
-                consumedInboundMessages.add(message);
+                // we have packets to write and will still tryReceive
+                interestOps = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            }
+            else
+            {
+                // nothing to trySend, still interested inbound receiving
+                interestOps = SelectionKey.OP_READ;
+            }
+
+            if (interestOps != activeInterestOps)
+            {
+                activeInterestOps = interestOps;
+                key.interestOps(interestOps);
             }
 
             return message;
         }
 
-        void recycleConsumedMessages()
+
+        private void recycleMessage(M message)
+        {
+            message.passivate();
+            messagePool.recycle(message);
+        }
+
+
+        private class ExchangeMessageQueueControl implements MessageQueueControl<M>
         {
-            for (int i = consumedInboundMessages.size() - 1; i >= 0; --i)
+            private final List<M> consumedInboundMessages = new ArrayList<>();
+
+
+            @Override
+            public M addOutbound(InetSocketAddress remoteAddress)
+            {
+                val message = messagePool.borrow();
+
+                message.setRemoteAddress(remoteAddress);
+                outbound.add(message);
+
+                // caller may fill message now
+                return message;
+            }
+
+            @Override
+            public M pollInbound()
             {
-                recycleMessage(consumedInboundMessages.remove(i));
+                val message = inbound.poll();
+                if (message != null)
+                {
+                    consumedInboundMessages.add(message);
+                }
+
+                return message;
+            }
+
+            void recycleConsumedMessages()
+            {
+                for (int i = consumedInboundMessages.size() - 1; i >= 0; --i)
+                {
+                    recycleMessage(consumedInboundMessages.remove(i));
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -68,6 +68,23 @@ public class InsectMessage extends BaseMessage
     }
 
 
+    /**
+     * Set the same payload as the specified message by copying its already serialized content.
+     */
+    public void setPayloadFrom(InsectMessage other)
+    {
+        if (payload != null)
+        {
+            throw new IllegalStateException("payload has already been set");
+        }
+
+        payload = other.payload;
+        getBuffer().put(other.getBuffer().duplicate());
+
+        getBuffer().flip();
+    }
+
+
     @Override
     protected void clear()
     {
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect.message.payload;
+
+import com.google.common.base.Utf8;
+
+import net.talpidae.base.util.performance.Metric;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.extractString;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.getVarLong;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.getVarLongSize;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.putTruncatedUTF8;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.putVarLong;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.zigZagDecode;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.zigZagEncode;
+
+
+/**
+ * Metrics with dictionary compressed paths and delta encoded timestamps.
+ * <p>
+ * Paths are replaced by per-sender IDs. The sender announces the definition of an ID (ID to path) once, along with
+ * the first sample using it, and again after an invalidate (see MetricPathDictionary). Timestamps are relative to
+ * a base timestamp in the header.
+ * <p>
+ * Binary layout is: t[definitionCount][sampleCount]BBBBBBBB[definition]...[sample]...
+ * with definition: [id]lPATH and sample: [id][zigzag(ts - base)]vvvvvvvv, [] denoting unsigned LEB128 values.
+ */
+@Slf4j
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class CompactMetrics extends Payload
+{
+    public static final int MAXIMUM_SERIALIZED_SIZE = 1472;
+
+    public static final int TYPE_COMPACT_METRICS = 0x6;
+
+    private static final int HEADER_SIZE_MAX = 1 + 3 + 3 + 8;
+
+    private static final int STRING_SIZE_MAX = 255;
+
+    @Getter
+    private final int type = TYPE_COMPACT_METRICS;  // 0x6: compact metrics
+
+    @Getter
+    private final long baseTimestamp;
+
+    private final int[] definitionIds;
+
+    private final String[] definitionPaths;
+
+    private final int[] sampleIds;
+
+    private final long[] sampleTimestamps;
+
+    private final double[] sampleValues;
+
+
+    static CompactMetrics from(ByteBuffer buffer, int offset) throws IndexOutOfBoundsException, CharacterCodingException
+    {
+        val type = buffer.get(offset) & 0xFF;
+        if (type != TYPE_COMPACT_METRICS)
+        {
+            return null;
+        }
+
+        try
+        {
+            val input = buffer.duplicate();
+            input.position(offset + 1);
+
+            val definitionCount = (int) getVarLong(input);
+            val sampleCount = (int) getVarLong(input);
+            if (definitionCount < 0 || sampleCount < 0 || definitionCount > MAXIMUM_SERIALIZED_SIZE || sampleCount > MAXIMUM_SERIALIZED_SIZE)
+            {
+                log.debug("encountered compact metrics payload with invalid counts");
+                return null;
+            }
+
+            val baseTimestamp = input.getLong();
+
+            val definitionIds = new int[definitionCount];
+            val definitionPaths = new String[definitionCount];
+            for (int i = 0; i < definitionCount; ++i)
+            {
+                definitionIds[i] = (int) getVarLong(input);
+                val pathLength = input.get() & 0xFF;
+                definitionPaths[i] = extractString(input, input.position(), pathLength);  // don't intern, may differ
+                input.position(input.position() + pathLength);
+            }
+
+            val sampleIds = new int[sampleCount];
+            val sampleTimestamps = new long[sampleCount];
+            val sampleValues = new double[sampleCount];
+            for (int i = 0; i < sampleCount; ++i)
+            {
+                sampleIds[i] = (int) getVarLong(input);
+                sampleTimestamps[i] = baseTimestamp + zigZagDecode(getVarLong(input));
+                sampleValues[i] = input.getDouble();
+            }
+
+            return new CompactMetrics(baseTimestamp, definitionIds, definitionPaths, sampleIds, sampleTimestamps, sampleValues);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e)
+        {
+            throw new IndexOutOfBoundsException("truncated compact metrics payload");
+        }
+    }
+
+
+    /**
+     * Pack as many metrics from queue as fit into one payload (consumed metrics are removed from the queue).
+     */
+    public static CompactMetrics pack(Queue<Metric> metrics, MetricPathDictionary dictionary)
+    {
+        val first = metrics.peek();
+        val baseTimestamp = (first != null) ? first.getTs() : 0L;
+        val definitionIds = new ArrayList<Integer>();
+        val definitionPaths = new ArrayList<String>();
+        val sampleIds = new ArrayList<Integer>();
+        val samples = new ArrayList<Metric>();
+
+        synchronized (dictionary)
+        {
+            int totalSize = HEADER_SIZE_MAX;
+            for (Metric metric = metrics.peek(); metric != null; metric = metrics.peek())
+            {
+                val pathLength = Utf8.encodedLength(metric.getPath());
+                if (pathLength > STRING_SIZE_MAX)
+                {
+                    // can't be transmitted
+                    metrics.remove();
+                    continue;
+                }
+
+                val id = dictionary.getId(metric.getPath());
+                val isDefinitionNeeded = !dictionary.isAnnounced(id);
+                val size = getVarLongSize(id)
+                        + getVarLongSize(zigZagEncode(metric.getTs() - baseTimestamp))
+                        + 8
+                        + (isDefinitionNeeded ? getVarLongSize(id) + 1 + pathLength : 0);
+
+                // stop if the next metric doesn't fit anymore
+                if (totalSize + size > MAXIMUM_SERIALIZED_SIZE)
+                {
+                    break;
+                }
+
+                totalSize += size;
+                if (isDefinitionNeeded)
+                {
+                    dictionary.setAnnounced(id);
+                    definitionIds.add(id);
+                    definitionPaths.add(metric.getPath());
+                }
+
+                sampleIds.add(id);
+                samples.add(metrics.remove());
+            }
+        }
+
+        val sampleCount = samples.size();
+        val sampleTimestamps = new long[sampleCount];
+        val sampleValues = new double[sampleCount];
+        for (int i = 0; i < sampleCount; ++i)
+        {
+            sampleTimestamps[i] = samples.get(i).getTs();
+            sampleValues[i] = samples.get(i).getValue();
+        }
+
+        return new CompactMetrics(baseTimestamp,
+                definitionIds.stream().mapToInt(Integer::intValue).toArray(),
+                definitionPaths.toArray(new String[0]),
+                sampleIds.stream().mapToInt(Integer::intValue).toArray(),
+                sampleTimestamps,
+                sampleValues);
+    }
+
+
+    public int getSampleCount()
+    {
+        return sampleIds.length;
+    }
+
+
+    /**
+     * Add the definitions carried by this payload to the receiver's dictionary of the sender.
+     */
+    public void updateDictionary(Map<Integer, String> idToPath)
+    {
+        for (int i = 0; i < definitionIds.length; ++i)
+        {
+            idToPath.put(definitionIds[i], definitionPaths[i]);
+        }
+    }
+
+
+    /**
+     * Resolve paths using the receiver's dictionary of the sender, samples with unknown IDs are skipped.
+     */
+    public Metrics toMetrics(Map<Integer, String> idToPath)
+    {
+        val metrics = new Metric[sampleIds.length];
+        int count = 0;
+        for (int i = 0; i < sampleIds.length; ++i)
+        {
+            val path = idToPath.get(sampleIds[i]);
+            if (path != null)
+            {
+                metrics[count++] = Metric.builder()
+                        .path(path)
+                        .ts(sampleTimestamps[i])
+                        .value(sampleValues[i])
+                        .build();
+            }
+        }
+
+        return new Metrics(Metrics.TYPE_METRIC, Arrays.asList((count == metrics.length) ? metrics : Arrays.copyOf(metrics, count)));
+    }
+
+
+    @Override
+    public void to(ByteBuffer buffer)
+    {
+        buffer.put((byte) type);
+        putVarLong(buffer, definitionIds.length);
+        putVarLong(buffer, sampleIds.length);
+        buffer.putLong(baseTimestamp);
+
+        for (int i = 0; i < definitionIds.length; ++i)
+        {
+            putVarLong(buffer, definitionIds[i]);
+
+            // write path behind the length byte
+            val lengthOffset = buffer.position();
+            val pathLength = putTruncatedUTF8(buffer, lengthOffset + 1, definitionPaths[i], STRING_SIZE_MAX);
+            buffer.put(lengthOffset, (byte) pathLength);
+            buffer.position(lengthOffset + 1 + pathLength);
+        }
+
+        for (int i = 0; i < sampleIds.length; ++i)
+        {
+            putVarLong(buffer, sampleIds[i]);
+            putVarLong(buffer, zigZagEncode(sampleTimestamps[i] - baseTimestamp));
+            buffer.putDouble(sampleValues[i]);
+        }
+    }
+
+
+    @Override
+    public int getMaximumSize()
+    {
+        return MAXIMUM_SERIALIZED_SIZE;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Integer.toHexString(getType()) + ", " + definitionIds.length + ", " + sampleIds.length;
+    }
+}
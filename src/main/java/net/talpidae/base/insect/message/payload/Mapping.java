@@ -18,6 +18,7 @@
 package net.talpidae.base.insect.message.payload;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Utf8;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -29,7 +30,7 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
-import static net.talpidae.base.util.protocol.BinaryProtocolHelper.extractString;
+import static net.talpidae.base.util.protocol.BinaryProtocolHelper.extractCachedString;
 import static net.talpidae.base.util.protocol.BinaryProtocolHelper.putTruncatedUTF8;
 
 
@@ -37,12 +38,47 @@ import static net.talpidae.base.util.protocol.BinaryProtocolHelper.putTruncatedU
 @Builder
 public class Mapping extends Payload
 {
-    public static final int MAXIMUM_SERIALIZED_SIZE = 1036;
+    public static final int MAXIMUM_SERIALIZED_SIZE = 1298;
 
     public static final int TYPE_MAPPING = 0x1;
 
+    /**
+     * Sender understands batched mappings (see Mappings).
+     */
+    public static final int FLAG_BATCH_RECEIVER = 0x1;
+
+    /**
+     * Mapping carries the load extension (only set if the sender has a LoadSource).
+     */
+    public static final int FLAG_LOAD = 0x2;
+
+    /**
+     * Mapping carries the zone extension (zone label of the sender).
+     */
+    public static final int FLAG_ZONE = 0x4;
+
+    /**
+     * Sender understands the load and zone extensions.
+     */
+    public static final int FLAG_EXTENSION_RECEIVER = 0x8;
+
+    /**
+     * Maximum value of the load extension fields (unsigned short).
+     */
+    public static final int LOAD_VALUE_MAX = 0xFFFF;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int LOAD_EXTENSION_SIZE = 6;
+
+    private static final int ZONE_EXTENSION_HEADER_SIZE = 1;
+
     private static final int STRING_SIZE_MAX = 255;
 
+    private static final int SOCKET_ADDRESS_CACHE_SIZE = 256;  // power of two
+
+    private static final ThreadLocal<InetSocketAddress[]> socketAddressCache = ThreadLocal.withInitial(() -> new InetSocketAddress[SOCKET_ADDRESS_CACHE_SIZE]);
+
     @Getter
     @Builder.Default
     private final int type = TYPE_MAPPING; // 0x1: mapping
@@ -74,6 +110,22 @@ public class Mapping extends Payload
     @NonNull
     private final InetSocketAddress socketAddress;
 
+    @Builder.Default
+    @Getter
+    private final int inFlightRequests = 0; // load extension: requests currently being handled by the sender
+
+    @Builder.Default
+    @Getter
+    private final int queueDepth = 0;       // load extension: requests waiting for a worker thread
+
+    @Builder.Default
+    @Getter
+    private final int capacityWeight = 0;   // load extension: declared capacity of the sender (0 if unknown)
+
+    @Builder.Default
+    @Getter
+    private final String zone = "";         // zone extension: zone label of the sender (empty if unknown)
+
 
     static Mapping from(ByteBuffer buffer, int offset) throws IndexOutOfBoundsException, CharacterCodingException
     {
@@ -83,7 +135,7 @@ public class Mapping extends Payload
             return null;
         }
 
-        val hostOffset = offset + 16;
+        val hostOffset = offset + HEADER_SIZE;
         val hostLength = buffer.get(offset + 2) & 0xFF;        // length of host
         val routeOffset = hostOffset + hostLength;
         val routeLength = buffer.get(offset + 3) & 0xFF;       // length of route
@@ -93,18 +145,101 @@ public class Mapping extends Payload
         val dependencyOffset = nameOffset + nameLength;
         val dependencyLength = buffer.get(offset + 15) & 0xFF; // length of dependency
 
-        val host = extractString(buffer, hostOffset, hostLength).intern();
-        return Mapping.builder()
-                .type(type)
-                .flags(buffer.get(offset + 1) & 0xFF)
-                .timestamp(buffer.getLong(offset + 4))
-                .port(port)
-                .host(host)
-                .route(extractString(buffer, routeOffset, routeLength).intern())
-                .name(extractString(buffer, nameOffset, nameLength).intern())
-                .dependency(extractString(buffer, dependencyOffset, dependencyLength).intern())
-                .socketAddress(InetSocketAddress.createUnresolved(host, port))
-                .build();
+        val loadOffset = dependencyOffset + dependencyLength;
+        val flags = getPresentFlags(buffer, loadOffset, buffer.get(offset + 1) & 0xFF);
+        val hasLoad = (flags & FLAG_LOAD) != 0;
+        val zoneOffset = loadOffset + (hasLoad ? LOAD_EXTENSION_SIZE : 0);
+        val hasZone = (flags & FLAG_ZONE) != 0;
+
+        // known strings are matched in-place, steady-state heartbeats don't decode anything
+        val host = extractCachedString(buffer, hostOffset, hostLength);
+        return new Mapping(type,
+                flags,
+                buffer.getLong(offset + 4),
+                port,
+                host,
+                extractCachedString(buffer, routeOffset, routeLength),
+                extractCachedString(buffer, nameOffset, nameLength),
+                extractCachedString(buffer, dependencyOffset, dependencyLength),
+                getUnresolvedSocketAddress(host, port),
+                hasLoad ? buffer.getShort(loadOffset) & 0xFFFF : 0,
+                hasLoad ? buffer.getShort(loadOffset + 2) & 0xFFFF : 0,
+                hasLoad ? buffer.getShort(loadOffset + 4) & 0xFFFF : 0,
+                hasZone ? extractCachedString(buffer, zoneOffset + ZONE_EXTENSION_HEADER_SIZE, buffer.get(zoneOffset) & 0xFF) : "");
+    }
+
+
+    /**
+     * Get the size of the serialized mapping stored inside buffer (@offset).
+     */
+    static int getSerializedSize(ByteBuffer buffer, int offset) throws IndexOutOfBoundsException
+    {
+        val extensionOffset = offset + HEADER_SIZE
+                + (buffer.get(offset + 2) & 0xFF)
+                + (buffer.get(offset + 3) & 0xFF)
+                + (buffer.get(offset + 14) & 0xFF)
+                + (buffer.get(offset + 15) & 0xFF);
+        val flags = getPresentFlags(buffer, extensionOffset, buffer.get(offset + 1) & 0xFF);
+        val size = extensionOffset - offset + (((flags & FLAG_LOAD) != 0) ? LOAD_EXTENSION_SIZE : 0);
+
+        return ((flags & FLAG_ZONE) != 0)
+                ? size + ZONE_EXTENSION_HEADER_SIZE + (buffer.get(offset + size) & 0xFF)
+                : size;
+    }
+
+
+    /**
+     * Clear the flags of extensions that are announced but missing, ie. relayed by a queen that doesn't know them
+     * (keeps the flags, but doesn't write the extensions).
+     */
+    private static int getPresentFlags(ByteBuffer buffer, int extensionOffset, int flags)
+    {
+        val limit = buffer.limit();
+        int offset = extensionOffset;
+        if ((flags & FLAG_LOAD) != 0)
+        {
+            offset += LOAD_EXTENSION_SIZE;
+            if (offset > limit)
+            {
+                return flags & ~(FLAG_LOAD | FLAG_ZONE);
+            }
+        }
+
+        if ((flags & FLAG_ZONE) != 0
+                && (offset + ZONE_EXTENSION_HEADER_SIZE > limit || offset + ZONE_EXTENSION_HEADER_SIZE + (buffer.get(offset) & 0xFF) > limit))
+        {
+            return flags & ~FLAG_ZONE;
+        }
+
+        return flags;
+    }
+
+
+    private static int calculateStringSize(String s)
+    {
+        if (s == null)
+            return 0;
+
+        val length = Utf8.encodedLength(s);
+        return (length <= STRING_SIZE_MAX) ? length : 0;  // oversized strings are not transmitted
+    }
+
+
+    /**
+     * Get a cached unresolved InetSocketAddress instance for host and port (host is expected to be interned).
+     */
+    private static InetSocketAddress getUnresolvedSocketAddress(String host, int port)
+    {
+        val cache = socketAddressCache.get();
+        val slot = (System.identityHashCode(host) * 31 + port) & (SOCKET_ADDRESS_CACHE_SIZE - 1);
+
+        val cached = cache[slot];
+        if (cached != null && cached.getPort() == port && host.equals(cached.getHostString()))
+        {
+            return cached;
+        }
+
+        return cache[slot] = InetSocketAddress.createUnresolved(host, port);
     }
 
 
@@ -114,13 +249,28 @@ public class Mapping extends Payload
         int begin = buffer.position();
 
         // start writing dynamic fields behind static fields first
-        int offset = begin + 16;
+        int offset = begin + HEADER_SIZE;
         val hostLength = putTruncatedUTF8(buffer, offset, host, STRING_SIZE_MAX);
         val routeLength = putTruncatedUTF8(buffer, offset += hostLength, route, STRING_SIZE_MAX);
         val nameLength = putTruncatedUTF8(buffer, offset += routeLength, name, STRING_SIZE_MAX);
         val dependencyLength = putTruncatedUTF8(buffer, offset += nameLength, dependency, STRING_SIZE_MAX);
         offset += dependencyLength;
 
+        if ((flags & FLAG_LOAD) != 0)
+        {
+            buffer.putShort(offset, (short) Math.min(inFlightRequests, LOAD_VALUE_MAX));
+            buffer.putShort(offset + 2, (short) Math.min(queueDepth, LOAD_VALUE_MAX));
+            buffer.putShort(offset + 4, (short) Math.min(capacityWeight, LOAD_VALUE_MAX));
+            offset += LOAD_EXTENSION_SIZE;
+        }
+
+        if ((flags & FLAG_ZONE) != 0)
+        {
+            val zoneLength = putTruncatedUTF8(buffer, offset + ZONE_EXTENSION_HEADER_SIZE, zone, STRING_SIZE_MAX);
+            buffer.put(offset, (byte) zoneLength);
+            offset += ZONE_EXTENSION_HEADER_SIZE + zoneLength;
+        }
+
         buffer.put(begin, (byte) type);
         buffer.put(begin + 1, (byte) flags);
         buffer.put(begin + 2, (byte) hostLength);
@@ -134,6 +284,35 @@ public class Mapping extends Payload
     }
 
 
+    /**
+     * Calculate the size of this mapping when serialized.
+     */
+    public int getSerializedSize()
+    {
+        return HEADER_SIZE
+                + calculateStringSize(host)
+                + calculateStringSize(route)
+                + calculateStringSize(name)
+                + calculateStringSize(dependency)
+                + (((flags & FLAG_LOAD) != 0) ? LOAD_EXTENSION_SIZE : 0)
+                + (((flags & FLAG_ZONE) != 0) ? ZONE_EXTENSION_HEADER_SIZE + calculateStringSize(zone) : 0);
+    }
+
+
+    /**
+     * Get a copy of this mapping without the load and zone extensions, for receivers that don't understand them.
+     */
+    public Mapping withoutExtensions()
+    {
+        if ((flags & (FLAG_LOAD | FLAG_ZONE)) == 0)
+        {
+            return this;
+        }
+
+        return new Mapping(type, flags & ~(FLAG_LOAD | FLAG_ZONE), timestamp, port, host, route, name, dependency, socketAddress, 0, 0, 0, "");
+    }
+
+
     /**
      * Check subject address against sender address.
      */
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect.message.payload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Multiple mappings packed into one datagram.
+ * <p>
+ * Only sent to insects that announced support using Mapping.FLAG_BATCH_RECEIVER.
+ */
+@Slf4j
+@Builder
+public class Mappings extends Payload
+{
+    public static final int MAXIMUM_SERIALIZED_SIZE = 1472;
+
+    public static final int TYPE_MAPPINGS = 0x5;
+
+    public static final int MAPPING_COUNT_MAX = 255;
+
+    private static final int HEADER_SIZE = 2;
+
+    @Getter
+    @Builder.Default
+    private final int type = TYPE_MAPPINGS;  // 0x5: mappings
+
+    @Getter
+    private final List<Mapping> mappings;   // mappings
+
+
+    /**
+     * Create a Mappings instance from binary data.
+     * <p>
+     * Basic binary layout is: tn[mapping]...
+     */
+    static Mappings from(ByteBuffer buffer, int offset) throws IndexOutOfBoundsException, CharacterCodingException
+    {
+        val type = buffer.get(offset) & 0xFF;
+        if (type != TYPE_MAPPINGS)
+        {
+            return null;
+        }
+
+        val count = buffer.get(++offset) & 0xFF;
+        if (count > 0)
+        {
+            val mappings = new Mapping[count];
+            ++offset;
+            for (int i = 0; i < count; ++i)
+            {
+                val mapping = Mapping.from(buffer, offset);
+                if (mapping == null)
+                {
+                    log.debug("encountered mappings payload with invalid element at index {}", i);
+                    return null;
+                }
+
+                mappings[i] = mapping;
+                offset += Mapping.getSerializedSize(buffer, offset);
+            }
+
+            return new Mappings(type, Arrays.asList(mappings));
+        }
+        else
+        {
+            return new Mappings(type, Collections.emptyList());
+        }
+    }
+
+
+    /**
+     * Calculate how many of the specified mappings (starting at fromIndex) fit into one Mappings payload.
+     */
+    public static int countFitting(List<Mapping> mappings, int fromIndex)
+    {
+        int totalSize = HEADER_SIZE;
+        val countMax = Math.min(mappings.size() - fromIndex, MAPPING_COUNT_MAX);
+        int count;
+        for (count = 0; count < countMax; ++count)
+        {
+            totalSize += mappings.get(fromIndex + count).getSerializedSize();
+            if (totalSize > MAXIMUM_SERIALIZED_SIZE)
+            {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+
+    @Override
+    public void to(ByteBuffer buffer)
+    {
+        val begin = buffer.position();
+
+        buffer.put((byte) type);
+        buffer.put((byte) mappings.size());
+        for (val mapping : mappings)
+        {
+            mapping.to(buffer);
+        }
+
+        if (buffer.position() - begin > MAXIMUM_SERIALIZED_SIZE)
+        {
+            throw new IllegalStateException("mappings exceed maximum serialized size");
+        }
+    }
+
+
+    @Override
+    public int getMaximumSize()
+    {
+        return MAXIMUM_SERIALIZED_SIZE;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Integer.toHexString(getType()) + ", " + mappings.size();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect.message.payload;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.val;
+
+
+/**
+ * Sender side path dictionary used by CompactMetrics.
+ * <p>
+ * Assigns IDs to metric paths and remembers which definitions were already announced to the receivers.
+ */
+public class MetricPathDictionary
+{
+    private static final int MAXIMUM_PATH_COUNT = 65536;
+
+    private final Map<String, Integer> pathToId = new HashMap<>();
+
+    private final BitSet announced = new BitSet();
+
+
+    synchronized int getId(String path)
+    {
+        val id = pathToId.get(path);
+        if (id != null)
+        {
+            return id;
+        }
+
+        if (pathToId.size() >= MAXIMUM_PATH_COUNT)
+        {
+            // start over, receivers will learn the new IDs from fresh definitions
+            pathToId.clear();
+            announced.clear();
+        }
+
+        val newId = pathToId.size();
+        pathToId.put(path, newId);
+
+        return newId;
+    }
+
+
+    synchronized boolean isAnnounced(int id)
+    {
+        return announced.get(id);
+    }
+
+
+    synchronized void setAnnounced(int id)
+    {
+        announced.set(id);
+    }
+
+
+    /**
+     * Announce all definitions again with the next payloads (ie. because a receiver lost them).
+     */
+    public synchronized void invalidate()
+    {
+        announced.clear();
+    }
+}
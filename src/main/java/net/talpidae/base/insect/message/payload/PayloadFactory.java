@@ -37,7 +37,9 @@ public final class PayloadFactory
 
         // probe message types (most frequent first)
         if ((payload = Metrics.from(buffer, offset)) != null
+                || (payload = CompactMetrics.from(buffer, offset)) != null
                 || (payload = Mapping.from(buffer, offset)) != null
+                || (payload = Mappings.from(buffer, offset)) != null
                 || (payload = Invalidate.from(buffer, offset)) != null
                 || (payload = Shutdown.from(buffer, offset)) != null)
         {
@@ -53,8 +55,8 @@ public final class PayloadFactory
      */
     public static int getMaximumSerializedSize()
     {
-        return Math.max(Metrics.MAXIMUM_SERIALIZED_SIZE,
-                Math.max(Mapping.MAXIMUM_SERIALIZED_SIZE,
+        return Math.max(Math.max(Metrics.MAXIMUM_SERIALIZED_SIZE, CompactMetrics.MAXIMUM_SERIALIZED_SIZE),
+                Math.max(Math.max(Mapping.MAXIMUM_SERIALIZED_SIZE, Mappings.MAXIMUM_SERIALIZED_SIZE),
                         Math.max(Invalidate.MAXIMUM_SERIALIZED_SIZE, Shutdown.MAXIMUM_SERIALIZED_SIZE)));
     }
 }
@@ -0,0 +1,13 @@
+package net.talpidae.base.insect.metrics;
+
+
+/**
+ * Pre-registered metric path, avoids resolving the path for every sample.
+ */
+public interface MetricHandle
+{
+    /**
+     * Form a metric tuple from the registered path and the specified value and forward it to remote listeners.
+     */
+    void forward(long timestampMillies, double value);
+}
@@ -9,4 +9,12 @@ public interface MetricsSink
      * Form a metric tuple from the specified path and value and forward it to remote listeners.
      */
     void forward(@NonNull String path, long timestampMillies, double value);
+
+    /**
+     * Register a path for repeated use, the returned handle should be kept and reused by the caller.
+     */
+    default MetricHandle register(@NonNull String path)
+    {
+        return (timestampMillies, value) -> forward(path, timestampMillies, value);
+    }
 }
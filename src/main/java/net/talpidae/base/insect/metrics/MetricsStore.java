@@ -0,0 +1,201 @@
+package net.talpidae.base.insect.metrics;
+
+import net.talpidae.base.insect.config.QueenSettings;
+import net.talpidae.base.util.performance.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * In-process time-series store for the metrics received by the queen.
+ * <p>
+ * Samples are rolled up per path into 10s, 1m and 10m buckets (see RollupResolution) which are kept in fixed size
+ * ring buffers, so memory per series is constant and the number of series is limited by
+ * QueenSettings.getMaximumMetricSeries(). Once the limit is reached the least recently updated series are evicted
+ * to make room for new paths. To bound the cost of path churn this happens at most once per second for a fraction
+ * of the series, samples for further paths and samples that are too old are dropped meanwhile.
+ */
+@Slf4j
+@Singleton
+public class MetricsStore
+{
+    // evict series at most this often while the store is full
+    private static final long EVICTION_INTERVAL_MILLIES = TimeUnit.SECONDS.toMillis(1);
+
+    // evict this fraction (1/16) of the series at once
+    private static final int EVICTION_SHIFT = 4;
+
+    private final Map<String, RollupSeries> pathToSeries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger seriesCount = new AtomicInteger();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final int maximumSeries;
+
+    private volatile long nextEvictionMillies = 0L;
+
+
+    @Inject
+    public MetricsStore(QueenSettings settings)
+    {
+        this.maximumSeries = Math.max(0, settings.getMaximumMetricSeries());
+
+        if (maximumSeries > 0)
+        {
+            log.debug("metrics store limited to {} series (up to {}KiB)", maximumSeries, maximumSeries * RollupSeries.getSizeInBytes() / 1024);
+        }
+    }
+
+
+    /**
+     * Add all specified samples to their series.
+     */
+    public void record(@NonNull Collection<Metric> metrics)
+    {
+        for (val metric : metrics)
+        {
+            record(metric.getPath(), metric.getTs(), metric.getValue());
+        }
+    }
+
+
+    /**
+     * Add a single sample to the series of the specified path, creating the series if necessary.
+     */
+    public void record(@NonNull String path, long timestampMillies, double value)
+    {
+        val series = getSeries(path);
+        if (series != null)
+        {
+            series.record(timestampMillies, value);
+        }
+        else
+        {
+            droppedCount.increment();
+        }
+    }
+
+
+    /**
+     * Get the paths of all known series.
+     */
+    public Set<String> getPaths()
+    {
+        return Collections.unmodifiableSet(pathToSeries.keySet());
+    }
+
+
+    /**
+     * Get the non-empty buckets of a series that start within [fromMillies, toMillies), ordered by time.
+     * <p>
+     * Returns an empty list for unknown paths.
+     */
+    public List<RollupPoint> query(@NonNull String path, @NonNull RollupResolution resolution, long fromMillies, long toMillies)
+    {
+        val series = pathToSeries.get(path);
+        if (series == null || fromMillies >= toMillies)
+        {
+            return Collections.emptyList();
+        }
+
+        return series.query(resolution, fromMillies, toMillies);
+    }
+
+
+    /**
+     * Number of samples dropped because the maximum series count was reached (and nothing could be evicted).
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.sum();
+    }
+
+
+    /**
+     * Forget all series.
+     */
+    public void clear()
+    {
+        pathToSeries.clear();
+        seriesCount.set(0);
+    }
+
+
+    private RollupSeries getSeries(String path)
+    {
+        val series = pathToSeries.get(path);
+        if (series != null || (seriesCount.get() >= maximumSeries && !evictLeastRecentlyUpdated()))
+        {
+            return series;
+        }
+
+        return pathToSeries.computeIfAbsent(path, p ->
+        {
+            if (seriesCount.getAndIncrement() >= maximumSeries)
+            {
+                seriesCount.decrementAndGet();
+                return null;
+            }
+
+            return new RollupSeries();
+        });
+    }
+
+
+    /**
+     * Remove the least recently updated series (those with the oldest newest sample).
+     *
+     * @return true if at least one series was removed
+     */
+    private boolean evictLeastRecentlyUpdated()
+    {
+        val nowMillies = System.currentTimeMillis();
+        if (nowMillies - nextEvictionMillies < 0)
+        {
+            return false;
+        }
+
+        nextEvictionMillies = nowMillies + EVICTION_INTERVAL_MILLIES;
+
+        val entries = new ArrayList<Map.Entry<String, RollupSeries>>(pathToSeries.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().getLastTimestampMillies()));
+
+        val evictionCount = Math.min(entries.size(), Math.max(1, maximumSeries >>> EVICTION_SHIFT));
+        int evictedCount = 0;
+        for (int i = 0; i < evictionCount; ++i)
+        {
+            val entry = entries.get(i);
+            if (pathToSeries.remove(entry.getKey(), entry.getValue()))
+            {
+                seriesCount.decrementAndGet();
+                ++evictedCount;
+            }
+        }
+
+        if (evictedCount > 0)
+        {
+            log.debug("evicted {} least recently updated metric series", evictedCount);
+            return true;
+        }
+
+        return false;
+    }
+}
@@ -2,11 +2,18 @@ package net.talpidae.base.insect.metrics;
 
 import net.talpidae.base.insect.Slave;
 import net.talpidae.base.insect.config.SlaveSettings;
+import net.talpidae.base.util.performance.Histogram;
 import net.talpidae.base.util.performance.Metric;
+import net.talpidae.base.util.performance.MetricRingBuffer;
 import net.talpidae.base.util.thread.GeneralScheduler;
 
 import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -16,12 +23,27 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
 
+/**
+ * Queues metrics and forwards them to the queen periodically.
+ * <p>
+ * Producers only register the path once and put (path ID, timestamp, value) into a lock-free ring buffer,
+ * which is drained by a single scheduled task. Metrics that don't fit are counted and reported as dropped.
+ * <p>
+ * In aggregation mode (see SlaveSettings.isMetricsAggregationEnabled()) samples are recorded into a histogram
+ * per path instead and only count, sum, max and some percentiles are forwarded per interval, independent of the
+ * number of samples. Status code paths (ending in /status) are not durations, their samples are counted per
+ * status class instead (ie. /status/2xx, only non-zero counts are forwarded).
+ */
 @Slf4j
 @Singleton
 public class QueuedMetricsSink implements MetricsSink
 {
     private static final long MAXIMUM_ENQUEUE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(4);
 
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int RING_CAPACITY = 16384;
+
     private static final int MAXIMUM_QUEUE_LENGTH = 2048;
 
     /**
@@ -29,13 +51,52 @@ public class QueuedMetricsSink implements MetricsSink
      */
     private static final int MAXIMUM_DELAYED_ITEM_COUNT = 30;
 
+    /**
+     * Maximum number of distinct paths, samples for other paths are dropped.
+     */
+    private static final int MAXIMUM_PATHS = 1024;
+
+    /**
+     * Maximum number of distinct paths to aggregate, samples for other paths are dropped.
+     */
+    private static final int MAXIMUM_AGGREGATED_PATHS = 256;
+
+    private static final double[] AGGREGATED_PERCENTILES = {50.0, 90.0, 99.0};
+
+    private static final String[] AGGREGATED_PERCENTILE_SUFFIXES = {"/p50", "/p90", "/p99"};
+
+    private static final String STATUS_PATH_SUFFIX = "/status";
+
+    private static final String[] STATUS_CLASS_SUFFIXES = {"/1xx", "/2xx", "/3xx", "/4xx", "/5xx"};
+
     private final Slave slave;
 
+    private final String pathPrefix;
+
+    private final MetricRingBuffer ring = new MetricRingBuffer(RING_CAPACITY);
+
+    private final Map<String, Integer> pathToId = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<String> idToAbsolutePath = new AtomicReferenceArray<>(MAXIMUM_PATHS);
+
+    private final AtomicInteger nextPathId = new AtomicInteger();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    // only accessed by the drain task
     private final ArrayDeque<Metric> metricQueue = new ArrayDeque<>(1024);
 
-    private final String pathPrefix;
+    private final MetricRingBuffer.Consumer consumer = this::consume;
+
+    // null if aggregation is disabled, only accessed by the drain task
+    private final Histogram[] histograms;
+
+    // counts per status class for status code paths, null if aggregation is disabled, only accessed by the drain task
+    private final long[][] statusClassCounts;
+
+    private int aggregatedPathCount = 0;
 
-    private long lastEnqueueNanos = 0L;
+    private long nextSendNanos = 0L;
 
 
     @Inject
@@ -43,8 +104,10 @@ public class QueuedMetricsSink implements MetricsSink
     {
         this.slave = slave;
         this.pathPrefix = "/" + slaveSettings.getName();
+        this.histograms = slaveSettings.isMetricsAggregationEnabled() ? new Histogram[MAXIMUM_PATHS] : null;
+        this.statusClassCounts = slaveSettings.isMetricsAggregationEnabled() ? new long[MAXIMUM_PATHS][] : null;
 
-        scheduler.scheduleWithFixedDelay(this::sendAllMetrics, MAXIMUM_ENQUEUE_DELAY_NANOS, MAXIMUM_ENQUEUE_DELAY_NANOS, TimeUnit.NANOSECONDS);
+        scheduler.scheduleWithFixedDelay(this::drainAndSendMetrics, DRAIN_INTERVAL_NANOS, DRAIN_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
     }
 
 
@@ -54,64 +117,235 @@ public class QueuedMetricsSink implements MetricsSink
     @Override
     public void forward(@NonNull String path, long timestampMillies, double value)
     {
-        val absolutePath = pathPrefix + path;
-        val metric = Metric.builder()
-                .path(absolutePath.replace("//", "/"))
-                .ts(timestampMillies)
-                .value(value)
-                .build();
+        val pathId = getPathId(path);
+        if (pathId < 0 || !ring.offer(pathId, timestampMillies, value))
+        {
+            droppedCount.increment();
+        }
+    }
+
+
+    /**
+     * Register the path once and return a handle that only puts the path ID and the sample into the ring buffer.
+     */
+    @Override
+    public MetricHandle register(@NonNull String path)
+    {
+        val pathId = getPathId(path);
+        if (pathId < 0)
+        {
+            return (timestampMillies, value) -> droppedCount.increment();
+        }
 
-        synchronized (metricQueue)
+        return (timestampMillies, value) ->
         {
-            if (metricQueue.size() < MAXIMUM_QUEUE_LENGTH)
+            if (!ring.offer(pathId, timestampMillies, value))
             {
-                metricQueue.addLast(metric);
+                droppedCount.increment();
             }
+        };
+    }
+
+
+    /**
+     * Get the ID of a path, registering it if necessary (-1 if there are too many paths already).
+     */
+    private int getPathId(String path)
+    {
+        val pathId = pathToId.get(path);
+        if (pathId != null)
+        {
+            return pathId;
         }
+
+        if (nextPathId.get() >= MAXIMUM_PATHS)
+        {
+            return -1;
+        }
+
+        val newPathId = pathToId.computeIfAbsent(path, p ->
+        {
+            val id = nextPathId.getAndIncrement();
+            if (id >= MAXIMUM_PATHS)
+            {
+                return null;
+            }
+
+            // absolute path is computed only once per path
+            idToAbsolutePath.set(id, (pathPrefix + p).replace("//", "/"));
+            return id;
+        });
+
+        return (newPathId != null) ? newPathId : -1;
     }
 
 
-    private int getQueueLength()
+    private void consume(int pathId, long timestampMillies, double value)
     {
-        synchronized (metricQueue)
+        if (histograms != null)
+        {
+            aggregate(pathId, value);
+        }
+        else
         {
-            return metricQueue.size();
+            enqueue(idToAbsolutePath.get(pathId), timestampMillies, value);
         }
     }
 
 
-    private boolean isQueueEmpty()
+    private static void countStatus(long[] counts, double statusCode)
     {
-        synchronized (metricQueue)
+        // 1xx to 5xx, ignore invalid status codes
+        val statusClass = (int) statusCode / 100 - 1;
+        if (statusClass >= 0 && statusClass < counts.length)
         {
-            return metricQueue.isEmpty();
+            ++counts[statusClass];
         }
     }
 
 
-    private void sendAllMetrics()
+    private void aggregate(int pathId, double value)
     {
-        val now = System.nanoTime();
-        if (lastEnqueueNanos < now - MAXIMUM_ENQUEUE_DELAY_NANOS
-                && !isQueueEmpty())
+        val counts = statusClassCounts[pathId];
+        if (counts != null)
         {
-            lastEnqueueNanos = now;
+            countStatus(counts, value);
+            return;
+        }
 
-            try
+        Histogram histogram = histograms[pathId];
+        if (histogram == null)
+        {
+            if (aggregatedPathCount >= MAXIMUM_AGGREGATED_PATHS)
+            {
+                droppedCount.increment();
+                return;
+            }
+
+            ++aggregatedPathCount;
+            if (idToAbsolutePath.get(pathId).endsWith(STATUS_PATH_SUFFIX))
             {
-                do
+                countStatus(statusClassCounts[pathId] = new long[STATUS_CLASS_SUFFIXES.length], value);
+                return;
+            }
+
+            histogram = histograms[pathId] = new Histogram();
+        }
+
+        histogram.record(value);
+    }
+
+
+    /**
+     * Turn the histograms and status class counts of the last interval into metrics and reset them.
+     */
+    private void enqueueAggregatedMetrics()
+    {
+        val timestampMillies = System.currentTimeMillis();
+        for (int pathId = 0; pathId < histograms.length; ++pathId)
+        {
+            val counts = statusClassCounts[pathId];
+            if (counts != null)
+            {
+                enqueueStatusClassCounts(idToAbsolutePath.get(pathId), timestampMillies, counts);
+                continue;
+            }
+
+            val histogram = histograms[pathId];
+            if (histogram == null || histogram.getCount() == 0)
+            {
+                continue;
+            }
+
+            val absolutePath = idToAbsolutePath.get(pathId);
+            enqueue(absolutePath + "/count", timestampMillies, histogram.getCount());
+            enqueue(absolutePath + "/sum", timestampMillies, histogram.getSum());
+            enqueue(absolutePath + "/max", timestampMillies, histogram.getMax());
+            for (int i = 0; i < AGGREGATED_PERCENTILES.length; ++i)
+            {
+                enqueue(absolutePath + AGGREGATED_PERCENTILE_SUFFIXES[i], timestampMillies, histogram.getValueAtPercentile(AGGREGATED_PERCENTILES[i]));
+            }
+
+            histogram.reset();
+        }
+    }
+
+
+    private void enqueueStatusClassCounts(String absolutePath, long timestampMillies, long[] counts)
+    {
+        for (int i = 0; i < counts.length; ++i)
+        {
+            if (counts[i] > 0)
+            {
+                enqueue(absolutePath + STATUS_CLASS_SUFFIXES[i], timestampMillies, counts[i]);
+                counts[i] = 0;
+            }
+        }
+    }
+
+
+    private void enqueue(String absolutePath, long timestampMillies, double value)
+    {
+        if (metricQueue.size() < MAXIMUM_QUEUE_LENGTH)
+        {
+            metricQueue.addLast(Metric.builder()
+                    .path(absolutePath)
+                    .ts(timestampMillies)
+                    .value(value)
+                    .build());
+        }
+        else
+        {
+            droppedCount.increment();
+        }
+    }
+
+
+    /**
+     * Report how many samples were dropped since the last call (queue full or too many paths).
+     */
+    private void enqueueDroppedCount()
+    {
+        val dropped = droppedCount.sumThenReset();
+        if (dropped > 0)
+        {
+            enqueue(pathPrefix + "/metrics/dropped", System.currentTimeMillis(), dropped);
+        }
+    }
+
+
+    private void drainAndSendMetrics()
+    {
+        try
+        {
+            ring.drain(consumer, ring.getCapacity());
+
+            val now = System.nanoTime();
+            if (now - nextSendNanos >= 0)
+            {
+                nextSendNanos = now + MAXIMUM_ENQUEUE_DELAY_NANOS;
+
+                if (histograms != null)
+                {
+                    enqueueAggregatedMetrics();
+                }
+
+                enqueueDroppedCount();
+
+                while (!metricQueue.isEmpty())
                 {
-                    synchronized (metricQueue)
+                    slave.forwardMetrics(metricQueue);
+
+                    if (metricQueue.size() < MAXIMUM_DELAYED_ITEM_COUNT)
                     {
-                        slave.forwardMetrics(metricQueue);
+                        break;
                     }
                 }
-                while (getQueueLength() >= MAXIMUM_DELAYED_ITEM_COUNT);
-            }
-            catch (Throwable t)
-            {
-                log.error("failed to forward metrics", t);
             }
         }
+        catch (Throwable t)
+        {
+            log.error("failed to forward metrics", t);
+        }
     }
 }
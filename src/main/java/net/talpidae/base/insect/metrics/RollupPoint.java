@@ -0,0 +1,30 @@
+package net.talpidae.base.insect.metrics;
+
+import lombok.Value;
+
+
+/**
+ * Aggregate of all samples of a series that fell into one rollup bucket.
+ */
+@Value
+public class RollupPoint
+{
+    /**
+     * Start of the bucket in milliseconds since the epoch.
+     */
+    private final long ts;
+
+    private final long count;
+
+    private final double sum;
+
+    private final double min;
+
+    private final double max;
+
+
+    public double getMean()
+    {
+        return (count > 0) ? sum / count : Double.NaN;
+    }
+}
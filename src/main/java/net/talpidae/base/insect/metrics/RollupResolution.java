@@ -0,0 +1,49 @@
+package net.talpidae.base.insect.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+
+
+/**
+ * Resolutions kept by the MetricsStore, every series keeps all of them.
+ */
+public enum RollupResolution
+{
+    /**
+     * 10s buckets, covering the last hour.
+     */
+    TEN_SECONDS(TimeUnit.SECONDS.toMillis(10), 360),
+
+    /**
+     * 1m buckets, covering the last 6 hours.
+     */
+    ONE_MINUTE(TimeUnit.MINUTES.toMillis(1), 360),
+
+    /**
+     * 10m buckets, covering the last 3 days.
+     */
+    TEN_MINUTES(TimeUnit.MINUTES.toMillis(10), 432);
+
+    @Getter
+    private final long bucketMillies;
+
+    @Getter
+    private final int bucketCount;
+
+
+    RollupResolution(long bucketMillies, int bucketCount)
+    {
+        this.bucketMillies = bucketMillies;
+        this.bucketCount = bucketCount;
+    }
+
+
+    /**
+     * Time span covered by this resolution.
+     */
+    public long getRetentionMillies()
+    {
+        return bucketMillies * bucketCount;
+    }
+}
@@ -0,0 +1,140 @@
+package net.talpidae.base.insect.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.val;
+
+
+/**
+ * Fixed size ring buffers of count, sum, min and max for all rollup resolutions of a single metric path.
+ * <p>
+ * All resolutions share the same primitive arrays, each one owns a consecutive range of slots. A slot remembers
+ * the bucket number it currently aggregates and is reset once a sample for a newer bucket maps to it.
+ */
+class RollupSeries
+{
+    private static final RollupResolution[] RESOLUTIONS = RollupResolution.values();
+
+    private static final int[] SLOT_OFFSETS = new int[RESOLUTIONS.length];
+
+    private static final int SLOT_COUNT;
+
+    static
+    {
+        int offset = 0;
+        for (val resolution : RESOLUTIONS)
+        {
+            SLOT_OFFSETS[resolution.ordinal()] = offset;
+            offset += resolution.getBucketCount();
+        }
+
+        SLOT_COUNT = offset;
+    }
+
+    private final long[] buckets = new long[SLOT_COUNT];
+
+    private final long[] counts = new long[SLOT_COUNT];
+
+    private final double[] sums = new double[SLOT_COUNT];
+
+    private final double[] mins = new double[SLOT_COUNT];
+
+    private final double[] maxs = new double[SLOT_COUNT];
+
+    private volatile long lastTimestampMillies = Long.MIN_VALUE;
+
+
+    RollupSeries()
+    {
+        Arrays.fill(buckets, Long.MIN_VALUE);
+    }
+
+
+    /**
+     * Approximate heap usage of a single series in bytes.
+     */
+    static long getSizeInBytes()
+    {
+        return SLOT_COUNT * 5L * 8L;
+    }
+
+
+    /**
+     * Timestamp of the newest sample recorded.
+     */
+    long getLastTimestampMillies()
+    {
+        return lastTimestampMillies;
+    }
+
+
+    synchronized void record(long timestampMillies, double value)
+    {
+        if (timestampMillies > lastTimestampMillies)
+        {
+            lastTimestampMillies = timestampMillies;
+        }
+
+        for (val resolution : RESOLUTIONS)
+        {
+            val bucket = Math.floorDiv(timestampMillies, resolution.getBucketMillies());
+            val slot = SLOT_OFFSETS[resolution.ordinal()] + (int) Math.floorMod(bucket, (long) resolution.getBucketCount());
+
+            val slotBucket = buckets[slot];
+            if (slotBucket != bucket)
+            {
+                if (slotBucket > bucket)
+                {
+                    // too old for this resolution, the slot already holds a newer bucket
+                    continue;
+                }
+
+                buckets[slot] = bucket;
+                counts[slot] = 0L;
+                sums[slot] = 0.0;
+                mins[slot] = value;
+                maxs[slot] = value;
+            }
+
+            ++counts[slot];
+            sums[slot] += value;
+            if (value < mins[slot])
+            {
+                mins[slot] = value;
+            }
+            if (value > maxs[slot])
+            {
+                maxs[slot] = value;
+            }
+        }
+    }
+
+
+    /**
+     * Get all non-empty buckets that start within [fromMillies, toMillies), ordered by time.
+     */
+    synchronized List<RollupPoint> query(RollupResolution resolution, long fromMillies, long toMillies)
+    {
+        val bucketMillies = resolution.getBucketMillies();
+        val bucketCount = resolution.getBucketCount();
+        val offset = SLOT_OFFSETS[resolution.ordinal()];
+
+        // buckets older than bucketCount can't be present anymore
+        val lastBucket = Math.floorDiv(toMillies - 1, bucketMillies);
+        val firstBucket = Math.max(Math.floorDiv(fromMillies + bucketMillies - 1, bucketMillies), lastBucket - bucketCount + 1);
+
+        val points = new ArrayList<RollupPoint>();
+        for (long bucket = firstBucket; bucket <= lastBucket; ++bucket)
+        {
+            val slot = offset + (int) Math.floorMod(bucket, (long) bucketCount);
+            if (buckets[slot] == bucket && counts[slot] > 0)
+            {
+                points.add(new RollupPoint(bucket * bucketMillies, counts[slot], sums[slot], mins[slot], maxs[slot]));
+            }
+        }
+
+        return points;
+    }
+}
@@ -34,7 +34,7 @@ import lombok.ToString;
 @Getter
 @EqualsAndHashCode
 @ToString
-@Builder
+@Builder(toBuilder = true)
 @RequiredArgsConstructor
 public class InsectState implements ServiceState
 {
@@ -82,6 +82,48 @@ public class InsectState implements ServiceState
     @Getter
     private final transient boolean isOutOfService;
 
+    /**
+     * Smallest observed difference between local arrival time and remote send time of heartbeats (slowly rising).
+     */
+    @Getter
+    private final transient long baselineOffsetNanos;
+
+    /**
+     * Smoothed (EWMA) delay of heartbeats relative to the remote clock and baselineOffsetNanos, hints at overload or GC pauses.
+     */
+    @Getter
+    private final transient long lagNanos;
+
+    /**
+     * Smoothed (EWMA) deviation of heartbeat delay from lagNanos.
+     */
+    @Getter
+    private final transient long jitterNanos;
+
+    /**
+     * Requests currently handled by this service as reported by itself (0 if unknown).
+     */
+    @Getter
+    private final transient int inFlightRequests;
+
+    /**
+     * Requests waiting for a worker thread of this service as reported by itself (0 if unknown).
+     */
+    @Getter
+    private final transient int queueDepth;
+
+    /**
+     * Capacity weight declared by this service (0 if unknown).
+     */
+    @Getter
+    private final transient int capacityWeight;
+
+    /**
+     * Zone label declared by this service (null or empty if unknown).
+     */
+    @Getter
+    private final transient String zone;
+
 
     public static class InsectStateBuilder
     {
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect.state;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Persists route to insect state mappings in a compact binary format using a memory-mapped file.
+ * <p>
+ * Instead of (meaningless) monotonic timestamps each entry stores its age at the time the snapshot
+ * was written, restored entries are thus subject to the usual timeout handling.
+ * <p>
+ * Layout: header (magic, version, wall clock millies, entry count, data length, CRC32), followed by entries:
+ * route, host, address, port, name, flags, age, remote timestamp, dependencies.
+ * <p>
+ * Each write() serializes all entries and replaces the whole snapshot, there are no incremental updates: since every
+ * entry stores its age, all entries change between two snapshots anyway. Writing costs O(entries), roughly
+ * 50 to 100 bytes per entry plus a CRC32 over the data, so callers should limit how often they write.
+ */
+@Slf4j
+public class InsectStateSnapshot implements Closeable
+{
+    private static final int MAGIC = 0x494E5351;  // "INSQ"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 8;
+
+    private static final int FLAG_OUT_OF_SERVICE = 0x1;
+
+    private static final int STRING_SIZE_MAX = 255;
+
+    private static final int INITIAL_MAPPED_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer mappedBuffer;
+
+    private ByteBuffer dataBuffer = ByteBuffer.allocate(INITIAL_MAPPED_SIZE);
+
+
+    public InsectStateSnapshot(Path path)
+    {
+        this.path = path;
+    }
+
+
+    private static void putString(ByteBuffer buffer, String s)
+    {
+        byte[] bytes = (s != null) ? s.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > STRING_SIZE_MAX)
+        {
+            bytes = new byte[0];
+        }
+
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+
+    private static String getString(ByteBuffer buffer)
+    {
+        val bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8).intern();
+    }
+
+
+    private static long calculateChecksum(ByteBuffer data)
+    {
+        val crc = new CRC32();
+        crc.update(data.duplicate());
+
+        return crc.getValue();
+    }
+
+
+    /**
+     * Read the last snapshot, skipping entries older than maximumAgeMillies (time since the snapshot was written included).
+     *
+     * @param nowNanos Current monotonic clock value, used to calculate the timestamp of restored entries.
+     * @return Restored (route, state) entries, empty if there is no valid snapshot.
+     */
+    public synchronized List<Map.Entry<String, InsectState>> read(long nowNanos, long maximumAgeMillies) throws IOException
+    {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE)
+        {
+            return Collections.emptyList();
+        }
+
+        try (val readChannel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            val buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            {
+                log.warn("ignoring invalid insect state snapshot {}", path);
+                return Collections.emptyList();
+            }
+
+            val wallMillies = buffer.getLong();
+            val count = buffer.getInt();
+            val length = buffer.getInt();
+            val checksum = buffer.getLong();
+            if (length < 0 || length > buffer.remaining())
+            {
+                log.warn("ignoring truncated insect state snapshot {}", path);
+                return Collections.emptyList();
+            }
+
+            val data = buffer.slice();
+            data.limit(length);
+            if (calculateChecksum(data) != checksum)
+            {
+                log.warn("ignoring corrupt insect state snapshot {}", path);
+                return Collections.emptyList();
+            }
+
+            val elapsedNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, System.currentTimeMillis() - wallMillies));
+            val maximumAgeNanos = TimeUnit.MILLISECONDS.toNanos(maximumAgeMillies);
+            if (elapsedNanos > maximumAgeNanos)
+            {
+                log.info("ignoring outdated insect state snapshot {}", path);
+                return Collections.emptyList();
+            }
+
+            val entries = new ArrayList<Map.Entry<String, InsectState>>(count);
+            for (int i = 0; i < count; ++i)
+            {
+                val route = getString(data);
+                val host = getString(data);
+                val addressBytes = new byte[data.get() & 0xFF];
+                data.get(addressBytes);
+                val port = data.getShort() & 0xFFFF;
+                val name = getString(data);
+                val flags = data.get() & 0xFF;
+                val ageNanos = data.getLong() + elapsedNanos;
+                val remoteTimestamp = data.getLong();
+                val dependencyCount = data.get() & 0xFF;
+                val dependencies = new ArrayList<String>(dependencyCount);
+                for (int j = 0; j < dependencyCount; ++j)
+                {
+                    dependencies.add(getString(data));
+                }
+
+                if (ageNanos > maximumAgeNanos)
+                {
+                    // already dead
+                    continue;
+                }
+
+                val socketAddress = (addressBytes.length > 0)
+                        ? new InetSocketAddress(InetAddress.getByAddress(host, addressBytes), port)
+                        : InetSocketAddress.createUnresolved(host, port);
+
+                val timestamp = nowNanos - ageNanos;
+                val state = InsectState.builder()
+                        .socketAddress(socketAddress)
+                        .name(name)
+                        .timestampEpochLocal(timestamp)
+                        .timestampEpochRemote(remoteTimestamp)
+                        .timestamp(timestamp)
+                        .dependencies(dependencies)
+                        .isOutOfService((flags & FLAG_OUT_OF_SERVICE) != 0)
+                        .build();
+
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(route, state));
+            }
+
+            return entries;
+        }
+    }
+
+
+    /**
+     * Write a new snapshot of the specified (route, state) entries.
+     *
+     * @param nowNanos Current monotonic clock value, used to calculate the age of each entry.
+     */
+    public synchronized void write(Iterable<Map.Entry<String, InsectState>> entries, long nowNanos) throws IOException
+    {
+        int count;
+        while (true)
+        {
+            dataBuffer.clear();
+            try
+            {
+                count = 0;
+                for (val entry : entries)
+                {
+                    putEntry(dataBuffer, entry.getKey(), entry.getValue(), nowNanos);
+                    ++count;
+                }
+
+                break;
+            }
+            catch (BufferOverflowException e)
+            {
+                dataBuffer = ByteBuffer.allocate(dataBuffer.capacity() * 2);
+            }
+        }
+
+        dataBuffer.flip();
+
+        val buffer = map(HEADER_SIZE + dataBuffer.remaining());
+
+        // invalidate first, a partially written snapshot must not be loaded
+        buffer.putInt(0, 0);
+
+        buffer.position(HEADER_SIZE);
+        buffer.put(dataBuffer.duplicate());
+
+        buffer.position(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(count);
+        buffer.putInt(dataBuffer.remaining());
+        buffer.putLong(calculateChecksum(dataBuffer));
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (mappedBuffer != null)
+        {
+            mappedBuffer.force();
+            mappedBuffer = null;
+        }
+
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    private void putEntry(ByteBuffer buffer, String route, InsectState state, long nowNanos)
+    {
+        val socketAddress = state.getSocketAddress();
+        val address = socketAddress.getAddress();
+        val addressBytes = (address != null) ? address.getAddress() : new byte[0];
+        val dependencies = state.getDependencies();
+
+        putString(buffer, route);
+        putString(buffer, socketAddress.getHostString());
+        buffer.put((byte) addressBytes.length);
+        buffer.put(addressBytes);
+        buffer.putShort((short) socketAddress.getPort());
+        putString(buffer, state.getName());
+        buffer.put((byte) (state.isOutOfService() ? FLAG_OUT_OF_SERVICE : 0));
+        buffer.putLong(Math.max(0L, nowNanos - state.getTimestamp()));
+        buffer.putLong(state.getTimestampEpochRemote() + (state.getTimestamp() - state.getTimestampEpochLocal()));
+
+        val dependencyCount = Math.min(dependencies.size(), 255);
+        buffer.put((byte) dependencyCount);
+        int i = 0;
+        for (val dependency : dependencies)
+        {
+            if (i++ >= dependencyCount)
+                break;
+
+            putString(buffer, dependency);
+        }
+    }
+
+
+    /**
+     * Get the mapped file region, growing it if necessary.
+     */
+    private MappedByteBuffer map(int size) throws IOException
+    {
+        if (channel == null)
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        if (mappedBuffer == null || mappedBuffer.capacity() < size)
+        {
+            int mappedSize = INITIAL_MAPPED_SIZE;
+            while (mappedSize < size)
+            {
+                mappedSize *= 2;
+            }
+
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+        }
+
+        mappedBuffer.clear();
+
+        return mappedBuffer;
+    }
+}
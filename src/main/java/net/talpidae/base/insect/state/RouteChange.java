@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.insect.state;
+
+import java.util.List;
+
+import lombok.Value;
+
+
+/**
+ * Coalesced membership changes of a single route.
+ * <p>
+ * The queen doesn't relay instances that have been put out-of-service, to slaves they are removed once they time out.
+ */
+@Value
+public class RouteChange
+{
+    private final String route;
+
+    /**
+     * Instances that were discovered.
+     */
+    private final List<? extends ServiceState> added;
+
+    /**
+     * Instances that timed out or were invalidated.
+     */
+    private final List<? extends ServiceState> removed;
+}
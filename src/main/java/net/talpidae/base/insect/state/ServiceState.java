@@ -8,4 +8,52 @@ public interface ServiceState
     long getTimestamp();
 
     InetSocketAddress getSocketAddress();
+
+    /**
+     * Smoothed heartbeat delay of this service (0 if unknown).
+     */
+    default long getLagNanos()
+    {
+        return 0L;
+    }
+
+    /**
+     * Smoothed heartbeat delay deviation of this service (0 if unknown).
+     */
+    default long getJitterNanos()
+    {
+        return 0L;
+    }
+
+    /**
+     * Requests currently handled by this service as reported by itself (0 if unknown).
+     */
+    default int getInFlightRequests()
+    {
+        return 0;
+    }
+
+    /**
+     * Requests waiting for a worker thread of this service as reported by itself (0 if unknown).
+     */
+    default int getQueueDepth()
+    {
+        return 0;
+    }
+
+    /**
+     * Capacity weight declared by this service (0 if unknown).
+     */
+    default int getCapacityWeight()
+    {
+        return 0;
+    }
+
+    /**
+     * Zone label declared by this service (null or empty if unknown).
+     */
+    default String getZone()
+    {
+        return null;
+    }
 }
@@ -22,6 +22,7 @@ import com.google.inject.multibindings.OptionalBinder;
 
 import net.talpidae.base.client.JacksonProvider;
 import net.talpidae.base.client.ObjectMapperProvider;
+import net.talpidae.base.server.performance.RouteTemplateFilter;
 import net.talpidae.base.util.session.SessionService;
 
 import org.jboss.resteasy.plugins.guice.ext.RequestScopeModule;
@@ -80,6 +81,7 @@ public class RestModule extends AbstractModule
         bind(BasicAuthAuthenticationFilter.class);
         bind(JsonMappingExceptionMapper.class);
         bind(DefaultGenericExceptionMapper.class);
+        bind(RouteTemplateFilter.class);
 
         bind(DefaultRestApplication.class);
     }
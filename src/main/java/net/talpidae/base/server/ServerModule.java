@@ -28,6 +28,8 @@ import io.undertow.servlet.api.ClassIntrospecter;
 import io.undertow.servlet.api.InstanceFactory;
 import io.undertow.servlet.util.ImmediateInstanceFactory;
 import io.undertow.websockets.jsr.DefaultContainerConfigurator;
+import net.talpidae.base.insect.LoadSource;
+import net.talpidae.base.server.performance.UndertowLoadSource;
 
 import javax.annotation.Nullable;
 import javax.websocket.server.ServerEndpointConfig;
@@ -44,6 +46,9 @@ public class ServerModule extends AbstractModule
         OptionalBinder.newOptionalBinder(binder(), ServerConfig.class).setDefault().to(DefaultServerConfig.class);
         OptionalBinder.newOptionalBinder(binder(), Server.class).setDefault().to(UndertowServer.class);
 
+        // report load sampled from undertow with insect heartbeats
+        OptionalBinder.newOptionalBinder(binder(), LoadSource.class).setDefault().to(UndertowLoadSource.class);
+
         // websocket support
         OptionalBinder.newOptionalBinder(binder(), new TypeLiteral<Class<? extends WebSocketEndpoint>>() {});
         OptionalBinder.newOptionalBinder(binder(), new TypeLiteral<ServerEndpointConfig>() {});
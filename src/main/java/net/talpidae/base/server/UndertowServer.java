@@ -50,6 +50,7 @@ import net.talpidae.base.insect.metrics.MetricsSink;
 import net.talpidae.base.server.cors.CORSFilter;
 import net.talpidae.base.server.performance.MemoryMetricCollector;
 import net.talpidae.base.server.performance.MetricsHandler;
+import net.talpidae.base.server.performance.UndertowLoadSource;
 import net.talpidae.base.util.ssl.SslContextFactory;
 import net.talpidae.base.util.thread.GeneralScheduler;
 import org.xnio.OptionMap;
@@ -93,6 +94,8 @@ public class UndertowServer implements Server
 
     private final GeneralScheduler scheduler;
 
+    private final UndertowLoadSource loadSource;
+
     private Undertow server = null;
 
     private GracefulShutdownHandler rootHandler;
@@ -107,7 +110,8 @@ public class UndertowServer implements Server
                           Optional<ServerEndpointConfig> programmaticEndpointConfig,
                           Optional<ServerEndpointConfig.Configurator> defaultServerEndpointConfigurator,
                           Optional<MetricsSink> metricsSink,
-                          GeneralScheduler scheduler)
+                          GeneralScheduler scheduler,
+                          UndertowLoadSource loadSource)
     {
         this.serverConfig = serverConfig;
         this.classIntrospecter = classIntrospecter;
@@ -117,6 +121,7 @@ public class UndertowServer implements Server
         this.metricsSink = metricsSink.orElse(null);
         this.eventBus = eventBus;
         this.scheduler = scheduler;
+        this.loadSource = loadSource;
 
         eventBus.register(this);
     }
@@ -374,7 +379,8 @@ public class UndertowServer implements Server
         HttpHandler rootHandler = ResponseCodeHandler.HANDLE_404;
         if (servletHandler != null)
         {
-            rootHandler = servletHandler;
+            // track in-flight requests and worker queue depth (reported with heartbeats)
+            rootHandler = loadSource.wrap(servletHandler);
         }
 
         val rootHandlerWrapper = serverConfig.getRootHandlerWrapper();
@@ -1,28 +1,67 @@
 package net.talpidae.base.server.performance;
 
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
-import lombok.Getter;
 import lombok.val;
+import net.talpidae.base.insect.metrics.MetricHandle;
 import net.talpidae.base.insect.metrics.MetricsSink;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 
+/**
+ * Records duration and status code of every request.
+ * <p>
+ * Metrics are keyed by the matched JAX-RS path template (see RouteTemplateFilter) instead of the actual path, to keep
+ * the number of series bounded. Requests without a template (not handled by JAX-RS or rejected before matching) are
+ * recorded as UNMATCHED_ROUTE. Metric handles are registered once per route and recording is done inline.
+ */
 public class MetricsHandler implements HttpHandler
 {
+    public static final String UNMATCHED_ROUTE = "/unmatched";
+
+    /**
+     * Maximum number of distinct routes, requests for further routes are recorded as UNMATCHED_ROUTE.
+     */
+    private static final int MAXIMUM_ROUTES = 256;
+
     private static final AttachmentKey<ExchangeMetric> EXCHANGE_METRIC = AttachmentKey.create(ExchangeMetric.class);
 
+    private static final double NANOSECONDS_TO_FRACTIONAL_SECONDS_MULTIPLIER = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
     private final HttpHandler next;
 
     private final MetricsSink metricsSink;
 
+    private final Map<String, RouteMetric> routeToMetric = new ConcurrentHashMap<>();
+
+    private final RouteMetric unmatchedRouteMetric;
+
+    private final ExchangeCompletionListener completionListener = this::exchangeCompleted;
+
 
     public MetricsHandler(HttpHandler next, MetricsSink metricsSink)
     {
         this.next = next;
         this.metricsSink = metricsSink;
+        this.unmatchedRouteMetric = new RouteMetric(metricsSink, UNMATCHED_ROUTE);
+    }
+
+
+    /**
+     * Set the route template of a request, called once the route is known.
+     */
+    static void setRoute(HttpServerExchange exchange, String route)
+    {
+        val exchangeMetric = exchange.getAttachment(EXCHANGE_METRIC);
+        if (exchangeMetric != null)
+        {
+            exchangeMetric.route = route;
+        }
     }
 
 
@@ -31,75 +70,83 @@ public class MetricsHandler implements HttpHandler
     {
         if (!exchange.isComplete())
         {
-            exchange.putAttachment(EXCHANGE_METRIC, new ExchangeMetric(exchange.getRelativePath()));
-
-            exchange.addExchangeCompleteListener((completedExchange, nextListener) ->
-            {
-                final Runnable finishRequest = () ->
-                {
-                    val exchangeMetric = completedExchange.getAttachment(EXCHANGE_METRIC);
-
-                    exchangeMetric.complete(completedExchange);
-                    forwardRequestMetric(exchangeMetric);
-
-                    nextListener.proceed();
-                };
-
-                if (completedExchange.isInIoThread())
-                {
-                    completedExchange.dispatch(finishRequest);
-                }
-                else
-                {
-                    finishRequest.run();
-                }
-            });
+            exchange.putAttachment(EXCHANGE_METRIC, new ExchangeMetric());
+            exchange.addExchangeCompleteListener(completionListener);
         }
         next.handleRequest(exchange);
     }
 
-    
-    private void forwardRequestMetric(ExchangeMetric exchangeMetric)
+
+    private void exchangeCompleted(HttpServerExchange exchange, ExchangeCompletionListener.NextListener nextListener)
     {
-        val ts = exchangeMetric.getTimestampMillies();
-        metricsSink.forward(exchangeMetric.getPath() + "/duration", ts, exchangeMetric.getDuration());
-        metricsSink.forward(exchangeMetric.getPath() + "/status", ts, exchangeMetric.getStatusCode());
+        try
+        {
+            val exchangeMetric = exchange.getAttachment(EXCHANGE_METRIC);
+            if (exchangeMetric != null)
+            {
+                val duration = (double) (System.nanoTime() - exchangeMetric.startNanos) * NANOSECONDS_TO_FRACTIONAL_SECONDS_MULTIPLIER;
+
+                getRouteMetric(exchangeMetric.route).record(exchangeMetric.timestampMillies, duration, exchange.getStatusCode());
+            }
+        }
+        finally
+        {
+            nextListener.proceed();
+        }
     }
 
 
-    private static class ExchangeMetric
+    private RouteMetric getRouteMetric(String route)
     {
-        private static final double NANOSECONDS_TO_FRACTIONAL_SECONDS_MULTIPLIER = 1.0 / TimeUnit.SECONDS.toNanos(1);
+        if (route == null)
+        {
+            return unmatchedRouteMetric;
+        }
 
-        private final long startNanos;
+        val routeMetric = routeToMetric.get(route);
+        if (routeMetric != null)
+        {
+            return routeMetric;
+        }
 
-        @Getter
-        private final long timestampMillies;
+        if (routeToMetric.size() >= MAXIMUM_ROUTES)
+        {
+            return unmatchedRouteMetric;
+        }
 
-        @Getter
-        private final String path;
+        return routeToMetric.computeIfAbsent(route, r -> new RouteMetric(metricsSink, r));
+    }
 
-        @Getter
-        private double duration;
 
-        @Getter
-        private double statusCode;
+    private static class RouteMetric
+    {
+        private final MetricHandle duration;
 
+        private final MetricHandle status;
 
-        private ExchangeMetric(String path)
+
+        private RouteMetric(MetricsSink metricsSink, String route)
         {
-            this.timestampMillies = System.currentTimeMillis();
-            this.startNanos = System.nanoTime();
-            this.path = path;
+            this.duration = metricsSink.register(route + "/duration");
+            this.status = metricsSink.register(route + "/status");
         }
 
 
-        private void complete(HttpServerExchange exchange)
+        private void record(long timestampMillies, double durationSeconds, int statusCode)
         {
-            val endNanos = System.nanoTime();
-
-            duration = (double) (endNanos - startNanos) * NANOSECONDS_TO_FRACTIONAL_SECONDS_MULTIPLIER;
-            statusCode = exchange.getStatusCode();
+            duration.forward(timestampMillies, durationSeconds);
+            status.forward(timestampMillies, statusCode);
         }
     }
-}
\ No newline at end of file
+
+
+    private static class ExchangeMetric
+    {
+        private final long timestampMillies = System.currentTimeMillis();
+
+        private final long startNanos = System.nanoTime();
+
+        // set by RouteTemplateFilter, null if unmatched
+        private volatile String route;
+    }
+}
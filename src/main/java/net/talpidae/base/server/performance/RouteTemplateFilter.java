@@ -0,0 +1,83 @@
+package net.talpidae.base.server.performance;
+
+import io.undertow.servlet.handlers.ServletRequestContext;
+import lombok.val;
+
+import javax.annotation.Priority;
+import javax.inject.Singleton;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+
+/**
+ * Tells the MetricsHandler which JAX-RS path template (ie. "/users/{id}") matched the current request.
+ * <p>
+ * The template is built from the @Path annotations of the resource class and method once per resource method.
+ */
+@Singleton
+@Provider
+@Priority(RouteTemplateFilter.PRIORITY)
+public class RouteTemplateFilter implements ContainerRequestFilter
+{
+    // run before authentication, rejected requests should still be attributed to their route
+    static final int PRIORITY = 100;
+
+    private static final Pattern TEMPLATE_PARAMETER_REGEX = Pattern.compile("\\{\\s*(\\w[\\w.-]*)\\s*:[^}]*}");
+
+    private static final Pattern DUPLICATE_SLASHES = Pattern.compile("/{2,}");
+
+    private final Map<Method, String> methodToTemplate = new ConcurrentHashMap<>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+
+    static String getTemplate(Class<?> resourceClass, Method resourceMethod)
+    {
+        val builder = new StringBuilder("/");
+        if (resourceClass != null)
+        {
+            val classPath = resourceClass.getAnnotation(Path.class);
+            if (classPath != null)
+            {
+                builder.append(classPath.value());
+            }
+        }
+
+        val methodPath = resourceMethod.getAnnotation(Path.class);
+        if (methodPath != null)
+        {
+            builder.append('/').append(methodPath.value());
+        }
+
+        // "{id: [0-9]+}" -> "{id}", collapse and strip slashes
+        val template = DUPLICATE_SLASHES.matcher(TEMPLATE_PARAMETER_REGEX.matcher(builder).replaceAll("{$1}")).replaceAll("/");
+        return (template.length() > 1 && template.endsWith("/"))
+                ? template.substring(0, template.length() - 1)
+                : template;
+    }
+
+
+    @Override
+    public void filter(ContainerRequestContext requestContext)
+    {
+        val resourceMethod = resourceInfo.getResourceMethod();
+        val servletRequestContext = ServletRequestContext.current();
+        if (resourceMethod == null || servletRequestContext == null)
+        {
+            return;
+        }
+
+        val template = methodToTemplate.computeIfAbsent(resourceMethod, method -> getTemplate(resourceInfo.getResourceClass(), method));
+
+        MetricsHandler.setRoute(servletRequestContext.getExchange(), template);
+    }
+}
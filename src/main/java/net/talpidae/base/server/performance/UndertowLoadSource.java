@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.server.performance;
+
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import net.talpidae.base.insect.LoadSource;
+
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Tracks requests in-flight and requests waiting for a worker thread, reported to the queen by SyncSlave.
+ * <p>
+ * Requests arriving on an IO thread are dispatched to the worker pool here (instead of by the wrapped handler),
+ * which allows to count how many of them are still waiting for a worker thread.
+ */
+@Singleton
+public class UndertowLoadSource implements LoadSource, HandlerWrapper
+{
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+
+    @Override
+    public int getInFlightRequests()
+    {
+        return inFlightRequests.get();
+    }
+
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+
+    @Override
+    public HttpHandler wrap(HttpHandler next)
+    {
+        return exchange ->
+        {
+            if (exchange.isComplete())
+            {
+                next.handleRequest(exchange);
+                return;
+            }
+
+            inFlightRequests.incrementAndGet();
+            exchange.addExchangeCompleteListener((completedExchange, nextListener) ->
+            {
+                inFlightRequests.decrementAndGet();
+                nextListener.proceed();
+            });
+
+            if (exchange.isInIoThread())
+            {
+                queueDepth.incrementAndGet();
+                exchange.dispatch(dispatchedExchange ->
+                {
+                    queueDepth.decrementAndGet();
+                    next.handleRequest(dispatchedExchange);
+                });
+            }
+            else
+            {
+                next.handleRequest(exchange);
+            }
+        };
+    }
+}
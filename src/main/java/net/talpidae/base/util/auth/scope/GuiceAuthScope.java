@@ -53,6 +53,22 @@ public class GuiceAuthScope implements SeedableScope
     }
 
 
+    /**
+     * Get the AuthScope the current thread is in (or null).
+     */
+    public AuthScope getCurrent()
+    {
+        val scope = scopes.get();
+        if (scope.isEmpty())
+        {
+            scopes.remove();
+            return null;
+        }
+
+        return scope.peek();
+    }
+
+
     public <T> void seed(Key<T> key, T value)
     {
         val scope = scopes.get().peek();
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.util.network;
+
+import com.google.common.net.InetAddresses;
+
+import net.talpidae.base.util.thread.NamedThreadFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+
+/**
+ * Resolves host names on background threads and caches the results for a limited time.
+ * <p>
+ * Callers never block: lookup() either returns a cached result or schedules resolution and
+ * notifies the specified listener once it is done. Expired entries are still returned while
+ * being refreshed in the background. Entries that weren't looked up for another TTL after expiry
+ * are evicted periodically.
+ */
+@Slf4j
+public class CachingAddressResolver
+{
+    private static final int MAXIMUM_PENDING_LISTENERS = 64;
+
+    private static final int RESOLVER_THREAD_COUNT = 2;
+
+    private static final long RESOLVER_THREAD_KEEP_ALIVE_SECONDS = 5L;
+
+    private static final long MINIMUM_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Map<String, Resolution> hostToResolution = new ConcurrentHashMap<>();
+
+    private final Map<String, List<PendingListener<?>>> hostToPendingListeners = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final HostLookup hostLookup;
+
+    private final long ttlNanos;
+
+    private final long negativeTtlNanos;
+
+    private final long sweepIntervalNanos;
+
+    private final AtomicLong nextSweepNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong resolveCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong droppedListenerCount = new AtomicLong();
+
+    private final AtomicLong totalResolveNanos = new AtomicLong();
+
+    private final AtomicLong maximumResolveNanos = new AtomicLong();
+
+
+    public CachingAddressResolver(long ttlMillies)
+    {
+        this(ttlMillies, InetAddress::getByName);
+    }
+
+
+    CachingAddressResolver(long ttlMillies, HostLookup hostLookup)
+    {
+        this.hostLookup = hostLookup;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillies);
+        this.negativeTtlNanos = Math.min(ttlNanos, TimeUnit.SECONDS.toNanos(10));
+        this.sweepIntervalNanos = Math.max(ttlNanos, MINIMUM_SWEEP_INTERVAL_NANOS);
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + sweepIntervalNanos);
+
+        executor = new ThreadPoolExecutor(RESOLVER_THREAD_COUNT, RESOLVER_THREAD_COUNT,
+                RESOLVER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory(CachingAddressResolver.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Lookup host without blocking.
+     *
+     * @param host     Host name or address literal to resolve.
+     * @param context  Passed to listener on completion (avoids capturing lambdas on the fast path).
+     * @param listener Called from a resolver thread once resolution finished, if the result wasn't cached.
+     * @return The cached resolution, null if resolution is in progress (listener will be notified).
+     */
+    public <T> Resolution lookup(String host, T context, Consumer<T> listener)
+    {
+        val resolution = hostToResolution.get(host);
+        if (resolution != null)
+        {
+            hitCount.incrementAndGet();
+            val now = System.nanoTime();
+            if (resolution.expiresNanos - now < 0)
+            {
+                if (resolution.isLiteral)
+                {
+                    // address literals never need to be resolved, just keep them alive
+                    hostToResolution.put(host, new Resolution(resolution.address, now + ttlNanos, true));
+                }
+                else
+                {
+                    // serve stale result while refreshing
+                    scheduleResolve(host, null);
+                }
+            }
+
+            return resolution;
+        }
+
+        if (InetAddresses.isInetAddress(host))
+        {
+            // address literals never block
+            val literalResolution = new Resolution(toHostAddress(host, InetAddresses.forString(host)), System.nanoTime() + ttlNanos, true);
+            putResolution(host, literalResolution);
+            hitCount.incrementAndGet();
+
+            return literalResolution;
+        }
+
+        missCount.incrementAndGet();
+        scheduleResolve(host, new PendingListener<>(context, listener));
+
+        return null;
+    }
+
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * Number of failed resolution attempts (the affected hosts are cached as unresolved).
+     */
+    public long getFailureCount()
+    {
+        return failureCount.get();
+    }
+
+
+    /**
+     * Number of listeners that were not notified because too many lookups for the same host were pending.
+     */
+    public long getDroppedListenerCount()
+    {
+        return droppedListenerCount.get();
+    }
+
+
+    /**
+     * Number of cached entries (including expired ones that were not evicted yet).
+     */
+    public int size()
+    {
+        return hostToResolution.size();
+    }
+
+
+    public long getAverageResolveNanos()
+    {
+        val count = resolveCount.get();
+        return (count > 0) ? totalResolveNanos.get() / count : 0L;
+    }
+
+
+    public long getMaximumResolveNanos()
+    {
+        return maximumResolveNanos.get();
+    }
+
+
+    private static InetAddress toHostAddress(String host, InetAddress address)
+    {
+        try
+        {
+            // keep the original host string, avoids reverse lookups later on
+            return InetAddress.getByAddress(host, address.getAddress());
+        }
+        catch (UnknownHostException e)
+        {
+            // can't happen, address length is always valid here
+            return address;
+        }
+    }
+
+
+    private void scheduleResolve(String host, PendingListener<?> pendingListener)
+    {
+        val isNew = new boolean[1];
+        hostToPendingListeners.compute(host, (key, listeners) ->
+        {
+            if (listeners == null)
+            {
+                listeners = new ArrayList<>();
+                isNew[0] = true;
+            }
+
+            if (pendingListener != null)
+            {
+                if (listeners.size() < MAXIMUM_PENDING_LISTENERS)
+                {
+                    listeners.add(pendingListener);
+                }
+                else
+                {
+                    droppedListenerCount.incrementAndGet();
+                    log.warn("too many pending lookups for host {}, listener dropped", key);
+                }
+            }
+
+            return listeners;
+        });
+
+        if (isNew[0])
+        {
+            executor.execute(() -> resolve(host));
+        }
+    }
+
+
+    private void resolve(String host)
+    {
+        val beginNanos = System.nanoTime();
+
+        InetAddress address;
+        try
+        {
+            address = toHostAddress(host, hostLookup.getByName(host));
+        }
+        catch (UnknownHostException | SecurityException e)
+        {
+            log.warn("failed to resolve host {}: {}", host, e.getMessage());
+            failureCount.incrementAndGet();
+            address = null;
+        }
+
+        val endNanos = System.nanoTime();
+        val resolveNanos = endNanos - beginNanos;
+        resolveCount.incrementAndGet();
+        totalResolveNanos.addAndGet(resolveNanos);
+        maximumResolveNanos.accumulateAndGet(resolveNanos, Math::max);
+
+        putResolution(host, new Resolution(address, endNanos + ((address != null) ? ttlNanos : negativeTtlNanos), false));
+
+        val listeners = hostToPendingListeners.remove(host);
+        if (listeners != null)
+        {
+            for (val listener : listeners)
+            {
+                try
+                {
+                    listener.complete();
+                }
+                catch (Throwable t)
+                {
+                    log.error("resolve listener for host {} failed", host, t);
+                }
+            }
+        }
+    }
+
+
+    private void putResolution(String host, Resolution resolution)
+    {
+        hostToResolution.put(host, resolution);
+
+        val now = System.nanoTime();
+        val sweepNanos = nextSweepNanos.get();
+        if (now - sweepNanos >= 0 && nextSweepNanos.compareAndSet(sweepNanos, now + sweepIntervalNanos))
+        {
+            sweep(now);
+        }
+    }
+
+
+    /**
+     * Evict entries that expired more than a TTL ago, they weren't looked up since (or they would have been refreshed).
+     */
+    private void sweep(long now)
+    {
+        val sizeBefore = hostToResolution.size();
+        hostToResolution.values().removeIf(resolution -> now - resolution.expiresNanos - ttlNanos > 0);
+
+        val evictedCount = sizeBefore - hostToResolution.size();
+        if (evictedCount > 0)
+        {
+            log.debug("evicted {} expired host resolutions", evictedCount);
+        }
+    }
+
+
+    /**
+     * Blocking name resolution, InetAddress.getByName() unless replaced (ie. by tests).
+     */
+    @FunctionalInterface
+    interface HostLookup
+    {
+        InetAddress getByName(String host) throws UnknownHostException;
+    }
+
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Resolution
+    {
+        /**
+         * Resolved address, null if the host could not be resolved.
+         */
+        @Getter
+        private final InetAddress address;
+
+        private final long expiresNanos;
+
+        private final boolean isLiteral;
+
+
+        /**
+         * Create a socket address for the specified port (unresolved if resolution failed).
+         */
+        public InetSocketAddress toSocketAddress(String host, int port)
+        {
+            return (address != null) ? new InetSocketAddress(address, port) : InetSocketAddress.createUnresolved(host, port);
+        }
+    }
+
+
+    @RequiredArgsConstructor
+    private static final class PendingListener<T>
+    {
+        private final T context;
+
+        private final Consumer<T> listener;
+
+
+        private void complete()
+        {
+            listener.accept(context);
+        }
+    }
+}
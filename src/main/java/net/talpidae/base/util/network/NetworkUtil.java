@@ -140,6 +140,58 @@ public class NetworkUtil
     }
 
 
+    /**
+     * Get the number of leading bits two addresses of the same family have in common (0 for different families).
+     */
+    public static int getCommonPrefixLength(InetAddress a, InetAddress b)
+    {
+        val aBytes = a.getAddress();
+        val bBytes = b.getAddress();
+        if (aBytes.length != bBytes.length)
+        {
+            return 0;
+        }
+
+        for (int i = 0; i < aBytes.length; ++i)
+        {
+            val difference = (aBytes[i] ^ bBytes[i]) & 0xFF;
+            if (difference != 0)
+            {
+                return i * 8 + Integer.numberOfLeadingZeros(difference) - 24;
+            }
+        }
+
+        return aBytes.length * 8;
+    }
+
+
+    /**
+     * Get the proximity of a remote address to this node, that is the longest prefix it shares with one of the
+     * local interface addresses, but at most the interface's network prefix length. Thus all addresses in a local
+     * network are equally close (loopback and local addresses are the closest).
+     */
+    public int getProximity(InetAddress address)
+    {
+        if (isLocalAddress(address))
+        {
+            return Integer.MAX_VALUE;
+        }
+
+        int proximity = 0;
+        for (val interfaceAddress : getInterfaceAddresses())
+        {
+            val ifaceAddress = interfaceAddress.getAddress();
+            if (!ifaceAddress.isLoopbackAddress())
+            {
+                val commonPrefixLength = Math.min(getCommonPrefixLength(ifaceAddress, address), interfaceAddress.getNetworkPrefixLength());
+                proximity = Math.max(proximity, commonPrefixLength);
+            }
+        }
+
+        return proximity;
+    }
+
+
     /**
      * Get big-endian network prefix of a certain length from address. The remaining bits are zero.
      */
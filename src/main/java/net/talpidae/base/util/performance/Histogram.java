@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.util.performance;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+import lombok.val;
+
+
+/**
+ * Mergeable log-linear histogram of positive values with constant memory footprint.
+ * <p>
+ * Each power of two is split into SUB_BUCKET_COUNT linear buckets, thus percentiles are accurate within 1/16 (6.25%)
+ * of the value for everything between 2^MIN_EXPONENT (~1e-6) and 2^(MAX_EXPONENT+1) (~7e10). Smaller values
+ * (including zero and negative values) share the first bucket, larger ones the last.
+ * <p>
+ * Not thread-safe.
+ */
+public class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MIN_EXPONENT = -20;
+
+    private static final int MAX_EXPONENT = 35;
+
+    private static final int BUCKET_COUNT = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+
+    @Getter
+    private long count;
+
+    @Getter
+    private double sum;
+
+    @Getter
+    private double min = Double.NaN;
+
+    @Getter
+    private double max = Double.NaN;
+
+
+    private static int getBucketIndex(double value)
+    {
+        if (!(value > 0.0))
+        {
+            // zero, negative or NaN
+            return 0;
+        }
+
+        val exponent = Math.getExponent(value);
+        if (exponent < MIN_EXPONENT)
+        {
+            return 0;
+        }
+        else if (exponent > MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        // highest mantissa bits select the linear sub-bucket
+        val subBucket = (int) (Double.doubleToRawLongBits(value) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    /**
+     * Get the value in the middle of the bucket with the specified index.
+     */
+    private static double getBucketValue(int index)
+    {
+        if (index == 0)
+        {
+            return 0.0;
+        }
+
+        val exponent = (index - 1) / SUB_BUCKET_COUNT + MIN_EXPONENT;
+        val subBucket = (index - 1) % SUB_BUCKET_COUNT;
+
+        return Math.scalb(1.0 + (subBucket + 0.5) / SUB_BUCKET_COUNT, exponent);
+    }
+
+
+    public void record(double value)
+    {
+        ++counts[getBucketIndex(value)];
+        ++count;
+        sum += value;
+
+        if (!(value >= min))
+        {
+            min = value;
+        }
+        if (!(value <= max))
+        {
+            max = value;
+        }
+    }
+
+
+    /**
+     * Add all values recorded by other to this histogram.
+     */
+    public void merge(Histogram other)
+    {
+        if (other.count == 0)
+        {
+            return;
+        }
+
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            counts[i] += other.counts[i];
+        }
+
+        count += other.count;
+        sum += other.sum;
+        min = (count == other.count) ? other.min : Math.min(min, other.min);
+        max = (count == other.count) ? other.max : Math.max(max, other.max);
+    }
+
+
+    public void reset()
+    {
+        Arrays.fill(counts, 0L);
+        count = 0L;
+        sum = 0.0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+
+    /**
+     * Get the (approximate) value below which the specified percentage of recorded values fall (NaN if empty).
+     */
+    public double getValueAtPercentile(double percentile)
+    {
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
+
+        val rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                // the exact extremes are known
+                return Math.max(min, Math.min(max, getBucketValue(i)));
+            }
+        }
+
+        return max;
+    }
+}
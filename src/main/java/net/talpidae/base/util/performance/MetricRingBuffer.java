@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017  Jonas Zeiger <jonas.zeiger@talpidae.net>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.talpidae.base.util.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.val;
+
+
+/**
+ * Bounded, lock-free multi-producer/single-consumer ring of preallocated primitive metric slots
+ * (path ID, timestamp, value).
+ * <p>
+ * Each slot carries a sequence number that tells producers and the consumer whose turn it is (see Dmitry Vyukov's
+ * bounded MPMC queue). Producers never block, offer() fails if the ring is full.
+ */
+public class MetricRingBuffer
+{
+    private final int mask;
+
+    private final int[] pathIds;
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    private final AtomicLongArray sequences;
+
+    // next position to write to (producers)
+    private final AtomicLong tail = new AtomicLong();
+
+    // next position to read from (only accessed by the consumer)
+    private long head = 0L;
+
+
+    /**
+     * @param capacity Number of slots, rounded up to the next power of two.
+     */
+    public MetricRingBuffer(int capacity)
+    {
+        val size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        mask = size - 1;
+        pathIds = new int[size];
+        timestamps = new long[size];
+        values = new double[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+
+    /**
+     * Add a metric, may be called from any thread.
+     *
+     * @return false if the ring is full (the metric was dropped), true otherwise
+     */
+    public boolean offer(int pathId, long timestamp, double value)
+    {
+        long position = tail.get();
+        while (true)
+        {
+            val index = (int) position & mask;
+            val difference = sequences.get(index) - position;
+            if (difference == 0L)
+            {
+                // slot is free, try to claim it
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    pathIds[index] = pathId;
+                    timestamps[index] = timestamp;
+                    values[index] = value;
+
+                    // publish to consumer
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+
+                position = tail.get();
+            }
+            else if (difference < 0L)
+            {
+                // consumer didn't free this slot yet
+                return false;
+            }
+            else
+            {
+                // another producer claimed this slot
+                position = tail.get();
+            }
+        }
+    }
+
+
+    /**
+     * Pass up to maximumCount available metrics to consumer, must only be called from one thread at a time.
+     *
+     * @return number of metrics consumed
+     */
+    public int drain(Consumer consumer, int maximumCount)
+    {
+        int count = 0;
+        while (count < maximumCount)
+        {
+            val position = head;
+            val index = (int) position & mask;
+            if (sequences.get(index) != position + 1)
+            {
+                // empty or slot claimed but not yet published
+                break;
+            }
+
+            consumer.accept(pathIds[index], timestamps[index], values[index]);
+
+            // hand slot back to producers (one lap ahead)
+            sequences.lazySet(index, position + mask + 1);
+            head = position + 1;
+            ++count;
+        }
+
+        return count;
+    }
+
+
+    @FunctionalInterface
+    public interface Consumer
+    {
+        void accept(int pathId, long timestamp, double value);
+    }
+}
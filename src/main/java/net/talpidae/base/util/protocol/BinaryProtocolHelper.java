@@ -28,6 +28,8 @@ public class BinaryProtocolHelper
 {
     private static final ThreadLocal<Codec> codec = ThreadLocal.withInitial(Codec::new);
 
+    private static final ThreadLocal<StringCache> stringCache = ThreadLocal.withInitial(StringCache::new);
+
     /**
      * Decode and retrieve a UTF-8 encoded char array from the specified offset assuming a maximum size of length bytes.
      */
@@ -56,6 +58,81 @@ public class BinaryProtocolHelper
         }
     }
 
+    /**
+     * Like extractString(), but return an already known (interned) String instance if the encoded bytes match.
+     * <p>
+     * Known values are found by comparing the encoded bytes in-place, a String is only decoded on cache miss.
+     */
+    public static String extractCachedString(ByteBuffer buffer, int offset, int length) throws CharacterCodingException
+    {
+        if (length == 0)
+        {
+            return "";
+        }
+
+        return stringCache.get().lookup(buffer, offset, length);
+    }
+
+
+    /**
+     * Put value at the buffer's position using the unsigned LEB128 variable length encoding (7 bits per byte).
+     */
+    public static void putVarLong(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7FL) != 0L)
+        {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte) value);
+    }
+
+
+    /**
+     * Read an unsigned LEB128 encoded value at the buffer's position (see putVarLong()).
+     */
+    public static long getVarLong(ByteBuffer buffer) throws IndexOutOfBoundsException
+    {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            val b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IndexOutOfBoundsException("malformed variable length value");
+    }
+
+
+    /**
+     * Get the number of bytes needed to encode value using putVarLong().
+     */
+    public static int getVarLongSize(long value)
+    {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+
+    /**
+     * Map signed to unsigned values so that small negative values have short variable length encodings.
+     */
+    public static long zigZagEncode(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    public static long zigZagDecode(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
     /**
      * Put UTF-8 char array at the specified offset (DirectByteBuffer safe) and return size of put data in bytes.
      *
@@ -93,6 +170,90 @@ public class BinaryProtocolHelper
     }
 
 
+    /**
+     * Small open addressing cache of decoded strings per thread, keyed by their encoded bytes.
+     */
+    private static final class StringCache
+    {
+        private static final int CAPACITY = 1024;  // power of two
+
+        private static final int MAXIMUM_PROBE_COUNT = 8;
+
+        private final int[] hashes = new int[CAPACITY];
+
+        private final byte[][] keys = new byte[CAPACITY][];
+
+        private final String[] values = new String[CAPACITY];
+
+
+        private static int hash(ByteBuffer buffer, int offset, int length)
+        {
+            // FNV-1a
+            int h = 0x811C9DC5;
+            for (int i = offset, end = offset + length; i < end; ++i)
+            {
+                h = (h ^ (buffer.get(i) & 0xFF)) * 0x01000193;
+            }
+
+            return h;
+        }
+
+
+        private static boolean isEqual(byte[] key, ByteBuffer buffer, int offset, int length)
+        {
+            if (key.length != length)
+                return false;
+
+            for (int i = 0; i < length; ++i)
+            {
+                if (key[i] != buffer.get(offset + i))
+                    return false;
+            }
+
+            return true;
+        }
+
+
+        private String lookup(ByteBuffer buffer, int offset, int length) throws CharacterCodingException
+        {
+            val hash = hash(buffer, offset, length);
+            val home = hash & (CAPACITY - 1);
+
+            int free = -1;
+            for (int i = 0; i < MAXIMUM_PROBE_COUNT; ++i)
+            {
+                val slot = (home + i) & (CAPACITY - 1);
+                val key = keys[slot];
+                if (key == null)
+                {
+                    free = slot;
+                    break;
+                }
+
+                if (hashes[slot] == hash && isEqual(key, buffer, offset, length))
+                {
+                    return values[slot];
+                }
+            }
+
+            // miss, decode and remember (evict the home slot if the probe sequence is exhausted)
+            val value = extractString(buffer, offset, length).intern();
+            val slot = (free >= 0) ? free : home;
+            val key = new byte[length];
+            for (int i = 0; i < length; ++i)
+            {
+                key[i] = buffer.get(offset + i);
+            }
+
+            hashes[slot] = hash;
+            keys[slot] = key;
+            values[slot] = value;
+
+            return value;
+        }
+    }
+
+
     /**
      * Use lazy initialization. Some thread may only ever do reading or writing.
      */
@@ -0,0 +1,112 @@
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.ServiceState;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class InstanceHealthTrackerTest
+{
+    private final InetSocketAddress ejectedAddress = InetSocketAddress.createUnresolved("10.0.0.1", 8080);
+
+    private final InetSocketAddress healthyAddress = InetSocketAddress.createUnresolved("10.0.0.2", 8080);
+
+    private final List<ServiceState> alternatives = Arrays.asList(
+            InsectState.builder().socketAddress(ejectedAddress).build(),
+            InsectState.builder().socketAddress(healthyAddress).build());
+
+
+    private static InstanceHealthTracker ejectedTracker(InetSocketAddress address)
+    {
+        val tracker = new InstanceHealthTracker(Optional.empty());
+        for (int i = 0; i < 5; ++i)
+        {
+            tracker.recordTransportFailure(address, System.nanoTime());
+        }
+
+        assertEquals(1L, tracker.getEjectionCount());
+        return tracker;
+    }
+
+
+    @Test
+    public void testEjectedInstanceIsFiltered()
+    {
+        val tracker = ejectedTracker(ejectedAddress);
+
+        val available = tracker.filterAvailable(alternatives);
+        assertEquals(1, available.size());
+        assertEquals(healthyAddress, available.get(0).getSocketAddress());
+    }
+
+
+    @Test
+    public void testFilteringDoesNotClaimProbe() throws InterruptedException
+    {
+        val tracker = ejectedTracker(ejectedAddress);
+
+        // wait for the minimum ejection duration to pass
+        Thread.sleep(1100L);
+
+        // looking at the candidates repeatedly must not use up the probe
+        for (int i = 0; i < 3; ++i)
+        {
+            assertEquals(2, tracker.filterAvailable(alternatives).size());
+        }
+
+        assertTrue(tracker.tryAcquire(healthyAddress));
+        assertTrue(tracker.tryAcquire(ejectedAddress));
+
+        // exactly one probe
+        assertFalse(tracker.tryAcquire(ejectedAddress));
+        assertEquals(1, tracker.filterAvailable(alternatives).size());
+    }
+
+
+    @Test
+    public void testFailuresInFlightDoNotEjectAgain()
+    {
+        val tracker = ejectedTracker(ejectedAddress);
+
+        // requests that were sent before the ejection keep failing
+        for (int i = 0; i < 10; ++i)
+        {
+            tracker.recordTransportFailure(ejectedAddress, System.nanoTime());
+        }
+
+        assertEquals(1L, tracker.getEjectionCount());
+    }
+
+
+    @Test
+    public void testFailingProbeEjectsAgain() throws InterruptedException
+    {
+        val tracker = ejectedTracker(ejectedAddress);
+        val inFlightStartNanos = System.nanoTime();
+
+        Thread.sleep(1100L);
+
+        assertTrue(tracker.tryAcquire(ejectedAddress));
+        val probeStartNanos = System.nanoTime();
+
+        // a late failure of an earlier request isn't the probe
+        tracker.recordTransportFailure(ejectedAddress, inFlightStartNanos);
+        assertEquals(1L, tracker.getEjectionCount());
+
+        tracker.recordTransportFailure(ejectedAddress, probeStartNanos);
+        assertEquals(2L, tracker.getEjectionCount());
+        assertEquals(1, tracker.filterAvailable(alternatives).size());
+    }
+}
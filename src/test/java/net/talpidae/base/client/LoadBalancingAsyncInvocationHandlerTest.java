@@ -0,0 +1,135 @@
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.state.ServiceState;
+import net.talpidae.base.util.auth.scope.AuthScope;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import lombok.val;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class LoadBalancingAsyncInvocationHandlerTest
+{
+    private static final String EXCHANGE_THREAD_NAME = "test-exchange";
+
+    private final GuiceAuthScope guiceAuthScope = new GuiceAuthScope();
+
+
+    private TestService createProxy()
+    {
+        // complete discovery on a thread of its own, like the insect exchange does
+        val slave = new StaticSlave(InetSocketAddress.createUnresolved("127.0.0.1", 8080))
+        {
+            @Override
+            public CompletableFuture<List<? extends ServiceState>> findServicesAsync(String route, long timeoutMillies)
+            {
+                val future = new CompletableFuture<List<? extends ServiceState>>();
+                new Thread(() -> future.complete(findServices(route, timeoutMillies)), EXCHANGE_THREAD_NAME).start();
+
+                return future;
+            }
+        };
+
+        val handler = new LoadBalancingAsyncInvocationHandler(slave, "test", new TestServiceImpl(), new ClientExecutor(), guiceAuthScope);
+
+        return (TestService) Proxy.newProxyInstance(TestService.class.getClassLoader(), new Class<?>[]{TestService.class}, handler);
+    }
+
+
+    @Test
+    public void testCompletionStageRunsOnClientExecutorWithCallerScope() throws Exception
+    {
+        val proxy = createProxy();
+        val authScope = new AuthScope();
+
+        guiceAuthScope.enter(authScope);
+        final Invocation invocation;
+        try
+        {
+            invocation = proxy.get().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            guiceAuthScope.exit();
+        }
+
+        assertNotEquals(EXCHANGE_THREAD_NAME, invocation.threadName);
+        assertTrue(invocation.threadName.startsWith("Client-"));
+        assertSame(authScope, invocation.authScope);
+    }
+
+
+    @Test
+    public void testSingleRunsOnClientExecutorWithCallerScope()
+    {
+        val proxy = createProxy();
+        val authScope = new AuthScope();
+
+        guiceAuthScope.enter(authScope);
+        final Single<Invocation> single;
+        try
+        {
+            single = proxy.getSingle();
+        }
+        finally
+        {
+            guiceAuthScope.exit();
+        }
+
+        val invocation = single.blockingGet();
+        assertTrue(invocation.threadName.startsWith("Client-"));
+        assertSame(authScope, invocation.authScope);
+    }
+
+
+    public interface TestService
+    {
+        CompletionStage<Invocation> get();
+
+        Single<Invocation> getSingle();
+    }
+
+
+    private static final class Invocation
+    {
+        private final String threadName = Thread.currentThread().getName();
+
+        private final AuthScope authScope;
+
+
+        private Invocation(AuthScope authScope)
+        {
+            this.authScope = authScope;
+        }
+    }
+
+
+    private final class TestServiceImpl implements TestService
+    {
+        @Override
+        public CompletionStage<Invocation> get()
+        {
+            return CompletableFuture.completedFuture(new Invocation(guiceAuthScope.getCurrent()));
+        }
+
+
+        @Override
+        public Single<Invocation> getSingle()
+        {
+            return Single.just(new Invocation(guiceAuthScope.getCurrent()));
+        }
+    }
+}
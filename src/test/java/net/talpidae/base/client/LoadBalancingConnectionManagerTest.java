@@ -0,0 +1,133 @@
+package net.talpidae.base.client;
+
+import com.google.common.eventbus.EventBus;
+import com.sun.net.httpserver.HttpServer;
+
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LoadBalancingConnectionManagerTest
+{
+    private final Map<String, Double> forwarded = new HashMap<>();
+
+    private final LoadBalancingConnectionManager connectionManager = new LoadBalancingConnectionManager(new TestClientEngineConfig(), Optional.of((path, timestampMillies, value) -> forwarded.put(path, value)), new GeneralScheduler(new EventBus()));
+
+    private HttpServer server;
+
+
+    @After
+    public void tearDown()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+        }
+
+        connectionManager.shutdown();
+    }
+
+
+    private InetSocketAddress startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange ->
+        {
+            val body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getAddress().getPort());
+    }
+
+
+    /**
+     * Perform a request, the connection is kept alive and returned to the pool.
+     */
+    private void get(InetSocketAddress address) throws IOException
+    {
+        val httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .build();
+
+        try (val response = httpClient.execute(new HttpGet("http://" + address.getHostString() + ":" + address.getPort() + "/")))
+        {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+
+    @Test
+    public void testPoolSizing()
+    {
+        val config = new TestClientEngineConfig();
+
+        assertEquals(config.getConnectionPoolSize(), connectionManager.getMaxTotal());
+        assertEquals(config.getMaxPooledPerRoute(), connectionManager.getDefaultMaxPerRoute());
+    }
+
+
+    @Test
+    public void testCloseAvailableOfRemovedInstance() throws IOException
+    {
+        val address = startServer();
+        get(address);
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+
+        // another instance on the same host
+        connectionManager.closeAvailable(new InetSocketAddress(address.getAddress(), address.getPort() + 1));
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+
+        connectionManager.closeAvailable(address);
+        assertEquals(0, connectionManager.getTotalStats().getAvailable());
+    }
+
+
+    @Test
+    public void testIsSameHostWithIPv6Literals() throws IOException
+    {
+        val address = InetAddress.getByName("::1");
+
+        assertTrue(LoadBalancingConnectionManager.isSameHost("0:0:0:0:0:0:0:1", address, "[::1]"));
+        assertTrue(LoadBalancingConnectionManager.isSameHost("0:0:0:0:0:0:0:1", address, "[0:0:0:0:0:0:0:1]"));
+        assertFalse(LoadBalancingConnectionManager.isSameHost("0:0:0:0:0:0:0:1", address, "[::2]"));
+
+        assertTrue(LoadBalancingConnectionManager.isSameHost("127.0.0.1", InetAddress.getByName("127.0.0.1"), "127.0.0.1"));
+        assertFalse(LoadBalancingConnectionManager.isSameHost("127.0.0.1", InetAddress.getByName("127.0.0.1"), "some-host"));
+    }
+
+
+    @Test
+    public void testStatsAreForwarded() throws IOException
+    {
+        get(startServer());
+
+        connectionManager.maintain();
+
+        assertEquals(0.0, forwarded.get("/client/pool/leased"), 0.0);
+        assertEquals(0.0, forwarded.get("/client/pool/pending"), 0.0);
+        assertEquals(1.0, forwarded.get("/client/pool/available"), 0.0);
+    }
+}
@@ -0,0 +1,219 @@
+package net.talpidae.base.client;
+
+import com.google.common.eventbus.EventBus;
+import com.sun.net.httpserver.HttpServer;
+
+import net.talpidae.base.insect.ServiceSelector;
+import net.talpidae.base.insect.UniformServiceSelector;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.apache.http.impl.client.HttpClients;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Optional;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class LoadBalancingHttpEngineTest
+{
+    private final OutstandingRequestTracker outstandingRequestTracker = new OutstandingRequestTracker();
+
+    private final InstanceHealthTracker instanceHealthTracker = new InstanceHealthTracker(Optional.empty());
+
+    private LoadBalancingConnectionManager connectionManager;
+
+    private HttpServer server;
+
+
+    private static InetSocketAddress getClosedAddress() throws IOException
+    {
+        try (val socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        connectionManager = new LoadBalancingConnectionManager(new TestClientEngineConfig(), Optional.empty(), new GeneralScheduler(new EventBus()));
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+        }
+
+        connectionManager.shutdown();
+    }
+
+
+    private HttpServer startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange ->
+        {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        return server;
+    }
+
+
+    private Client createClient(InetSocketAddress address)
+    {
+        return createClient(new UniformServiceSelector(), address);
+    }
+
+
+    private Client createClient(ServiceSelector serviceSelector, InetSocketAddress... addresses)
+    {
+        val requestFilter = new LoadBalancingRequestFilter(new StaticSlave(addresses), serviceSelector, outstandingRequestTracker, instanceHealthTracker, connectionManager);
+        val httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .build();
+
+        return new ResteasyClientBuilder()
+                .httpEngine(new LoadBalancingHttpEngine(httpClient, true))
+                .register(requestFilter)
+                .register(new LoadBalancingResponseFilter())
+                .build();
+    }
+
+
+    private void get(Client client)
+    {
+        client.target("http://127.0.0.1:0/test")
+                .property(LoadBalancingRequestFilter.ROUTE_PROPERTY_NAME, "test")
+                .request()
+                .get()
+                .close();
+    }
+
+
+    @Test
+    public void testFailureWithoutResponseIsCompleted() throws IOException
+    {
+        val address = getClosedAddress();
+        val client = createClient(address);
+        try
+        {
+            // enough consecutive failures to eject the instance
+            for (int i = 0; i < 5; ++i)
+            {
+                try
+                {
+                    get(client);
+                    fail("connection should have been refused");
+                }
+                catch (ProcessingException e)
+                {
+                    // expected
+                }
+            }
+
+            assertEquals(0L, outstandingRequestTracker.getOutstanding(address));
+            assertEquals(1L, instanceHealthTracker.getEjectionCount());
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testResponseIsCompletedOnce() throws IOException
+    {
+        startServer();
+
+        val address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getAddress().getPort());
+        val client = createClient(address);
+        try
+        {
+            for (int i = 0; i < 3; ++i)
+            {
+                get(client);
+            }
+
+            assertEquals(0L, outstandingRequestTracker.getOutstanding(address));
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testAbortedHedgeIsNoFailure() throws Throwable
+    {
+        val method = HedgedService.class.getMethod("get");
+        val requestHedger = new RequestHedger(new TestClientEngineConfig(), new ClientExecutor(), new GeneralScheduler(new EventBus()), new GuiceAuthScope());
+
+        // accepts connections (backlog) but never answers
+        try (val silentSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress()))
+        {
+            val silentAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), silentSocket.getLocalPort());
+            val address = new InetSocketAddress(InetAddress.getLoopbackAddress(), startServer().getAddress().getPort());
+
+            // the first attempt always goes to the silent instance, the hedge excludes it
+            val client = createClient(alternatives -> alternatives.get(0), silentAddress, address);
+            try
+            {
+                // initialize the client, otherwise the first hedge may start before the first attempt has selected
+                client.target("http://" + address.getHostString() + ":" + address.getPort() + "/test").request().get().close();
+
+                for (int i = 0; i < 6; ++i)
+                {
+                    requestHedger.call(method, method.getAnnotation(Hedged.class), () ->
+                    {
+                        get(client);
+                        return null;
+                    });
+                }
+
+                // the first attempt completes on the calling thread, after its request has been aborted
+                assertEquals(6L, requestHedger.getHedgeCount());
+                assertEquals(0L, outstandingRequestTracker.getOutstanding(silentAddress));
+                assertEquals(0L, instanceHealthTracker.getEjectionCount());
+            }
+            finally
+            {
+                client.close();
+            }
+        }
+    }
+
+
+    public interface HedgedService
+    {
+        @GET
+        @Hedged(defaultDelayMillies = 50, minimumDelayMillies = 50)
+        void get();
+    }
+}
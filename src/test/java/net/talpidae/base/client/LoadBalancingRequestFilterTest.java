@@ -0,0 +1,118 @@
+package net.talpidae.base.client;
+
+import com.google.common.eventbus.EventBus;
+
+import net.talpidae.base.insect.RouteListener;
+import net.talpidae.base.insect.UniformServiceSelector;
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.Response;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class LoadBalancingRequestFilterTest
+{
+    @Test
+    public void testReplaceHostAndPortKeepsPathQueryAndFragment()
+    {
+        val rewritten = LoadBalancingRequestFilter.replaceHostAndPort(URI.create("http://127.0.0.1:0/a%20b/c?x=1&y=%26#frag"), "10.0.0.1", 8080);
+
+        assertEquals(URI.create("http://10.0.0.1:8080/a%20b/c?x=1&y=%26#frag"), rewritten);
+    }
+
+
+    @Test
+    public void testReplaceHostAndPortWithIPv6Host()
+    {
+        val rewritten = LoadBalancingRequestFilter.replaceHostAndPort(URI.create("http://127.0.0.1:0/path?q=1"), "fe80:0:0:0:0:0:0:1", 8080);
+
+        assertEquals(URI.create("http://[fe80:0:0:0:0:0:0:1]:8080/path?q=1"), rewritten);
+    }
+
+
+    /**
+     * Perform requests through the filter, they are answered locally once the filter is done.
+     */
+    private static void filterRequests(StaticSlave slave, int count)
+    {
+        val connectionManager = new LoadBalancingConnectionManager(new TestClientEngineConfig(), Optional.empty(), new GeneralScheduler(new EventBus()));
+        val requestFilter = new LoadBalancingRequestFilter(slave, new UniformServiceSelector(), new OutstandingRequestTracker(), new InstanceHealthTracker(Optional.empty()), connectionManager);
+        val client = new ResteasyClientBuilder()
+                .register(requestFilter)
+                .register((ClientRequestFilter) requestContext -> requestContext.abortWith(Response.noContent().build()), Integer.MAX_VALUE)
+                .build();
+        try
+        {
+            for (int i = 0; i < count; ++i)
+            {
+                val response = client.target("http://127.0.0.1:0/test")
+                        .property(LoadBalancingRequestFilter.ROUTE_PROPERTY_NAME, "test")
+                        .request()
+                        .get();
+
+                assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+                response.close();
+            }
+        }
+        finally
+        {
+            client.close();
+            connectionManager.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testSlaveWithoutSubscriptionSupport()
+    {
+        val subscribeCount = new AtomicInteger();
+        val slave = new StaticSlave(InetSocketAddress.createUnresolved("10.0.0.1", 8080))
+        {
+            @Override
+            public void subscribe(String route, RouteListener listener)
+            {
+                subscribeCount.incrementAndGet();
+                throw new UnsupportedOperationException("not supported");
+            }
+        };
+
+        filterRequests(slave, 3);
+
+        // not retried
+        assertEquals(1, subscribeCount.get());
+    }
+
+
+    @Test
+    public void testFailedSubscriptionIsRetried()
+    {
+        val subscribeCount = new AtomicInteger();
+        val slave = new StaticSlave(InetSocketAddress.createUnresolved("10.0.0.1", 8080))
+        {
+            @Override
+            public void subscribe(String route, RouteListener listener)
+            {
+                if (subscribeCount.incrementAndGet() == 1)
+                {
+                    throw new IllegalStateException("not yet");
+                }
+            }
+        };
+
+        filterRequests(slave, 3);
+
+        assertEquals(2, subscribeCount.get());
+    }
+}
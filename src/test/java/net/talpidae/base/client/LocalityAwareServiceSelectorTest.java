@@ -0,0 +1,162 @@
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.config.SlaveSettings;
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.ServiceState;
+import net.talpidae.base.util.network.NetworkUtil;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+
+public class LocalityAwareServiceSelectorTest
+{
+    private static final int SELECTIONS = 20000;
+
+    private final OutstandingRequestTracker outstandingRequestTracker = new OutstandingRequestTracker();
+
+    private final LocalityAwareServiceSelector selector = new LocalityAwareServiceSelector(new TestSlaveSettings("local"), new NetworkUtil(), new PowerOfTwoChoicesServiceSelector(outstandingRequestTracker));
+
+
+    private static ServiceState instance(int index, String zone, int inFlightRequests, int queueDepth)
+    {
+        return InsectState.builder()
+                .socketAddress(InetSocketAddress.createUnresolved("10.0.0." + index, 8080))
+                .zone(zone)
+                .inFlightRequests(inFlightRequests)
+                .queueDepth(queueDepth)
+                .capacityWeight(100)
+                .build();
+    }
+
+
+    private double countRemoteFraction(List<ServiceState> alternatives)
+    {
+        int remoteCount = 0;
+        for (int i = 0; i < SELECTIONS; ++i)
+        {
+            if (!"local".equals(selector.select(alternatives).getZone()))
+            {
+                ++remoteCount;
+            }
+        }
+
+        return (double) remoteCount / SELECTIONS;
+    }
+
+
+    @Test
+    public void testHealthyLocalZoneReceivesAllTraffic()
+    {
+        val alternatives = new ArrayList<ServiceState>();
+        for (int i = 0; i < 4; ++i)
+        {
+            alternatives.add(instance(i, "local", 0, 0));
+            alternatives.add(instance(10 + i, "remote", 0, 0));
+        }
+
+        assertEquals(0.0, countRemoteFraction(alternatives), 0.0);
+    }
+
+
+    @Test
+    public void testLeastLoadedInstanceOfTierIsPreferred()
+    {
+        val idle = instance(0, "local", 0, 0);
+        val busy = instance(1, "local", 50, 0);
+        val alternatives = new ArrayList<ServiceState>();
+        alternatives.add(idle);
+        alternatives.add(busy);
+        alternatives.add(instance(10, "remote", 0, 0));
+
+        // with two candidates in the tier power of two choices always compares both
+        for (int i = 0; i < 1000; ++i)
+        {
+            assertSame(idle, selector.select(alternatives));
+        }
+    }
+
+
+    @Test
+    public void testSpillOverIsProportional()
+    {
+        val alternatives = new ArrayList<ServiceState>();
+        for (int i = 0; i < 4; ++i)
+        {
+            // half of the local instances have queued requests
+            alternatives.add(instance(i, "local", 0, (i < 2) ? 5 : 0));
+            alternatives.add(instance(10 + i, "remote", 0, 0));
+        }
+
+        // local tier receives 1.4 * 0.5 = 70%
+        assertEquals(0.3, countRemoteFraction(alternatives), 0.03);
+    }
+
+
+    @Test
+    public void testMostlyHealthyLocalZoneReceivesAllTraffic()
+    {
+        val alternatives = new ArrayList<ServiceState>();
+        for (int i = 0; i < 4; ++i)
+        {
+            // 3 / 4 healthy is above 1 / 1.4
+            alternatives.add(instance(i, "local", 0, (i == 0) ? 5 : 0));
+            alternatives.add(instance(10 + i, "remote", 0, 0));
+        }
+
+        assertEquals(0.0, countRemoteFraction(alternatives), 0.0);
+    }
+
+
+    @Test
+    public void testNoHealthyInstance()
+    {
+        val alternatives = new ArrayList<ServiceState>();
+        alternatives.add(instance(0, "local", 0, 5));
+        alternatives.add(instance(1, "remote", 0, 5));
+
+        for (int i = 0; i < 100; ++i)
+        {
+            assertNotNull(selector.select(alternatives));
+        }
+    }
+
+
+    @Getter
+    @Setter
+    private static class TestSlaveSettings implements SlaveSettings
+    {
+        private String name = "test-slave";
+
+        private InetSocketAddress bindAddress = new InetSocketAddress(0);
+
+        private Set<InetSocketAddress> remotes = Collections.emptySet();
+
+        private long pulseDelay = DEFAULT_PULSE_DELAY;
+
+        private long restInPeaceTimeout = DEFAULT_REST_IN_PEACE_TIMEOUT;
+
+        private String route = "test";
+
+        private String zone;
+
+
+        TestSlaveSettings(String zone)
+        {
+            this.zone = zone;
+        }
+    }
+}
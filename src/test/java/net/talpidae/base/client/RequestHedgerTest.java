@@ -0,0 +1,144 @@
+package net.talpidae.base.client;
+
+import com.google.common.eventbus.EventBus;
+
+import net.talpidae.base.util.auth.scope.AuthScope;
+import net.talpidae.base.util.auth.scope.GuiceAuthScope;
+import net.talpidae.base.util.thread.GeneralScheduler;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.GET;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class RequestHedgerTest
+{
+    private final GuiceAuthScope guiceAuthScope = new GuiceAuthScope();
+
+    private final RequestHedger requestHedger = new RequestHedger(new TestClientEngineConfig(), new ClientExecutor(), new GeneralScheduler(new EventBus()), guiceAuthScope);
+
+    private final Method method;
+
+    private final Hedged hedged;
+
+
+    public RequestHedgerTest() throws NoSuchMethodException
+    {
+        method = TestService.class.getMethod("get");
+        hedged = method.getAnnotation(Hedged.class);
+    }
+
+
+    private Object callInScope(AuthScope authScope, Callable<Object> call) throws Throwable
+    {
+        guiceAuthScope.enter(authScope);
+        try
+        {
+            return requestHedger.call(method, hedged, call);
+        }
+        finally
+        {
+            guiceAuthScope.exit();
+        }
+    }
+
+
+    /**
+     * Wait until the request of the current attempt is aborted (like a request blocked in socket I/O).
+     */
+    private static void awaitAbort() throws InterruptedException
+    {
+        val request = new HttpGet("http://127.0.0.1:0/");
+        RequestHedger.getCurrentAttempt().setHttpRequest(request);
+
+        val deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!request.isAborted() && System.nanoTime() - deadlineNanos < 0)
+        {
+            Thread.sleep(5L);
+        }
+    }
+
+
+    @Test
+    public void testFastFirstAttemptRunsOnCallingThread() throws Throwable
+    {
+        val callingThread = Thread.currentThread();
+
+        val result = requestHedger.call(method, hedged, () -> Thread.currentThread());
+
+        assertSame(callingThread, result);
+        assertEquals(0L, requestHedger.getHedgeCount());
+    }
+
+
+    @Test
+    public void testHedgeWinsAndAbortsFirstAttempt() throws Throwable
+    {
+        val authScope = new AuthScope();
+        val attempts = new AtomicInteger();
+        val hedgeScope = new AtomicReference<AuthScope>();
+
+        val result = callInScope(authScope, () ->
+        {
+            if (attempts.getAndIncrement() == 0)
+            {
+                awaitAbort();
+                throw new IllegalStateException("aborted");
+            }
+
+            hedgeScope.set(guiceAuthScope.getCurrent());
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        assertEquals(1L, requestHedger.getHedgeCount());
+        assertSame(authScope, hedgeScope.get());
+    }
+
+
+    @Test
+    public void testLateResultOfLoserIsClosed() throws Throwable
+    {
+        val attempts = new AtomicInteger();
+        val isClosed = new CountDownLatch(1);
+
+        val result = requestHedger.call(method, hedged, () ->
+        {
+            if (attempts.getAndIncrement() == 0)
+            {
+                // ignores the abort and completes late
+                awaitAbort();
+                return (Closeable) isClosed::countDown;
+            }
+
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertTrue(isClosed.await(10, TimeUnit.SECONDS));
+    }
+
+
+    public interface TestService
+    {
+        @GET
+        @Hedged(defaultDelayMillies = 20, minimumDelayMillies = 20)
+        String get();
+    }
+}
@@ -0,0 +1,78 @@
+package net.talpidae.base.client;
+
+import net.talpidae.base.insect.Slave;
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.ServiceState;
+import net.talpidae.base.util.performance.Metric;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+
+/**
+ * Slave that knows a fixed set of instances for every route.
+ */
+class StaticSlave implements Slave
+{
+    private final List<ServiceState> services = new ArrayList<>();
+
+
+    StaticSlave(InetSocketAddress... addresses)
+    {
+        for (InetSocketAddress address : addresses)
+        {
+            services.add(InsectState.builder().socketAddress(address).build());
+        }
+    }
+
+
+    @Override
+    public InetSocketAddress findService(String route)
+    {
+        return services.get(0).getSocketAddress();
+    }
+
+
+    @Override
+    public InetSocketAddress findService(String route, long timeoutMillies)
+    {
+        return services.get(0).getSocketAddress();
+    }
+
+
+    @Override
+    public List<? extends ServiceState> findServices(String route, long timeoutMillies)
+    {
+        return services;
+    }
+
+
+    @Override
+    public void forwardMetrics(Queue<Metric> metricQueue)
+    {
+        metricQueue.clear();
+    }
+
+
+    @Override
+    public boolean isRunning()
+    {
+        return true;
+    }
+
+
+    @Override
+    public void run()
+    {
+
+    }
+
+
+    @Override
+    public void close()
+    {
+
+    }
+}
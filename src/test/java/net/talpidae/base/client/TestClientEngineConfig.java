@@ -0,0 +1,24 @@
+package net.talpidae.base.client;
+
+import lombok.Getter;
+
+
+@Getter
+class TestClientEngineConfig implements ClientEngineConfig
+{
+    private final int connectionPoolSize = 16;
+
+    private final int maxPooledPerRoute = 4;
+
+    private final long connectionTtl = 0L;
+
+    private final long keepAlive = 1000L;
+
+    private final int socketTimeout = 2000;
+
+    private final int connectTimeout = 1000;
+
+    private final int connectionCheckoutTimeout = 1000;
+
+    private final double maximumHedgeRatio = 1.0;
+}
@@ -0,0 +1,165 @@
+package net.talpidae.base.insect;
+
+import net.talpidae.base.insect.state.InsectState;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class InsectCollectionTest
+{
+    private static final long PULSE_DELAY_CUTOFF = 100L;
+
+
+    private static InetSocketAddress address(int port)
+    {
+        return InetSocketAddress.createUnresolved("10.0.0.1", port);
+    }
+
+
+    private static InsectState put(Insect.InsectCollection collection, int port, long timestamp)
+    {
+        return collection.compute(address(port), state -> InsectState.builder()
+                .socketAddress(address(port))
+                .timestamp(timestamp)
+                .build());
+    }
+
+
+    private static List<Long> timestamps(List<InsectState> states)
+    {
+        val timestamps = new ArrayList<Long>();
+        for (val state : states)
+        {
+            timestamps.add(state.getTimestamp());
+        }
+
+        return timestamps;
+    }
+
+
+    @Test
+    public void testAddKeepsTimestampOrder()
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+
+        put(collection, 1, 1000L);
+        put(collection, 2, 1030L);
+        put(collection, 3, 1020L);
+        put(collection, 4, 1030L);
+
+        assertEquals(Arrays.asList(1030L, 1030L, 1020L, 1000L), timestamps(collection.getAll()));
+    }
+
+
+    @Test
+    public void testReplaceMovesUpdatedInsect()
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+        put(collection, 1, 1000L);
+        put(collection, 2, 1010L);
+        val previous = put(collection, 3, 1010L);
+
+        // same timestamp as another insect, the right one must be replaced
+        val next = collection.compute(address(3), state ->
+        {
+            assertSame(previous, state);
+            return InsectState.builder().socketAddress(address(3)).timestamp(1050L).build();
+        });
+
+        assertEquals(3, collection.getAll().size());
+        assertSame(next, collection.getAll().get(0));
+        assertEquals(Arrays.asList(1050L, 1010L, 1000L), timestamps(collection.getAll()));
+        assertEquals(address(2), collection.getAll().get(1).getSocketAddress());
+    }
+
+
+    @Test
+    public void testResolvedAndUnresolvedAddressAreTheSameInsect() throws UnknownHostException
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+        val resolved = new InetSocketAddress(InetAddress.getByAddress("10.0.0.1", new byte[]{10, 0, 0, 1}), 1);
+        put(collection, 1, 1000L);
+
+        collection.compute(resolved, state -> InsectState.builder().socketAddress(resolved).timestamp(1010L).build());
+
+        assertEquals(1, collection.getAll().size());
+        assertEquals(1010L, collection.getAll().get(0).getTimestamp());
+    }
+
+
+    @Test
+    public void testRemove()
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+        put(collection, 1, 1000L);
+        put(collection, 2, 1020L);
+        put(collection, 3, 1010L);
+
+        assertNull(collection.compute(address(3), state -> null));
+        assertEquals(Arrays.asList(1020L, 1000L), timestamps(collection.getAll()));
+
+        // removing an unknown insect is a no-op
+        assertNull(collection.compute(address(3), state -> null));
+        assertEquals(2, collection.getAll().size());
+
+        // can be added again
+        put(collection, 3, 1030L);
+        assertEquals(Arrays.asList(1030L, 1020L, 1000L), timestamps(collection.getAll()));
+    }
+
+
+    @Test
+    public void testActiveCutoff()
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+        put(collection, 1, 1000L);
+        put(collection, 2, 950L);
+        put(collection, 3, 900L);
+        put(collection, 4, 899L);
+
+        // active: not older than the newest insect minus the cutoff
+        assertEquals(Arrays.asList(1000L, 950L, 900L), timestamps(collection.getActive()));
+        assertEquals(4, collection.getAll().size());
+
+        // a fresh heartbeat of the newest insect moves the cutoff
+        put(collection, 1, 1040L);
+        assertEquals(Arrays.asList(1040L, 950L), timestamps(collection.getActive()));
+    }
+
+
+    @Test
+    public void testTruncateOlderThan()
+    {
+        val collection = new Insect.InsectCollection(PULSE_DELAY_CUTOFF);
+        put(collection, 1, 1000L);
+        put(collection, 2, 920L);
+        put(collection, 3, 910L);
+        put(collection, 4, 900L);
+
+        val removed = new ArrayList<InsectState>();
+        assertEquals(2, collection.truncateOlderThan(920L, removed::add));
+
+        assertEquals(Arrays.asList(1000L, 920L), timestamps(collection.getAll()));
+        assertEquals(Arrays.asList(900L, 910L), timestamps(removed));
+
+        // nothing left to truncate
+        assertEquals(0, collection.truncateOlderThan(920L, removed::add));
+
+        // the address index has been cleaned up, truncated insects are added again
+        put(collection, 4, 1010L);
+        assertEquals(Arrays.asList(1010L, 1000L, 920L), timestamps(collection.getAll()));
+    }
+}
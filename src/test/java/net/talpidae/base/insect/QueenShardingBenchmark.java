@@ -0,0 +1,168 @@
+package net.talpidae.base.insect;
+
+import com.google.common.eventbus.EventBus;
+
+import net.talpidae.base.insect.config.QueenSettings;
+import net.talpidae.base.insect.message.payload.Mapping;
+import net.talpidae.base.insect.state.InsectState;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+
+/**
+ * Loopback benchmark measuring handled heartbeats per second of a queen with a varying number of exchange shards.
+ * <p>
+ * Not a unit test, run manually: QueenShardingBenchmark [maximumShardCount] [senderCount] [secondsPerRun]
+ */
+public class QueenShardingBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        val maximumShardCount = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        val senderCount = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        val seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        for (int shardCount = 1; shardCount <= maximumShardCount; shardCount *= 2)
+        {
+            val rate = run(shardCount, senderCount, seconds);
+            System.out.printf("shards: %d, senders: %d, heartbeats/s: %.0f%n", shardCount, senderCount, rate);
+        }
+    }
+
+
+    private static double run(int shardCount, int senderCount, int seconds) throws Exception
+    {
+        val loopback = InetAddress.getLoopbackAddress();
+        val settings = new BenchmarkQueenSettings(new InetSocketAddress(loopback, 0), shardCount);
+        val queen = new CountingQueen(settings);
+
+        val worker = InsectWorker.start(queen, "benchmark-queen");
+        try
+        {
+            while (queen.getPort() == 0)
+            {
+                Thread.sleep(10);
+            }
+
+            val queenAddress = new InetSocketAddress(loopback, queen.getPort());
+            val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            val senders = new ArrayList<Thread>();
+            for (int i = 0; i < senderCount; ++i)
+            {
+                val sender = new Thread(() -> sendHeartbeats(queenAddress, deadline));
+                sender.start();
+                senders.add(sender);
+            }
+
+            // skip warm-up
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+            val begin = System.nanoTime();
+            val countBegin = queen.handled.sum();
+
+            for (val sender : senders)
+            {
+                sender.join();
+            }
+
+            return (queen.handled.sum() - countBegin) / ((System.nanoTime() - begin) / 1e9);
+        }
+        finally
+        {
+            worker.shutdown();
+        }
+    }
+
+
+    private static void sendHeartbeats(InetSocketAddress queenAddress, long deadline)
+    {
+        try (val channel = DatagramChannel.open())
+        {
+            channel.bind(new InetSocketAddress(queenAddress.getAddress(), 0));
+            channel.connect(queenAddress);
+
+            val localAddress = (InetSocketAddress) channel.getLocalAddress();
+            val host = localAddress.getAddress().getHostAddress();
+            val buffer = ByteBuffer.allocateDirect(Mapping.MAXIMUM_SERIALIZED_SIZE);
+            long timestamp = 0;
+            while (System.nanoTime() < deadline)
+            {
+                buffer.clear();
+                Mapping.builder()
+                        .host(host)
+                        .port(localAddress.getPort())
+                        .timestamp(++timestamp)
+                        .route("net.talpidae.BenchmarkService")
+                        .name("benchmark-" + localAddress.getPort())
+                        .socketAddress(localAddress)
+                        .build()
+                        .to(buffer);
+                buffer.flip();
+
+                channel.write(buffer);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+
+    private static class CountingQueen extends SyncQueen
+    {
+        private final LongAdder handled = new LongAdder();
+
+
+        CountingQueen(QueenSettings settings)
+        {
+            super(settings, new EventBus());
+        }
+
+
+        @Override
+        protected void postHandleMapping(InsectState state, Mapping mapping, boolean isNewMapping, boolean isDependencyMapping)
+        {
+            handled.increment();
+
+            super.postHandleMapping(state, mapping, isNewMapping, isDependencyMapping);
+        }
+    }
+
+
+    @Getter
+    @Setter
+    private static class BenchmarkQueenSettings implements QueenSettings
+    {
+        private String name = "benchmark-queen";
+
+        private InetSocketAddress bindAddress;
+
+        private Set<InetSocketAddress> remotes = Collections.emptySet();
+
+        private long pulseDelay = DEFAULT_PULSE_DELAY;
+
+        private long restInPeaceTimeout = DEFAULT_REST_IN_PEACE_TIMEOUT;
+
+        private int exchangeShardCount;
+
+
+        BenchmarkQueenSettings(InetSocketAddress bindAddress, int exchangeShardCount)
+        {
+            this.bindAddress = bindAddress;
+            this.exchangeShardCount = exchangeShardCount;
+        }
+    }
+}
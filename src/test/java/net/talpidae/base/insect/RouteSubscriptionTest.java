@@ -0,0 +1,171 @@
+package net.talpidae.base.insect;
+
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.RouteChange;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class RouteSubscriptionTest
+{
+    private static final String ROUTE = "net.talpidae.SomeService";
+
+    private final InsectState first = createState("10.0.0.1");
+
+    private final InsectState second = createState("10.0.0.2");
+
+    private final List<InsectState> members = new ArrayList<>();
+
+    private final Supplier<Collection<InsectState>> membersSupplier = () -> members;
+
+
+    private static InsectState createState(String host)
+    {
+        return InsectState.builder().socketAddress(InetSocketAddress.createUnresolved(host, 13300)).build();
+    }
+
+
+    @Test
+    public void testSnapshotIsDeliveredOnFlush()
+    {
+        members.add(first);
+
+        val subscription = new RouteSubscription(ROUTE);
+        val changes = new ArrayList<RouteChange>();
+        subscription.addListener(changes::add);
+        assertTrue(changes.isEmpty());
+
+        subscription.flush(membersSupplier);
+
+        assertEquals(1, changes.size());
+        assertEquals(ROUTE, changes.get(0).getRoute());
+        assertEquals(Collections.singletonList(first), changes.get(0).getAdded());
+        assertTrue(changes.get(0).getRemoved().isEmpty());
+    }
+
+
+    @Test
+    public void testMemberArrivingBeforeFlushIsAddedOnce()
+    {
+        members.add(first);
+
+        val subscription = new RouteSubscription(ROUTE);
+        val changes = new ArrayList<RouteChange>();
+        subscription.addListener(changes::add);
+
+        // arrives between subscribe() and the first flush
+        members.add(second);
+        subscription.update(second);
+
+        subscription.flush(membersSupplier);
+        subscription.flush(membersSupplier);
+
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).getAdded().size());
+    }
+
+
+    @Test
+    public void testChangesAreCoalesced()
+    {
+        val subscription = new RouteSubscription(ROUTE);
+        val changes = new ArrayList<RouteChange>();
+        subscription.addListener(changes::add);
+        subscription.flush(membersSupplier);
+
+        // empty snapshot isn't delivered
+        assertTrue(changes.isEmpty());
+
+        subscription.update(first);
+        subscription.update(second);
+        subscription.remove(second);
+        subscription.flush(membersSupplier);
+
+        assertEquals(1, changes.size());
+        assertEquals(Collections.singletonList(first), changes.get(0).getAdded());
+        assertTrue(changes.get(0).getRemoved().isEmpty());
+
+        subscription.removeAll();
+        subscription.flush(membersSupplier);
+
+        assertEquals(2, changes.size());
+        assertTrue(changes.get(1).getAdded().isEmpty());
+        assertEquals(Collections.singletonList(first), changes.get(1).getRemoved());
+    }
+
+
+    @Test
+    public void testOnlyKnownStateIsRemoved()
+    {
+        members.add(first);
+
+        val subscription = new RouteSubscription(ROUTE);
+        val changes = new ArrayList<RouteChange>();
+        subscription.addListener(changes::add);
+        subscription.flush(membersSupplier);
+
+        // same address, but another state (ie. of another route)
+        subscription.remove(createState("10.0.0.1"));
+        subscription.flush(membersSupplier);
+        assertEquals(1, changes.size());
+
+        subscription.remove(first);
+        subscription.flush(membersSupplier);
+        assertEquals(2, changes.size());
+        assertSame(first, changes.get(1).getRemoved().get(0));
+    }
+
+
+    @Test
+    public void testLateListenerReceivesSnapshotInsteadOfChanges()
+    {
+        val subscription = new RouteSubscription(ROUTE);
+        val earlyChanges = new ArrayList<RouteChange>();
+        subscription.addListener(earlyChanges::add);
+        subscription.flush(membersSupplier);
+
+        val lateChanges = new ArrayList<RouteChange>();
+        subscription.update(first);
+        subscription.addListener(lateChanges::add);
+        subscription.update(second);
+        subscription.flush(membersSupplier);
+
+        assertEquals(1, earlyChanges.size());
+        assertEquals(Arrays.asList(first, second), earlyChanges.get(0).getAdded());
+
+        assertEquals(1, lateChanges.size());
+        assertEquals(2, lateChanges.get(0).getAdded().size());
+    }
+
+
+    @Test
+    public void testRemoveListener()
+    {
+        val subscription = new RouteSubscription(ROUTE);
+        val changes = new ArrayList<RouteChange>();
+        final RouteListener listener = changes::add;
+        subscription.addListener(listener);
+
+        // removed before it received its snapshot
+        assertFalse(subscription.removeListener(listener));
+
+        subscription.update(first);
+        subscription.flush(membersSupplier);
+        assertTrue(changes.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package net.talpidae.base.insect;
+
+import net.talpidae.base.insect.state.InsectState;
+import net.talpidae.base.insect.state.ServiceState;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lombok.val;
+
+
+/**
+ * Simulation comparing request latency percentiles of the uniform and the latency weighted service selector.
+ * <p>
+ * Each instance is modelled as an M/M/1 queue, some of them with reduced capacity. Heartbeat lag reported
+ * for an instance equals its mean queueing delay during the previous round.
+ * <p>
+ * Not a unit test, run manually: ServiceSelectorBenchmark [instanceCount] [slowInstanceCount] [utilization]
+ */
+public class ServiceSelectorBenchmark
+{
+    private static final double FAST_RATE = 1000.0;  // requests/s
+
+    private static final double SLOW_RATE = 250.0;  // requests/s
+
+    private static final double OVERLOAD_LATENCY = 1.0;  // s
+
+    private static final int ROUNDS = 200;
+
+    private static final int REQUESTS_PER_ROUND = 5000;
+
+
+    public static void main(String[] args)
+    {
+        val instanceCount = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        val slowCount = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+        val utilization = (args.length > 2) ? Double.parseDouble(args[2]) : 0.7;
+
+        run("uniform", new UniformServiceSelector(), instanceCount, slowCount, utilization);
+        run("weighted", new LatencyWeightedServiceSelector(), instanceCount, slowCount, utilization);
+    }
+
+
+    private static void run(String name, ServiceSelector selector, int instanceCount, int slowCount, double utilization)
+    {
+        val random = new Random(42);
+        val rates = new double[instanceCount];
+        double capacity = 0.0;
+        for (int i = 0; i < instanceCount; ++i)
+        {
+            rates[i] = (i < slowCount) ? SLOW_RATE : FAST_RATE;
+            capacity += rates[i];
+        }
+
+        val arrivalRate = capacity * utilization;
+        val lagNanos = new long[instanceCount];
+        val jitterNanos = new long[instanceCount];
+        val latencies = new double[ROUNDS * REQUESTS_PER_ROUND];
+        int latencyCount = 0;
+
+        for (int round = 0; round < ROUNDS; ++round)
+        {
+            val states = new ArrayList<InsectState>(instanceCount);
+            val indices = new IdentityHashMap<ServiceState, Integer>();
+            for (int i = 0; i < instanceCount; ++i)
+            {
+                val state = InsectState.builder()
+                        .socketAddress(InetSocketAddress.createUnresolved("instance-" + i, 8080))
+                        .lagNanos(lagNanos[i])
+                        .jitterNanos(jitterNanos[i])
+                        .build();
+
+                states.add(state);
+                indices.put(state, i);
+            }
+
+            // distribute this rounds requests
+            val picks = new int[REQUESTS_PER_ROUND];
+            val counts = new int[instanceCount];
+            for (int r = 0; r < REQUESTS_PER_ROUND; ++r)
+            {
+                val index = indices.get(selector.select(states));
+                picks[r] = index;
+                ++counts[index];
+            }
+
+            // sample sojourn times given the resulting per-instance arrival rate
+            val meanDelays = new double[instanceCount];
+            for (int i = 0; i < instanceCount; ++i)
+            {
+                val instanceRate = arrivalRate * counts[i] / REQUESTS_PER_ROUND;
+                meanDelays[i] = (instanceRate < rates[i]) ? Math.min(OVERLOAD_LATENCY, 1.0 / (rates[i] - instanceRate)) : OVERLOAD_LATENCY;
+            }
+
+            for (int r = 0; r < REQUESTS_PER_ROUND; ++r)
+            {
+                latencies[latencyCount++] = -Math.log(1.0 - random.nextDouble()) * meanDelays[picks[r]];
+            }
+
+            // heartbeats of busy instances are delayed just like requests
+            for (int i = 0; i < instanceCount; ++i)
+            {
+                val sample = (long) (meanDelays[i] * TimeUnit.SECONDS.toNanos(1));
+                jitterNanos[i] += (Math.abs(sample - lagNanos[i]) - jitterNanos[i]) >> 3;
+                lagNanos[i] += (sample - lagNanos[i]) >> 3;
+            }
+        }
+
+        Arrays.sort(latencies, 0, latencyCount);
+        System.out.printf("%-8s p50: %8.2fms, p99: %8.2fms, p99.9: %8.2fms%n", name,
+                percentile(latencies, latencyCount, 0.5) * 1000,
+                percentile(latencies, latencyCount, 0.99) * 1000,
+                percentile(latencies, latencyCount, 0.999) * 1000);
+    }
+
+
+    private static double percentile(double[] sorted, int count, double p)
+    {
+        return sorted[Math.min(count - 1, (int) (p * count))];
+    }
+}
@@ -0,0 +1,109 @@
+package net.talpidae.base.insect.message.payload;
+
+import net.talpidae.base.util.performance.Metric;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class CompactMetricsTest
+{
+    private static final String[] PATHS = {
+            "/happy-bumblebee/GET/signup/duration",
+            "/happy-bumblebee/GET/signup/status",
+            "/happy-bumblebee/POST/login/duration",
+            "/happy-bumblebee/POST/login/status"
+    };
+
+
+    private static Queue<Metric> createMetrics(int count)
+    {
+        Queue<Metric> metrics = new ArrayDeque<>();
+        for (int i = 0; i < count; ++i)
+        {
+            metrics.add(Metric.builder()
+                    .path(PATHS[i % PATHS.length])
+                    .ts(1500000000000L + i * 7 - (i % 3))
+                    .value(i * 0.25)
+                    .build());
+        }
+
+        return metrics;
+    }
+
+
+    private static CompactMetrics transmit(CompactMetrics compactMetrics) throws CharacterCodingException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PayloadFactory.getMaximumSerializedSize());
+        compactMetrics.to(buffer);
+        assertTrue(buffer.position() <= CompactMetrics.MAXIMUM_SERIALIZED_SIZE);
+        buffer.flip();
+
+        return (CompactMetrics) PayloadFactory.unpackPayload(buffer, 0);
+    }
+
+
+    @Test
+    public void testPackAndDecode() throws CharacterCodingException
+    {
+        MetricPathDictionary senderDictionary = new MetricPathDictionary();
+        Map<Integer, String> receiverDictionary = new HashMap<>();
+
+        Queue<Metric> plainQueue = createMetrics(1000);
+        int plainCount = Metrics.builder().metrics(plainQueue).build().getMetrics().size();
+
+        Queue<Metric> queue = createMetrics(1000);
+        List<Metric> expected = new ArrayList<>(queue);
+        int offset = 0;
+        boolean isFirst = true;
+        while (!queue.isEmpty())
+        {
+            CompactMetrics decoded = transmit(CompactMetrics.pack(queue, senderDictionary));
+            decoded.updateDictionary(receiverDictionary);
+            List<Metric> metrics = decoded.toMetrics(receiverDictionary).getMetrics();
+            assertEquals(decoded.getSampleCount(), metrics.size());
+            if (isFirst)
+            {
+                // definitions are sent only once
+                assertTrue(metrics.size() >= 4 * plainCount);
+                isFirst = false;
+            }
+
+            for (Metric metric : metrics)
+            {
+                assertEquals(expected.get(offset++), metric);
+            }
+        }
+
+        assertEquals(expected.size(), offset);
+    }
+
+
+    @Test
+    public void testUnknownIdsAreSkippedUntilInvalidate() throws CharacterCodingException
+    {
+        MetricPathDictionary senderDictionary = new MetricPathDictionary();
+        CompactMetrics.pack(createMetrics(PATHS.length), senderDictionary);  // lost
+
+        Map<Integer, String> receiverDictionary = new HashMap<>();
+        CompactMetrics decoded = transmit(CompactMetrics.pack(createMetrics(PATHS.length), senderDictionary));
+        decoded.updateDictionary(receiverDictionary);
+        assertEquals(0, decoded.toMetrics(receiverDictionary).getMetrics().size());
+
+        senderDictionary.invalidate();
+        decoded = transmit(CompactMetrics.pack(createMetrics(PATHS.length), senderDictionary));
+        decoded.updateDictionary(receiverDictionary);
+        assertEquals(PATHS.length, decoded.toMetrics(receiverDictionary).getMetrics().size());
+    }
+}
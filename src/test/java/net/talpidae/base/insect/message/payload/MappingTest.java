@@ -0,0 +1,187 @@
+package net.talpidae.base.insect.message.payload;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class MappingTest
+{
+    private static ByteBuffer serialize(Payload payload)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PayloadFactory.getMaximumSerializedSize());
+        payload.to(buffer);
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    @Test
+    public void testSerializeAndDecode() throws CharacterCodingException
+    {
+        Mapping mapping = Mapping.builder()
+                .host("10.1.2.3")
+                .port(13300)
+                .timestamp(123456789L)
+                .route("net.talpidae.SomeService")
+                .name("happy-bumblebee")
+                .dependency("net.talpidae.OtherService")
+                .socketAddress(InetSocketAddress.createUnresolved("10.1.2.3", 13300))
+                .build();
+
+        Mapping first = Mapping.from(serialize(mapping), 0);
+        assertEquals(mapping.getHost(), first.getHost());
+        assertEquals(mapping.getPort(), first.getPort());
+        assertEquals(mapping.getTimestamp(), first.getTimestamp());
+        assertEquals(mapping.getRoute(), first.getRoute());
+        assertEquals(mapping.getName(), first.getName());
+        assertEquals(mapping.getDependency(), first.getDependency());
+        assertEquals(mapping.getSocketAddress(), first.getSocketAddress());
+
+        // decoding the same bytes again yields the already known instances
+        Mapping second = Mapping.from(serialize(mapping), 0);
+        assertSame(first.getHost(), second.getHost());
+        assertSame(first.getRoute(), second.getRoute());
+        assertSame(first.getName(), second.getName());
+        assertSame(first.getDependency(), second.getDependency());
+        assertSame(first.getSocketAddress(), second.getSocketAddress());
+    }
+
+
+    @Test
+    public void testBatchSerializeAndDecode() throws CharacterCodingException
+    {
+        List<Mapping> mappings = new ArrayList<>();
+        for (int i = 0; i < 100; ++i)
+        {
+            mappings.add(Mapping.builder()
+                    .host("10.1.2." + i)
+                    .port(20000 + i)
+                    .timestamp(i)
+                    .route("net.talpidae.SomeService")
+                    .name("happy-bumblebee-" + i)
+                    .socketAddress(InetSocketAddress.createUnresolved("10.1.2." + i, 20000 + i))
+                    .build());
+        }
+
+        int offset = 0;
+        while (offset < mappings.size())
+        {
+            int count = Mappings.countFitting(mappings, offset);
+            List<Mapping> expected = mappings.subList(offset, offset + count);
+
+            Mappings decoded = (Mappings) PayloadFactory.unpackPayload(serialize(Mappings.builder().mappings(expected).build()), 0);
+            assertEquals(count, decoded.getMappings().size());
+            for (int i = 0; i < count; ++i)
+            {
+                assertEquals(expected.get(i).getSocketAddress(), decoded.getMappings().get(i).getSocketAddress());
+                assertEquals(expected.get(i).getName(), decoded.getMappings().get(i).getName());
+                assertEquals(expected.get(i).getTimestamp(), decoded.getMappings().get(i).getTimestamp());
+            }
+
+            offset += count;
+        }
+    }
+
+
+    @Test
+    public void testLoadExtension() throws CharacterCodingException
+    {
+        List<Mapping> mappings = new ArrayList<>();
+        for (int i = 0; i < 2; ++i)
+        {
+            mappings.add(Mapping.builder()
+                    .flags(Mapping.FLAG_BATCH_RECEIVER | Mapping.FLAG_LOAD)
+                    .host("10.1.2." + i)
+                    .port(13300)
+                    .timestamp(i)
+                    .route("net.talpidae.SomeService")
+                    .name("busy-bee-" + i)
+                    .inFlightRequests(42 + i)
+                    .queueDepth(100000)  // saturated
+                    .capacityWeight(200)
+                    .socketAddress(InetSocketAddress.createUnresolved("10.1.2." + i, 13300))
+                    .build());
+        }
+
+        Mappings decoded = (Mappings) PayloadFactory.unpackPayload(serialize(Mappings.builder().mappings(mappings).build()), 0);
+        assertEquals(2, decoded.getMappings().size());
+        for (int i = 0; i < 2; ++i)
+        {
+            Mapping mapping = decoded.getMappings().get(i);
+            assertEquals("busy-bee-" + i, mapping.getName());
+            assertEquals(42 + i, mapping.getInFlightRequests());
+            assertEquals(Mapping.LOAD_VALUE_MAX, mapping.getQueueDepth());
+            assertEquals(200, mapping.getCapacityWeight());
+        }
+
+        // receivers that don't understand the extension get a plain mapping
+        Mapping plain = Mapping.from(serialize(mappings.get(0).withoutExtensions()), 0);
+        assertEquals(Mapping.FLAG_BATCH_RECEIVER, plain.getFlags());
+        assertEquals(0, plain.getInFlightRequests());
+        assertEquals(mappings.get(0).withoutExtensions().getSerializedSize(), mappings.get(0).getSerializedSize() - 6);
+    }
+
+
+    @Test
+    public void testMissingExtensionsAreAbsent() throws CharacterCodingException
+    {
+        Mapping mapping = Mapping.builder()
+                .flags(Mapping.FLAG_BATCH_RECEIVER | Mapping.FLAG_LOAD | Mapping.FLAG_ZONE)
+                .host("10.1.2.3")
+                .port(13300)
+                .timestamp(1L)
+                .route("net.talpidae.SomeService")
+                .name("old-bee")
+                .inFlightRequests(7)
+                .capacityWeight(100)
+                .zone("eu-west-1a")
+                .socketAddress(InetSocketAddress.createUnresolved("10.1.2.3", 13300))
+                .build();
+
+        // a queen that doesn't know the extensions relays the flags, but not the extension bytes
+        ByteBuffer buffer = serialize(mapping.withoutExtensions());
+        buffer.put(1, (byte) mapping.getFlags());
+
+        Mapping decoded = Mapping.from(buffer, 0);
+        assertEquals(Mapping.FLAG_BATCH_RECEIVER, decoded.getFlags());
+        assertEquals(0, decoded.getInFlightRequests());
+        assertEquals(0, decoded.getCapacityWeight());
+        assertEquals("", decoded.getZone());
+        assertEquals(buffer.limit(), Mapping.getSerializedSize(buffer, 0));
+    }
+
+
+    @Test
+    public void testMaximumSerializedSize()
+    {
+        char[] chars = new char[255];
+        Arrays.fill(chars, 'x');
+        String maximumString = new String(chars);
+
+        Mapping mapping = Mapping.builder()
+                .flags(Mapping.FLAG_BATCH_RECEIVER | Mapping.FLAG_EXTENSION_RECEIVER | Mapping.FLAG_LOAD | Mapping.FLAG_ZONE)
+                .host(maximumString)
+                .port(13300)
+                .timestamp(1L)
+                .route(maximumString)
+                .name(maximumString)
+                .dependency(maximumString)
+                .zone(maximumString)
+                .socketAddress(InetSocketAddress.createUnresolved("10.1.2.3", 13300))
+                .build();
+
+        assertEquals(Mapping.MAXIMUM_SERIALIZED_SIZE, mapping.getSerializedSize());
+        assertTrue(serialize(mapping).limit() <= Mapping.MAXIMUM_SERIALIZED_SIZE);
+    }
+}
@@ -0,0 +1,152 @@
+package net.talpidae.base.insect.metrics;
+
+import net.talpidae.base.insect.config.QueenSettings;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class MetricsStoreTest
+{
+    private static final long BASE_MILLIES = 1500000000000L;
+
+    private static final String PATH = "/happy-bumblebee/GET/signup/duration";
+
+
+    @Test
+    public void testRollup()
+    {
+        val store = new MetricsStore(new TestQueenSettings(4));
+
+        // one sample per second for two minutes, value equals the second
+        for (int i = 0; i < 120; ++i)
+        {
+            store.record(PATH, BASE_MILLIES + TimeUnit.SECONDS.toMillis(i), i);
+        }
+
+        val tenSeconds = store.query(PATH, RollupResolution.TEN_SECONDS, BASE_MILLIES, BASE_MILLIES + TimeUnit.MINUTES.toMillis(2));
+        assertEquals(12, tenSeconds.size());
+        val first = tenSeconds.get(0);
+        assertEquals(BASE_MILLIES, first.getTs());
+        assertEquals(10, first.getCount());
+        assertEquals(45.0, first.getSum(), 0.0);
+        assertEquals(0.0, first.getMin(), 0.0);
+        assertEquals(9.0, first.getMax(), 0.0);
+        assertEquals(4.5, first.getMean(), 0.0);
+
+        val oneMinute = store.query(PATH, RollupResolution.ONE_MINUTE, BASE_MILLIES, BASE_MILLIES + TimeUnit.MINUTES.toMillis(2));
+        assertEquals(2, oneMinute.size());
+        assertEquals(60, oneMinute.get(1).getCount());
+        assertEquals(119.0, oneMinute.get(1).getMax(), 0.0);
+
+        val tenMinutes = store.query(PATH, RollupResolution.TEN_MINUTES, BASE_MILLIES, BASE_MILLIES + TimeUnit.MINUTES.toMillis(10));
+        assertEquals(1, tenMinutes.size());
+        assertEquals(120, tenMinutes.get(0).getCount());
+
+        assertTrue(store.query("/unknown", RollupResolution.ONE_MINUTE, BASE_MILLIES, BASE_MILLIES + 1).isEmpty());
+    }
+
+
+    @Test
+    public void testRetention()
+    {
+        val store = new MetricsStore(new TestQueenSettings(4));
+        val resolution = RollupResolution.TEN_SECONDS;
+
+        store.record(PATH, BASE_MILLIES, 1.0);
+
+        // overwrites the slot of the first sample
+        val later = BASE_MILLIES + resolution.getRetentionMillies();
+        store.record(PATH, later, 2.0);
+
+        // too old for the slot that now holds a newer bucket, but still fits the coarser resolutions
+        store.record(PATH, BASE_MILLIES + 1, 3.0);
+
+        val points = store.query(PATH, resolution, BASE_MILLIES, later + 1);
+        assertEquals(1, points.size());
+        assertEquals(later, points.get(0).getTs());
+        assertEquals(2.0, points.get(0).getSum(), 0.0);
+
+        val coarse = store.query(PATH, RollupResolution.TEN_MINUTES, BASE_MILLIES, later + 1);
+        assertEquals(4.0, coarse.get(0).getSum(), 0.0);
+    }
+
+
+    @Test
+    public void testMaximumSeries()
+    {
+        val store = new MetricsStore(new TestQueenSettings(2));
+        val nowMillies = System.currentTimeMillis();
+
+        store.record("/a", nowMillies - 2000L, 1.0);
+        store.record("/b", nowMillies - 1000L, 1.0);
+
+        // evicts the least recently updated series
+        store.record("/c", nowMillies, 1.0);
+        assertEquals(new HashSet<>(Arrays.asList("/b", "/c")), store.getPaths());
+        assertEquals(0, store.getDroppedCount());
+
+        // evictions are rate limited
+        store.record("/d", nowMillies, 1.0);
+        store.record("/b", nowMillies, 1.0);
+
+        assertEquals(new HashSet<>(Arrays.asList("/b", "/c")), store.getPaths());
+        assertEquals(1, store.getDroppedCount());
+    }
+
+
+    @Test
+    public void testStaleSeriesIsReplaced()
+    {
+        val store = new MetricsStore(new TestQueenSettings(2));
+        val nowMillies = System.currentTimeMillis();
+
+        // older than the longest retention, holds no data anymore
+        store.record("/stale", nowMillies - RollupResolution.TEN_MINUTES.getRetentionMillies() - 1, 1.0);
+        store.record("/active", nowMillies, 1.0);
+        store.record("/new", nowMillies, 1.0);
+
+        assertEquals(new HashSet<>(Arrays.asList("/active", "/new")), store.getPaths());
+        assertEquals(0, store.getDroppedCount());
+        assertEquals(1, store.query("/new", RollupResolution.TEN_SECONDS, nowMillies - RollupResolution.TEN_SECONDS.getBucketMillies(), nowMillies + 1).size());
+    }
+
+
+    @Getter
+    @Setter
+    private static class TestQueenSettings implements QueenSettings
+    {
+        private String name = "test-queen";
+
+        private InetSocketAddress bindAddress = new InetSocketAddress(0);
+
+        private Set<InetSocketAddress> remotes = Collections.emptySet();
+
+        private long pulseDelay = DEFAULT_PULSE_DELAY;
+
+        private long restInPeaceTimeout = DEFAULT_REST_IN_PEACE_TIMEOUT;
+
+        private int exchangeShardCount = DEFAULT_EXCHANGE_SHARD_COUNT;
+
+        private int maximumMetricSeries;
+
+
+        TestQueenSettings(int maximumMetricSeries)
+        {
+            this.maximumMetricSeries = maximumMetricSeries;
+        }
+    }
+}
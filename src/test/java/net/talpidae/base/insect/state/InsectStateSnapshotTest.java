@@ -0,0 +1,80 @@
+package net.talpidae.base.insect.state;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class InsectStateSnapshotTest
+{
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        Path path = Files.createTempFile("insect-state", ".snapshot");
+        try
+        {
+            long nowNanos = System.nanoTime();
+            InsectState resolved = InsectState.builder()
+                    .socketAddress(new InetSocketAddress(InetAddress.getByAddress("some-host", new byte[]{10, 1, 2, 3}), 13300))
+                    .name("happy-bumblebee")
+                    .newEpoch(nowNanos - TimeUnit.SECONDS.toNanos(2), 1000L)
+                    .dependency("net.talpidae.OtherService")
+                    .isOutOfService(true)
+                    .build();
+
+            InsectState unresolved = InsectState.builder()
+                    .socketAddress(InetSocketAddress.createUnresolved("other-host", 13301))
+                    .name("grumpy-beetle")
+                    .newEpoch(nowNanos, 2000L)
+                    .build();
+
+            List<Map.Entry<String, InsectState>> entries = Arrays.asList(
+                    new AbstractMap.SimpleImmutableEntry<>("net.talpidae.SomeService", resolved),
+                    new AbstractMap.SimpleImmutableEntry<>("net.talpidae.OtherService", unresolved));
+
+            try (InsectStateSnapshot snapshot = new InsectStateSnapshot(path))
+            {
+                snapshot.write(entries, nowNanos);
+            }
+
+            long laterNanos = nowNanos + TimeUnit.SECONDS.toNanos(10);
+            List<Map.Entry<String, InsectState>> restored = new InsectStateSnapshot(path).read(laterNanos, TimeUnit.MINUTES.toMillis(1));
+            assertEquals(2, restored.size());
+
+            Map.Entry<String, InsectState> first = restored.get(0);
+            assertEquals("net.talpidae.SomeService", first.getKey());
+            assertEquals(resolved.getSocketAddress(), first.getValue().getSocketAddress());
+            assertEquals("happy-bumblebee", first.getValue().getName());
+            assertEquals(Collections.singleton("net.talpidae.OtherService"), first.getValue().getDependencies());
+            assertTrue(first.getValue().isOutOfService());
+            assertTrue(laterNanos - first.getValue().getTimestamp() >= TimeUnit.SECONDS.toNanos(2));
+
+            Map.Entry<String, InsectState> second = restored.get(1);
+            assertEquals("net.talpidae.OtherService", second.getKey());
+            assertTrue(second.getValue().getSocketAddress().isUnresolved());
+            assertEquals(unresolved.getSocketAddress(), second.getValue().getSocketAddress());
+
+            // entries older than the maximum age are skipped
+            List<Map.Entry<String, InsectState>> young = new InsectStateSnapshot(path).read(laterNanos, TimeUnit.SECONDS.toMillis(1));
+            assertEquals(1, young.size());
+            assertEquals("net.talpidae.OtherService", young.get(0).getKey());
+        }
+        finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.talpidae.base.server.performance;
+
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class RouteTemplateFilterTest
+{
+    @Test
+    public void testGetTemplate() throws NoSuchMethodException
+    {
+        assertEquals("/users/{id}", RouteTemplateFilter.getTemplate(UserResource.class, UserResource.class.getMethod("get")));
+        assertEquals("/users/{id}/items/{itemId}", RouteTemplateFilter.getTemplate(UserResource.class, UserResource.class.getMethod("getItem")));
+        assertEquals("/users", RouteTemplateFilter.getTemplate(UserResource.class, UserResource.class.getMethod("list")));
+        assertEquals("/", RouteTemplateFilter.getTemplate(RootResource.class, RootResource.class.getMethod("get")));
+    }
+
+
+    @Path("/users/")
+    public static class UserResource
+    {
+        @GET
+        public String list()
+        {
+            return null;
+        }
+
+
+        @GET
+        @Path("{id: [0-9]+}")
+        public String get()
+        {
+            return null;
+        }
+
+
+        @GET
+        @Path("/{id}/items/{ itemId : [a-z]+ }/")
+        public String getItem()
+        {
+            return null;
+        }
+    }
+
+
+    public static class RootResource
+    {
+        @GET
+        public String get()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.talpidae.base.util.network;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.val;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class CachingAddressResolverTest
+{
+    private static final String HOST = "happy-bumblebee";
+
+    private static final byte[] FIRST_ADDRESS = {10, 0, 0, 1};
+
+    private static final byte[] SECOND_ADDRESS = {10, 0, 0, 2};
+
+    private final AtomicInteger lookupCount = new AtomicInteger();
+
+
+    /**
+     * Resolves to FIRST_ADDRESS, SECOND_ADDRESS on later lookups.
+     */
+    private InetAddress lookup(String host) throws UnknownHostException
+    {
+        return InetAddress.getByAddress((lookupCount.getAndIncrement() == 0) ? FIRST_ADDRESS : SECOND_ADDRESS);
+    }
+
+
+    private static void await(CountDownLatch latch) throws InterruptedException
+    {
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    public void testLiteralIsResolvedWithoutLookup()
+    {
+        val resolver = new CachingAddressResolver(60000L, this::lookup);
+
+        val resolution = resolver.lookup("10.0.0.3", null, context -> { });
+
+        assertNotNull(resolution);
+        assertArrayEquals(new byte[]{10, 0, 0, 3}, resolution.getAddress().getAddress());
+        assertEquals(1L, resolver.getHitCount());
+        assertEquals(0, lookupCount.get());
+    }
+
+
+    @Test
+    public void testMissCompletesListenerAndIsCached() throws InterruptedException
+    {
+        val resolver = new CachingAddressResolver(60000L, this::lookup);
+        val isCompleted = new CountDownLatch(1);
+
+        assertNull(resolver.lookup(HOST, isCompleted, CountDownLatch::countDown));
+        assertEquals(1L, resolver.getMissCount());
+        await(isCompleted);
+
+        val resolution = resolver.lookup(HOST, null, context -> { });
+        assertNotNull(resolution);
+        assertArrayEquals(FIRST_ADDRESS, resolution.getAddress().getAddress());
+        assertEquals(HOST, resolution.getAddress().getHostName());
+        assertEquals(1L, resolver.getHitCount());
+        assertEquals(1, lookupCount.get());
+    }
+
+
+    @Test
+    public void testExpiredResolutionIsServedWhileRefreshing() throws InterruptedException
+    {
+        val resolver = new CachingAddressResolver(50L, this::lookup);
+        val isCompleted = new CountDownLatch(1);
+
+        resolver.lookup(HOST, isCompleted, CountDownLatch::countDown);
+        await(isCompleted);
+
+        Thread.sleep(100L);
+
+        // stale, but still returned
+        val stale = resolver.lookup(HOST, null, context -> { });
+        assertArrayEquals(FIRST_ADDRESS, stale.getAddress().getAddress());
+
+        val deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Arrays.equals(SECOND_ADDRESS, resolver.lookup(HOST, null, context -> { }).getAddress().getAddress()))
+        {
+            assertTrue(System.nanoTime() - deadlineNanos < 0);
+            Thread.sleep(5L);
+        }
+
+        // refreshing isn't a miss
+        assertEquals(1L, resolver.getMissCount());
+    }
+
+
+    @Test
+    public void testFailureIsCachedNegatively() throws InterruptedException
+    {
+        val failedLookups = new AtomicInteger();
+        val resolver = new CachingAddressResolver(60000L, host ->
+        {
+            failedLookups.incrementAndGet();
+            throw new UnknownHostException(host);
+        });
+        val isCompleted = new CountDownLatch(1);
+
+        assertNull(resolver.lookup(HOST, isCompleted, CountDownLatch::countDown));
+        await(isCompleted);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            val resolution = resolver.lookup(HOST, null, context -> { });
+            assertNotNull(resolution);
+            assertNull(resolution.getAddress());
+            assertTrue(resolution.toSocketAddress(HOST, 8080).isUnresolved());
+        }
+
+        assertEquals(1, failedLookups.get());
+        assertEquals(1L, resolver.getFailureCount());
+    }
+
+
+    @Test
+    public void testPendingListenersAreLimited() throws InterruptedException
+    {
+        val isReleased = new CountDownLatch(1);
+        val resolver = new CachingAddressResolver(60000L, host ->
+        {
+            try
+            {
+                // keep the lookup pending
+                isReleased.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            return lookup(host);
+        });
+
+        val completedCount = new AtomicInteger();
+        val isCompleted = new CountDownLatch(64);
+        for (int i = 0; i < 70; ++i)
+        {
+            assertNull(resolver.lookup(HOST, isCompleted, latch ->
+            {
+                completedCount.incrementAndGet();
+                latch.countDown();
+            }));
+        }
+
+        isReleased.countDown();
+        await(isCompleted);
+
+        assertEquals(64, completedCount.get());
+        assertEquals(6L, resolver.getDroppedListenerCount());
+        assertEquals(1, lookupCount.get());
+    }
+}
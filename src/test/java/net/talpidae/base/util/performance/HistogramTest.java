@@ -0,0 +1,62 @@
+package net.talpidae.base.util.performance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class HistogramTest
+{
+    private static void assertApproximately(double expected, double actual)
+    {
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; ++i)
+        {
+            histogram.record(i / 1000.0);  // 1ms to 1s
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getSum(), 1e-9);
+        assertEquals(0.001, histogram.getMin(), 0.0);
+        assertEquals(1.0, histogram.getMax(), 0.0);
+        assertApproximately(0.5, histogram.getValueAtPercentile(50.0));
+        assertApproximately(0.99, histogram.getValueAtPercentile(99.0));
+        assertEquals(1.0, histogram.getValueAtPercentile(100.0), 0.0);
+    }
+
+
+    @Test
+    public void testMerge()
+    {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        for (int i = 0; i < 100; ++i)
+        {
+            a.record(0.01);
+            b.record(10.0);
+        }
+        b.record(0.0);
+
+        Histogram merged = new Histogram();
+        merged.merge(a);
+        merged.merge(b);
+
+        assertEquals(201, merged.getCount());
+        assertEquals(0.0, merged.getMin(), 0.0);
+        assertEquals(10.0, merged.getMax(), 0.0);
+        assertApproximately(0.01, merged.getValueAtPercentile(50.0));
+        assertApproximately(10.0, merged.getValueAtPercentile(90.0));
+
+        merged.reset();
+        assertEquals(0, merged.getCount());
+        assertTrue(Double.isNaN(merged.getValueAtPercentile(50.0)));
+    }
+}
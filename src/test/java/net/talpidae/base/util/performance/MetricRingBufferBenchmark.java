@@ -0,0 +1,209 @@
+package net.talpidae.base.util.performance;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.val;
+
+
+/**
+ * Measures metric ingestion throughput under contention: the lock-free MetricRingBuffer versus the previously used
+ * synchronized ArrayDeque of Metric instances. A single consumer drains continuously, like the metrics sink does.
+ * Producers perform some simulated work between offers (like request handling threads).
+ * <p>
+ * Not a unit test, run manually: MetricRingBufferBenchmark [maximumThreadCount] [secondsPerRun] [workPerOffer]
+ */
+public class MetricRingBufferBenchmark
+{
+    private static final int CAPACITY = 16384;
+
+    private static final String PATH = "/some-service/api/resource/duration";
+
+
+    public static void main(String[] args) throws Exception
+    {
+        val maximumThreadCount = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        val seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        val work = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+
+        for (int threadCount = 1; threadCount <= maximumThreadCount; threadCount *= 2)
+        {
+            run("ring", threadCount, seconds, work, new RingTarget());
+            run("synchronized", threadCount, seconds, work, new SynchronizedDequeTarget());
+        }
+    }
+
+
+    /**
+     * Burn some CPU cycles.
+     */
+    private static long work(long x, int iterations)
+    {
+        for (int i = 0; i < iterations; ++i)
+        {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+
+        return x;
+    }
+
+
+    private static void run(String name, int threadCount, int seconds, int work, Target target) throws Exception
+    {
+        val offered = new LongAdder();
+        val dropped = new LongAdder();
+        val start = new CountDownLatch(1);
+        val deadlineNanos = new long[1];
+        val threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; ++i)
+        {
+            val thread = new Thread(() ->
+            {
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                long count = 0;
+                long drops = 0;
+                long x = 1;
+                while ((count & 0xFFF) != 0 || System.nanoTime() < deadlineNanos[0])
+                {
+                    if (!target.offer(System.currentTimeMillis(), count))
+                    {
+                        ++drops;
+                    }
+                    ++count;
+
+                    x = work(x, work);
+                }
+
+                if (x == 0)
+                {
+                    System.out.print("");  // keep the work from being optimized away
+                }
+
+                offered.add(count);
+                dropped.add(drops);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        val consumer = new Thread(() ->
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                if (target.drain() == 0)
+                {
+                    Thread.yield();
+                }
+            }
+        });
+        consumer.start();
+
+        deadlineNanos[0] = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        start.countDown();
+        for (val thread : threads)
+        {
+            thread.join();
+        }
+        consumer.interrupt();
+        consumer.join();
+
+        System.out.printf("%-12s threads: %2d, offers/s: %,12.0f, delivered/s: %,12.0f, dropped: %5.2f%%%n",
+                name,
+                threadCount,
+                offered.sum() / (double) seconds,
+                (offered.sum() - dropped.sum()) / (double) seconds,
+                100.0 * dropped.sum() / Math.max(1L, offered.sum()));
+    }
+
+
+    private interface Target
+    {
+        boolean offer(long timestamp, double value);
+
+        int drain();
+    }
+
+
+    private static class RingTarget implements Target
+    {
+        private final MetricRingBuffer ring = new MetricRingBuffer(CAPACITY);
+
+        private double sum;
+
+        private final MetricRingBuffer.Consumer consumer = (pathId, timestamp, value) -> sum += value;
+
+
+        @Override
+        public boolean offer(long timestamp, double value)
+        {
+            return ring.offer(1, timestamp, value);
+        }
+
+
+        @Override
+        public int drain()
+        {
+            return ring.drain(consumer, CAPACITY);
+        }
+    }
+
+
+    private static class SynchronizedDequeTarget implements Target
+    {
+        private final ArrayDeque<Metric> queue = new ArrayDeque<>(CAPACITY);
+
+        private double sum;
+
+
+        @Override
+        public boolean offer(long timestamp, double value)
+        {
+            val metric = Metric.builder()
+                    .path(("/benchmark" + PATH).replace("//", "/"))
+                    .ts(timestamp)
+                    .value(value)
+                    .build();
+
+            synchronized (queue)
+            {
+                if (queue.size() < CAPACITY)
+                {
+                    queue.addLast(metric);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+
+        @Override
+        public int drain()
+        {
+            int count = 0;
+            synchronized (queue)
+            {
+                for (Metric metric = queue.poll(); metric != null; metric = queue.poll())
+                {
+                    sum += metric.getValue();
+                    ++count;
+                }
+            }
+
+            return count;
+        }
+    }
+}
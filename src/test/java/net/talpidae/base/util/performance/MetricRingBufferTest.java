@@ -0,0 +1,140 @@
+package net.talpidae.base.util.performance;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class MetricRingBufferTest
+{
+    @Test
+    public void fullAndDropTest()
+    {
+        MetricRingBuffer ring = new MetricRingBuffer(4);
+        assertEquals(4, ring.getCapacity());
+
+        for (int i = 0; i < 4; ++i)
+        {
+            assertTrue(ring.offer(i, i, i));
+        }
+
+        // full, further metrics are dropped
+        assertFalse(ring.offer(4, 4, 4));
+
+        List<Integer> received = new ArrayList<>();
+        assertEquals(2, ring.drain((pathId, timestamp, value) -> received.add(pathId), 2));
+
+        // drained slots can be reused
+        assertTrue(ring.offer(5, 5, 5));
+        assertTrue(ring.offer(6, 6, 6));
+        assertFalse(ring.offer(7, 7, 7));
+
+        assertEquals(4, ring.drain((pathId, timestamp, value) -> received.add(pathId), ring.getCapacity()));
+        assertEquals(0, ring.drain((pathId, timestamp, value) -> received.add(pathId), ring.getCapacity()));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int pathId : new int[]{0, 1, 2, 3, 5, 6})
+        {
+            expected.add(pathId);
+        }
+        assertEquals(expected, received);
+    }
+
+
+    @Test
+    public void wrapAroundOrderingTest()
+    {
+        MetricRingBuffer ring = new MetricRingBuffer(8);
+        Random random = new Random();
+
+        int next = 0;
+        int[] expected = {0};
+        for (int round = 0; round < 1000; ++round)
+        {
+            int count = 1 + random.nextInt(ring.getCapacity());
+            for (int i = 0; i < count; ++i, ++next)
+            {
+                assertTrue(ring.offer(next, next * 10L, next * 0.5));
+            }
+
+            int drained = ring.drain((pathId, timestamp, value) ->
+            {
+                assertEquals(expected[0], pathId);
+                assertEquals(expected[0] * 10L, timestamp);
+                assertEquals(expected[0] * 0.5, value, 0.0);
+
+                ++expected[0];
+            }, ring.getCapacity());
+
+            assertEquals(count, drained);
+        }
+
+        assertEquals(next, expected[0]);
+    }
+
+
+    @Test
+    public void concurrentOfferAndDrainTest()
+    {
+        final int testThreadCount = 4;
+        final int testElementCount = 250000;
+
+        final MetricRingBuffer ring = new MetricRingBuffer(1024);
+        final AtomicInteger startLatch = new AtomicInteger(0);
+
+        for (int threadIndex = 0; threadIndex < testThreadCount; ++threadIndex)
+        {
+            final int producer = threadIndex;
+            new Thread(() ->
+            {
+                startLatch.incrementAndGet();
+                while (startLatch.get() < testThreadCount)
+                    Thread.yield();
+
+                for (int i = 0; i < testElementCount; ++i)
+                {
+                    // retry until the consumer made room
+                    while (!ring.offer(producer, i, i))
+                        Thread.yield();
+                }
+            }).start();
+        }
+
+        // single consumer, elements of each producer must arrive in order
+        final long[] nextPerProducer = new long[testThreadCount];
+        final int[] receivedCount = {0};
+        final long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (receivedCount[0] < testThreadCount * testElementCount)
+        {
+            if (System.nanoTime() >= timeout)
+                fail("timeout waiting for producers, received: " + receivedCount[0]);
+
+            int drained = ring.drain((pathId, timestamp, value) ->
+            {
+                assertEquals("producer: " + pathId, nextPerProducer[pathId], timestamp);
+                assertEquals(timestamp, (long) value);
+
+                ++nextPerProducer[pathId];
+                ++receivedCount[0];
+            }, ring.getCapacity());
+
+            if (drained == 0)
+                Thread.yield();
+        }
+
+        for (int threadIndex = 0; threadIndex < testThreadCount; ++threadIndex)
+        {
+            assertEquals(testElementCount, nextPerProducer[threadIndex]);
+        }
+    }
+}